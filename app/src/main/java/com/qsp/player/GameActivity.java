@@ -12,7 +12,6 @@ import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.text.format.DateFormat;
@@ -27,7 +26,7 @@ import android.view.MotionEvent;
 import android.view.SubMenu;
 import android.view.View;
 import android.view.ViewGroup;
-import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
 import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
@@ -40,6 +39,7 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.constraintlayout.widget.ConstraintLayout;
@@ -48,15 +48,21 @@ import androidx.core.view.GestureDetectorCompat;
 
 import com.qsp.player.libqsp.GameInterface;
 import com.qsp.player.libqsp.LibQspProxy;
+import com.qsp.player.libqsp.model.GameState;
 import com.qsp.player.libqsp.model.InterfaceConfiguration;
 import com.qsp.player.libqsp.model.QspListItem;
 import com.qsp.player.libqsp.model.QspMenuItem;
 import com.qsp.player.libqsp.model.RefreshInterfaceRequest;
 import com.qsp.player.libqsp.model.WindowType;
 import com.qsp.player.service.AudioPlayer;
+import com.qsp.player.service.AutosaveWriter;
 import com.qsp.player.service.GameContentResolver;
+import com.qsp.player.service.GameResourceHandler;
 import com.qsp.player.service.HtmlProcessor;
+import com.qsp.player.service.HtmlRenderPipeline;
 import com.qsp.player.service.ImageProvider;
+import com.qsp.player.service.PageTemplate;
+import com.qsp.player.service.SaveSlotIndex;
 import com.qsp.player.stock.GameStockActivity;
 import com.qsp.player.util.ViewUtil;
 
@@ -64,21 +70,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 
 import static com.qsp.player.util.Base64Util.decodeBase64;
 import static com.qsp.player.util.ColorUtil.convertRgbaToBgra;
-import static com.qsp.player.util.ColorUtil.getHexColor;
-import static com.qsp.player.util.FileUtil.findFileOrDirectory;
-import static com.qsp.player.util.FileUtil.getExtension;
-import static com.qsp.player.util.FileUtil.getOrCreateDirectory;
-import static com.qsp.player.util.FileUtil.getOrCreateFile;
+import static com.qsp.player.util.FileUtil.createFile;
+import static com.qsp.player.util.StringUtil.isNotEmpty;
 import static com.qsp.player.util.ThreadUtil.isMainThread;
 import static com.qsp.player.util.ViewUtil.getFontStyle;
 import static com.qsp.player.util.ViewUtil.setLocale;
@@ -99,22 +101,7 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
     private static final int TAB_OBJECTS = 1;
     private static final int TAB_VARS_DESC = 2;
 
-    private static final String PAGE_HEAD_TEMPLATE = "<head>\n"
-            + "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1, minimum-scale=1, maximum-scale=1\">\n"
-            + "<style type=\"text/css\">\n"
-            + "  body {\n"
-            + "    margin: 0;\n"
-            + "    padding: 0.5em;\n"
-            + "    color: QSPTEXTCOLOR;\n"
-            + "    background-color: QSPBACKCOLOR;\n"
-            + "    font-size: QSPFONTSIZE;\n"
-            + "    font-family: QSPFONTSTYLE;\n"
-            + "  }\n"
-            + "  a { color: QSPLINKCOLOR; }\n"
-            + "  a:link { color: QSPLINKCOLOR; }\n"
-            + "</style></head>";
-
-    private static final String PAGE_BODY_TEMPLATE = "<body>REPLACETEXT</body>";
+    private static final String MAIN_DESC_HISTORY_URL = "about:blank#main-desc-";
 
     private static final Logger logger = LoggerFactory.getLogger(GameActivity.class);
 
@@ -131,7 +118,12 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
     private Settings settings;
     private String currentLanguage = Locale.getDefault().getLanguage();
     private int activeTab;
-    private String pageTemplate = "";
+    private PageTemplate pageTemplate = PageTemplate.EMPTY;
+    private String renderedMainDesc;
+    private boolean mainDescPageLoaded;
+    private int mainDescPageGeneration;
+    private String mainDescPageUrl;
+    private final StringBuilder queuedMainDescHtml = new StringBuilder();
     private boolean showActions = true;
     private boolean selectingGame;
 
@@ -151,30 +143,16 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
     // region Сервисы
 
     private GameContentResolver gameContentResolver;
+    private GameResourceHandler gameResourceHandler;
     private ImageProvider imageProvider;
     private HtmlProcessor htmlProcessor;
+    private HtmlRenderPipeline htmlPipeline;
     private LibQspProxy libQspProxy;
     private AudioPlayer audioPlayer;
     private GestureDetectorCompat gestureDetector;
 
     // endregion Сервисы
 
-    // region Локация-счётчик
-
-    private final Handler counterHandler = new Handler();
-
-    private int counterInterval = 500;
-
-    private final Runnable counterTask = new Runnable() {
-        @Override
-        public void run() {
-            libQspProxy.executeCounter();
-            counterHandler.postDelayed(this, counterInterval);
-        }
-    };
-
-    // endregion Локация-счётчик
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -214,6 +192,9 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
 
     private void initMainDescView() {
         mainDescView = findViewById(R.id.main_desc);
+        // JavaScript нужен только для дописывания текста через evaluateJavascript. Скрипты самой
+        // игры запрещены политикой Content-Security-Policy в шаблоне страницы
+        mainDescView.getSettings().setJavaScriptEnabled(true);
         mainDescView.setWebViewClient(new QspWebViewClient());
         mainDescView.setOnTouchListener(this::handleTouchEvent);
     }
@@ -258,8 +239,10 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
         QuestPlayerApplication application = (QuestPlayerApplication) getApplication();
 
         gameContentResolver = application.getGameContentResolver();
+        gameResourceHandler = application.getGameResourceHandler();
         imageProvider = application.getImageProvider();
         htmlProcessor = application.getHtmlProcessor();
+        htmlPipeline = new HtmlRenderPipeline(htmlProcessor, new HtmlPipelineListener());
 
         audioPlayer = application.getAudioPlayer();
         audioPlayer.start();
@@ -333,7 +316,7 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
     protected void onDestroy() {
         audioPlayer.stop();
         libQspProxy.setGameInterface(null);
-        counterHandler.removeCallbacks(counterTask);
+        htmlPipeline.shutdown();
         unbindService(backgroundServiceConn);
         super.onDestroy();
         logger.info("GameActivity destroyed");
@@ -342,7 +325,7 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
     @Override
     public void onPause() {
         audioPlayer.pause();
-        counterHandler.removeCallbacks(counterTask);
+        libQspProxy.setCounterPaused(true);
         super.onPause();
     }
 
@@ -353,6 +336,7 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
         loadSettings();
         updateLocale();
         applySettings();
+        libQspProxy.setCompressSaves(settings.isCompressSaves());
 
         if (libQspProxy.getGameState().isGameRunning()) {
             applyGameState();
@@ -360,11 +344,11 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
             audioPlayer.setSoundEnabled(settings.isSoundEnabled());
             audioPlayer.resume();
 
-            counterHandler.postDelayed(counterTask, counterInterval);
-
         } else if (!selectingGame) {
             startSelectGame();
         }
+        // Счётчик запустится и для игры, которая ещё загружается в потоке библиотеки
+        libQspProxy.setCounterPaused(false);
     }
 
     private void loadSettings() {
@@ -409,15 +393,20 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
         constraintSet.applyTo(layoutTop);
     }
 
+    /**
+     * Создаёт новый шаблон страницы, если изменились цвета или шрифт. Описания по новому шаблону
+     * ставит в очередь вызывающий код.
+     */
     private void updatePageTemplate() {
-        String pageHeadTemplate = PAGE_HEAD_TEMPLATE
-                .replace("QSPTEXTCOLOR", getHexColor(getTextColor()))
-                .replace("QSPBACKCOLOR", getHexColor(getBackgroundColor()))
-                .replace("QSPLINKCOLOR", getHexColor(getLinkColor()))
-                .replace("QSPFONTSTYLE", getFontStyle(settings.getTypeface()))
-                .replace("QSPFONTSIZE", Integer.toString(getFontSize()));
+        int textColor = getTextColor();
+        int backColor = getBackgroundColor();
+        int linkColor = getLinkColor();
+        String fontStyle = getFontStyle(settings.getTypeface());
+        int fontSize = getFontSize();
+        if (pageTemplate.matches(textColor, backColor, linkColor, fontStyle, fontSize)) return;
 
-        pageTemplate = pageHeadTemplate + PAGE_BODY_TEMPLATE;
+        pageTemplate = new PageTemplate(textColor, backColor, linkColor, fontStyle, fontSize);
+        htmlPipeline.setPageTemplate(pageTemplate);
     }
 
     private int getTextColor() {
@@ -436,37 +425,106 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
     }
 
     private void applyGameState() {
-        refreshMainDesc();
+        refreshMainDesc(true);
         refreshVarsDesc();
         refreshActions();
         refreshObjects();
     }
 
-    private void refreshMainDesc() {
-        String mainDesc = getHtml(libQspProxy.getGameState().getMainDesc());
+    /**
+     * Ставит основное описание в очередь на преобразование в HTML. Может вызываться из любого потока.
+     *
+     * @param reload <code>true</code> если страницу нужно загрузить заново, даже если текст только дописан
+     */
+    private void refreshMainDesc(boolean reload) {
+        GameState state = libQspProxy.getGameState();
+        htmlPipeline.submitMainDesc(state.getMainDesc(), state.getInterfaceConfig().isUseHtml(), reload);
+    }
 
+    private void loadMainDescPage(String text, String page) {
+        mainDescPageLoaded = false;
+        queuedMainDescHtml.setLength(0);
+        // Номер загрузки в адресе истории позволяет отличить её завершение от завершения прерванных загрузок
+        mainDescPageUrl = MAIN_DESC_HISTORY_URL + ++mainDescPageGeneration;
         mainDescView.loadDataWithBaseURL(
                 "file:///",
-                pageTemplate.replace("REPLACETEXT", mainDesc),
+                page,
                 "text/html",
                 "UTF-8",
-                "");
-    }
-
-    private String getHtml(String str) {
-        InterfaceConfiguration config = libQspProxy.getGameState().getInterfaceConfig();
+                mainDescPageUrl);
+        renderedMainDesc = text;
+    }
+
+    /**
+     * Дописывает HTML-код в конец основного описания. Пока страница загружается, код копится
+     * и дописывается после загрузки. Если на странице не то описание, к которому относится
+     * дописанная часть, страница загружается заново.
+     */
+    private void appendMainDescHtml(String baseText, String text, String html) {
+        if (!baseText.equals(renderedMainDesc)) {
+            refreshMainDesc(true);
+            return;
+        }
+        if (mainDescPageLoaded) {
+            insertMainDescHtml(html);
+        } else {
+            queuedMainDescHtml.append(html);
+        }
+        renderedMainDesc = text;
+    }
+
+    private void insertMainDescHtml(String html) {
+        mainDescView.evaluateJavascript(
+                "document.body.insertAdjacentHTML('beforeend', " + toJavaScriptString(html) + ");",
+                null);
+    }
+
+    private static String toJavaScriptString(String str) {
+        StringBuilder result = new StringBuilder(str.length() + 16);
+        result.append('"');
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\u2028':
+                    result.append("\\u2028");
+                    break;
+                case '\u2029':
+                    result.append("\\u2029");
+                    break;
+                default:
+                    result.append(c);
+                    break;
+            }
+        }
+        result.append('"');
 
-        return config.isUseHtml() ?
-                htmlProcessor.convertQspHtmlToWebViewHtml(str) :
-                htmlProcessor.convertQspStringToWebViewHtml(str);
+        return result.toString();
     }
 
+    /**
+     * Ставит дополнительное описание в очередь на преобразование в HTML. Может вызываться из любого потока.
+     */
     private void refreshVarsDesc() {
-        String varsDesc = getHtml(libQspProxy.getGameState().getVarsDesc());
+        GameState state = libQspProxy.getGameState();
+        htmlPipeline.submitVarsDesc(state.getVarsDesc(), state.getInterfaceConfig().isUseHtml());
+    }
 
+    private void loadVarsDescPage(String page) {
         varsDescView.loadDataWithBaseURL(
                 "file:///",
-                pageTemplate.replace("REPLACETEXT", varsDesc),
+                page,
                 "text/html",
                 "UTF-8",
                 "");
@@ -538,17 +596,25 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
         subMenu.setHeaderTitle(getString(R.string.selectSlot));
 
         MenuItem item;
-        final File savesDir = getOrCreateDirectory(libQspProxy.getGameState().getGameDir(), "saves");
         final LibQspProxy proxy = libQspProxy;
+        final SaveSlotIndex slotIndex = proxy.getSaveSlotIndex();
+        if (slotIndex == null) return;
+
+        final File savesDir = slotIndex.getSavesDir();
 
         for (int i = 0; i < MAX_SAVE_SLOTS; ++i) {
             final String filename = getSaveSlotFilename(i);
-            final File file = findFileOrDirectory(savesDir, filename);
+            final SaveSlotIndex.Slot slot = slotIndex.get(filename);
+            final File file = slot != null ? new File(savesDir, slot.getFilename()) : null;
             String title;
 
-            if (file != null) {
-                String lastMod = DateFormat.format("yyyy-MM-dd HH:mm:ss", file.lastModified()).toString();
-                title = getString(R.string.slotPresent, i + 1, lastMod);
+            if (slot != null) {
+                String lastMod = DateFormat.format("yyyy-MM-dd HH:mm:ss", slot.getTime()).toString();
+                if (isNotEmpty(slot.getLocName())) {
+                    title = getString(R.string.slotPresentAt, i + 1, lastMod, slot.getLocName());
+                } else {
+                    title = getString(R.string.slotPresent, i + 1, lastMod);
+                }
             } else {
                 title = getString(R.string.slotEmpty, i + 1);
             }
@@ -558,12 +624,12 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
                 switch (action) {
                     case LOAD:
                         if (file != null) {
-                            doWithCounterDisabled(() -> proxy.loadGameState(Uri.fromFile(file)));
+                            proxy.loadGameState(Uri.fromFile(file));
                         }
                         break;
                     case SAVE:
-                        File file1 = getOrCreateFile(savesDir, filename);
-                        proxy.saveGameState(Uri.fromFile(file1));
+                        File file1 = file != null ? file : createFile(savesDir, filename);
+                        proxy.saveGameState(Uri.fromFile(file1), settings.isCompressSaves());
                         break;
                 }
 
@@ -573,6 +639,16 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
 
         switch (action) {
             case LOAD:
+                final SaveSlotIndex.Slot autosave = slotIndex.getLatest(AutosaveWriter.SLOT_PREFIX);
+                if (autosave != null) {
+                    String lastMod = DateFormat.format("yyyy-MM-dd HH:mm:ss", autosave.getTime()).toString();
+                    final File autosaveFile = new File(savesDir, autosave.getFilename());
+                    item = subMenu.add(getString(R.string.autosavePresent, lastMod));
+                    item.setOnMenuItemClickListener(item14 -> {
+                        proxy.loadGameState(Uri.fromFile(autosaveFile));
+                        return true;
+                    });
+                }
                 item = subMenu.add(getString(R.string.loadFrom));
                 item.setOnMenuItemClickListener(item12 -> {
                     startLoadFromFile();
@@ -703,7 +779,7 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
             return;
         }
         Uri uri = data.getData();
-        doWithCounterDisabled(() -> libQspProxy.loadGameState(uri));
+        libQspProxy.loadGameState(uri);
     }
 
     private void handleSaveToFile(int resultCode, Intent data) {
@@ -711,7 +787,7 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
             return;
         }
         Uri uri = data.getData();
-        libQspProxy.saveGameState(uri);
+        libQspProxy.saveGameState(uri, false);
     }
 
     private void selectNextTab() {
@@ -761,10 +837,10 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
     public void refresh(final RefreshInterfaceRequest request) {
         runOnUiThread(() -> {
             if (request.isInterfaceConfigChanged()) {
+                // Описания преобразуются после обновления шаблона страницы
                 applySettings();
-            }
-            if (request.isInterfaceConfigChanged() || request.isMainDescChanged()) {
-                refreshMainDesc();
+                refreshMainDesc(true);
+                refreshVarsDesc();
             }
             if (request.isActionsChanged()) {
                 refreshActions();
@@ -772,10 +848,15 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
             if (request.isObjectsChanged()) {
                 refreshObjects();
             }
-            if (request.isInterfaceConfigChanged() || request.isVarsDescChanged()) {
-                refreshVarsDesc();
-            }
         });
+        if (request.isInterfaceConfigChanged()) return;
+
+        if (request.isMainDescChanged()) {
+            refreshMainDesc(false);
+        }
+        if (request.isVarsDescChanged()) {
+            refreshVarsDesc();
+        }
     }
 
     @Override
@@ -905,18 +986,6 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
         actionsView.setVisibility(show ? View.VISIBLE : View.GONE);
     }
 
-    @Override
-    public void setCounterInterval(int millis) {
-        counterInterval = millis;
-    }
-
-    @Override
-    public void doWithCounterDisabled(Runnable runnable) {
-        counterHandler.removeCallbacks(counterTask);
-        runnable.run();
-        counterHandler.postDelayed(counterTask, counterInterval);
-    }
-
     // endregion GameInterface
 
     // region GestureDetector.OnGestureListener
@@ -971,12 +1040,40 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
 
     // endregion GestureDetector.OnGestureListener
 
+    private class HtmlPipelineListener implements HtmlRenderPipeline.Listener {
+        @Override
+        public void onMainDescConverted(String text, String page) {
+            runOnUiThread(() -> loadMainDescPage(text, page));
+        }
+
+        @Override
+        public void onMainDescAppended(String baseText, String text, String html) {
+            runOnUiThread(() -> appendMainDescHtml(baseText, text, html));
+        }
+
+        @Override
+        public void onVarsDescConverted(String page) {
+            runOnUiThread(() -> loadVarsDescPage(page));
+        }
+    }
+
     private enum SlotAction {
         LOAD,
         SAVE
     }
 
     private class QspWebViewClient extends WebViewClient {
+        @Override
+        public void onPageFinished(WebView view, String url) {
+            if (view == mainDescView && url != null && url.equals(mainDescPageUrl)) {
+                mainDescPageLoaded = true;
+                if (queuedMainDescHtml.length() > 0) {
+                    insertMainDescHtml(queuedMainDescHtml.toString());
+                    queuedMainDescHtml.setLength(0);
+                }
+            }
+        }
+
         @Override
         public boolean shouldOverrideUrlLoading(WebView view, final String href) {
             if (href.toLowerCase().startsWith("exec:")) {
@@ -990,25 +1087,50 @@ public class GameActivity extends AppCompatActivity implements GameInterface, Ge
         @Override
         public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
             if (url.startsWith("file:///")) {
-                String relPath = Uri.decode(url.substring(8));
-                File file = gameContentResolver.getFile(relPath);
-                if (file == null) {
-                    logger.error("File not found: " + relPath);
-                    return null;
-                }
-                try {
-                    String extension = getExtension(file.getName());
-                    String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-                    InputStream in = GameActivity.this.getContentResolver().openInputStream(Uri.fromFile(file));
-                    return new WebResourceResponse(mimeType, null, in);
-                } catch (FileNotFoundException ex) {
-                    logger.error("File not found", ex);
-                    return null;
-                }
+                return interceptGameResourceRequest(url, null);
             }
 
             return super.shouldInterceptRequest(view, url);
         }
+
+        @Nullable
+        @Override
+        @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+        public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+            String url = request.getUrl().toString();
+            if (url.startsWith("file:///")) {
+                return interceptGameResourceRequest(url, getHeader(request.getRequestHeaders(), "Range"));
+            }
+
+            return super.shouldInterceptRequest(view, request);
+        }
+
+        private WebResourceResponse interceptGameResourceRequest(String url, String range) {
+            String relPath = Uri.decode(url.substring(8));
+            GameResourceHandler.Response response = gameResourceHandler.handle(relPath, range);
+            if (response == null) {
+                logger.error("File not found: " + relPath);
+                return null;
+            }
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                return new WebResourceResponse(response.getMimeType(), null, response.getData());
+            }
+
+            return new WebResourceResponse(
+                    response.getMimeType(),
+                    null,
+                    response.getStatusCode(),
+                    response.getReasonPhrase(),
+                    response.getHeaders(),
+                    response.getData());
+        }
+
+        private String getHeader(Map<String, String> headers, String name) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase(name)) return header.getValue();
+            }
+            return null;
+        }
     }
 
     private class QspItemAdapter extends ArrayAdapter<QspListItem> {
@@ -7,6 +7,7 @@ import com.qsp.player.libqsp.LibQspProxy;
 import com.qsp.player.libqsp.LibQspProxyImpl;
 import com.qsp.player.service.AudioPlayer;
 import com.qsp.player.service.GameContentResolver;
+import com.qsp.player.service.GameResourceHandler;
 import com.qsp.player.service.HtmlProcessor;
 import com.qsp.player.service.ImageProvider;
 
@@ -18,6 +19,7 @@ public class QuestPlayerApplication extends Application {
     private static final Logger logger = LoggerFactory.getLogger(QuestPlayerApplication.class);
 
     private final GameContentResolver gameContentResolver = new GameContentResolver();
+    private final GameResourceHandler gameResourceHandler = new GameResourceHandler(gameContentResolver);
     private final ImageProvider imageProvider = new ImageProvider();
     private final HtmlProcessor htmlProcessor = new HtmlProcessor(gameContentResolver, imageProvider);
     private final AudioPlayer audioPlayer = new AudioPlayer();
@@ -36,6 +38,7 @@ public class QuestPlayerApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        imageProvider.init(this);
         logger.info("QuestPlayerApplication created");
     }
 
@@ -43,6 +46,10 @@ public class QuestPlayerApplication extends Application {
         return gameContentResolver;
     }
 
+    public GameResourceHandler getGameResourceHandler() {
+        return gameResourceHandler;
+    }
+
     public ImageProvider getImageProvider() {
         return imageProvider;
     }
@@ -13,6 +13,7 @@ public class Settings {
     private int backColor;
     private int textColor;
     private int linkColor;
+    private boolean compressSaves;
 
     public static Settings from(SharedPreferences preferences) {
         Settings settings = new Settings();
@@ -25,6 +26,7 @@ public class Settings {
         settings.backColor = preferences.getInt("backColor", Color.parseColor("#e0e0e0"));
         settings.textColor = preferences.getInt("textColor", Color.parseColor("#000000"));
         settings.linkColor = preferences.getInt("linkColor", Color.parseColor("#0000ff"));
+        settings.compressSaves = preferences.getBoolean("compressSaves", false);
         return settings;
     }
 
@@ -80,4 +82,8 @@ public class Settings {
     public int getLinkColor() {
         return linkColor;
     }
+
+    public boolean isCompressSaves() {
+        return compressSaves;
+    }
 }
@@ -0,0 +1,109 @@
+package com.qsp.player.libqsp;
+
+/**
+ * Расписание обработки локации-счётчика. Время передаётся вызывающим и должно быть монотонным.
+ *
+ * @implNote Сроки срабатывания отсчитываются от предыдущего срока, а не от фактического времени
+ * срабатывания, поэтому задержки отдельных срабатываний не накапливаются. Если обработка
+ * счётчика заняла больше интервала, пропущенные срабатывания не догоняются, а учитываются
+ * как пропущенные.
+ */
+public class CounterTimer {
+    public static final int DEFAULT_INTERVAL = 500;
+
+    /**
+     * Срабатывание считается опоздавшим, если оно произошло позже срока на это число миллисекунд.
+     */
+    private static final long LATE_THRESHOLD_MS = 16;
+
+    private int interval = DEFAULT_INTERVAL;
+    private long deadline;
+    private boolean running;
+
+    private long ticksCount;
+    private long lateTicksCount;
+    private long skippedTicksCount;
+    private long maxLateness;
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Устанавливает интервал в миллисекундах. Не влияет на уже назначенный срок.
+     */
+    public void setInterval(int interval) {
+        this.interval = Math.max(interval, 1);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Запускает расписание заново с момента <code>now</code>.
+     *
+     * @return срок первого срабатывания
+     */
+    public long start(long now) {
+        running = true;
+        deadline = now + interval;
+        return deadline;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Учитывает срабатывание, произошедшее в момент <code>now</code>.
+     */
+    public void onTick(long now) {
+        long lateness = now - deadline;
+        ++ticksCount;
+        if (lateness > LATE_THRESHOLD_MS) {
+            ++lateTicksCount;
+        }
+        if (lateness > maxLateness) {
+            maxLateness = lateness;
+        }
+    }
+
+    /**
+     * Вычисляет срок следующего срабатывания после обработки счётчика, завершившейся в момент <code>now</code>.
+     *
+     * @return срок следующего срабатывания
+     */
+    public long next(long now) {
+        deadline += interval;
+        if (deadline < now) {
+            long skipped = (now - deadline - 1) / interval + 1;
+            skippedTicksCount += skipped;
+            deadline += skipped * interval;
+        }
+        return deadline;
+    }
+
+    public long getTicksCount() {
+        return ticksCount;
+    }
+
+    public long getLateTicksCount() {
+        return lateTicksCount;
+    }
+
+    public long getSkippedTicksCount() {
+        return skippedTicksCount;
+    }
+
+    public long getMaxLateness() {
+        return maxLateness;
+    }
+
+    public void resetStats() {
+        ticksCount = 0;
+        lateTicksCount = 0;
+        skippedTicksCount = 0;
+        maxLateness = 0;
+    }
+}
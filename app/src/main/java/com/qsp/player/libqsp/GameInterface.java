@@ -14,18 +14,4 @@ public interface GameInterface {
     int showMenu();
     void showSaveGamePopup(String filename);
     void showWindow(WindowType type, boolean show);
-
-    // region Локация-счётчик
-
-    /**
-     * Установить интервал обработки локации-счётчика в <code>millis</code> миллисекунд.
-     */
-    void setCounterInterval(int millis);
-
-    /**
-     * Выполнить <code>runnable</code> без обработки локации-счётчика.
-     */
-    void doWithCounterDisabled(Runnable runnable);
-
-    // endregion Локация-счётчик
 }
@@ -3,6 +3,7 @@ package com.qsp.player.libqsp;
 import android.net.Uri;
 
 import com.qsp.player.libqsp.model.GameState;
+import com.qsp.player.service.SaveSlotIndex;
 
 import java.io.File;
 
@@ -20,7 +21,14 @@ public interface LibQspProxy {
     void runGame(String id, String title, File dir, File file);
     void restartGame();
     void loadGameState(Uri uri);
-    void saveGameState(Uri uri);
+
+    /**
+     * Сохраняет состояние игры по адресу <code>uri</code>.
+     *
+     * @param compress <code>true</code> для сжатого формата, <code>false</code> для формата,
+     *                 совместимого с другими плеерами QSP
+     */
+    void saveGameState(Uri uri, boolean compress);
 
     void onActionSelected(int index);
     void onActionClicked(int index);
@@ -33,11 +41,21 @@ public interface LibQspProxy {
     void execute(String code);
 
     /**
-     * Запускает обработку локации-счётчика в библиотеке.
+     * Приостанавливает или возобновляет обработку локации-счётчика, например когда игра скрыта.
      */
-    void executeCounter();
+    void setCounterPaused(boolean paused);
+
+    /**
+     * Задаёт формат автосохранений: сжатый или совместимый с другими плеерами QSP.
+     */
+    void setCompressSaves(boolean compress);
 
     GameState getGameState();
 
+    /**
+     * @return индекс сохранений текущей игры, или <code>null</code> если игра ещё не загружена
+     */
+    SaveSlotIndex getSaveSlotIndex();
+
     void setGameInterface(GameInterface view);
 }
@@ -6,11 +6,13 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
 
+import com.qsp.player.BuildConfig;
 import com.qsp.player.R;
-import com.qsp.player.libqsp.dto.ActionData;
+import com.qsp.player.libqsp.dto.CacheStatsData;
 import com.qsp.player.libqsp.dto.ErrorData;
-import com.qsp.player.libqsp.dto.GetVarValuesResponse;
-import com.qsp.player.libqsp.dto.ObjectData;
+import com.qsp.player.libqsp.dto.ListItemsData;
+import com.qsp.player.libqsp.dto.ProfileData;
+import com.qsp.player.libqsp.dto.RefreshDeltaData;
 import com.qsp.player.libqsp.model.GameState;
 import com.qsp.player.libqsp.model.InterfaceConfiguration;
 import com.qsp.player.libqsp.model.QspListItem;
@@ -18,21 +20,23 @@ import com.qsp.player.libqsp.model.QspMenuItem;
 import com.qsp.player.libqsp.model.RefreshInterfaceRequest;
 import com.qsp.player.libqsp.model.WindowType;
 import com.qsp.player.service.AudioPlayer;
+import com.qsp.player.service.AutosaveWriter;
 import com.qsp.player.service.GameContentResolver;
 import com.qsp.player.service.HtmlProcessor;
 import com.qsp.player.service.ImageProvider;
-import com.qsp.player.util.StreamUtil;
+import com.qsp.player.service.SaveSlotIndex;
+import com.qsp.player.util.LazyOutputStream;
+import com.qsp.player.util.SaveContainer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -45,15 +49,31 @@ import static com.qsp.player.util.ThreadUtil.isSameThread;
 import static com.qsp.player.util.ThreadUtil.throwIfNotMainThread;
 
 public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
+    private static final int AUTOSAVE_SLOTS_COUNT = 3;
+    private static final long AUTOSAVE_DELAY_MS = 3000;
+    private static final int SAVE_THUMBNAIL_LENGTH = 100;
+    private static final int PROFILE_LOG_LOCS_COUNT = 10;
+
     private static final Logger logger = LoggerFactory.getLogger(LibQspProxyImpl.class);
 
     private final ReentrantLock libQspLock = new ReentrantLock();
     private final GameState gameState = new GameState();
     private final NativeMethods nativeMethods = new NativeMethods(this);
+    private final RefreshDeltaData refreshDelta = new RefreshDeltaData();
+    private final AutosaveWriter autosaveWriter = new AutosaveWriter(AUTOSAVE_SLOTS_COUNT);
+    private final Runnable autosaveRunnable = this::autosave;
+    private final CounterTimer counterTimer = new CounterTimer();
+    private final Runnable counterRunnable = this::onCounterTick;
 
     private Thread libQspThread;
     private volatile Handler libQspHandler;
     private volatile boolean libQspThreadInited;
+    private volatile boolean autosaveScheduled;
+    private volatile boolean compressSaves;
+    private volatile SaveSlotIndex saveSlotIndex;
+    private volatile boolean counterPaused = true;
+    private boolean counterExecuting;
+    private int counterGeneration;
     private volatile long gameStartTime;
     private volatile long lastMsCountCallTime;
     private GameInterface gameInterface;
@@ -77,6 +97,179 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
         this.audioPlayer = audioPlayer;
     }
 
+    /**
+     * Откладывает автосохранение до паузы между командами игрока. Повторный вызов переносит его.
+     */
+    private void scheduleAutosave() {
+        Handler handler = libQspHandler;
+        if (handler == null) return;
+
+        handler.removeCallbacks(autosaveRunnable);
+        handler.postDelayed(autosaveRunnable, AUTOSAVE_DELAY_MS);
+        autosaveScheduled = true;
+    }
+
+    /**
+     * Снимает состояние игры в памяти и передаёт его на запись в отдельный поток.
+     *
+     * @implNote Локация <code>ONGSAVE</code> не выполняется: игрок не сохранял игру сам,
+     * и игра не должна показывать сообщения или менять состояние.
+     */
+    private void autosave() {
+        autosaveScheduled = false;
+        libQspLock.lock();
+        try {
+            if (!gameState.isGameRunning()) return;
+
+            byte[] data = nativeMethods.QSPSaveGameSnapshot();
+            SaveSlotIndex index = saveSlotIndex;
+            if (data == null || index == null) {
+                logger.warn("Autosave was skipped: the game state could not be saved");
+                return;
+            }
+            String locName = nativeMethods.QSPGetCurLoc();
+            String thumbnail = getSaveThumbnail();
+            autosaveWriter.submit(index.getSavesDir(), data, compressSaves, slotFile ->
+                    index.put(SaveSlotIndex.Slot.fromFile(slotFile, locName, thumbnail)));
+        } finally {
+            libQspLock.unlock();
+        }
+    }
+
+    /**
+     * @return начало основного описания без HTML-тегов для индекса сохранений
+     */
+    private String getSaveThumbnail() {
+        String desc = getStringOrEmpty(gameState.getMainDesc());
+        if (gameState.getInterfaceConfig().isUseHtml()) {
+            desc = htmlProcessor.removeHtmlTags(desc);
+        }
+        desc = desc.replaceAll("\\s+", " ").trim();
+
+        return desc.length() > SAVE_THUMBNAIL_LENGTH ? desc.substring(0, SAVE_THUMBNAIL_LENGTH) : desc;
+    }
+
+    /**
+     * Обновляет индекс сохранений, если <code>uri</code> указывает на файл в папке сохранений игры.
+     */
+    private void updateSaveSlotIndex(Uri uri) {
+        SaveSlotIndex index = saveSlotIndex;
+        if (index == null || !"file".equals(uri.getScheme())) return;
+
+        File file = new File(uri.getPath());
+        if (!index.getSavesDir().equals(file.getParentFile())) return;
+
+        index.put(SaveSlotIndex.Slot.fromFile(file, nativeMethods.QSPGetCurLoc(), getSaveThumbnail()));
+    }
+
+    /**
+     * Запускает расписание локации-счётчика заново, если игра запущена и не скрыта.
+     * Вызывается только в потоке библиотеки.
+     */
+    private void restartCounter() {
+        Handler handler = libQspHandler;
+        if (handler == null) return;
+
+        handler.removeCallbacks(counterRunnable);
+        ++counterGeneration;
+        if (counterPaused || !gameState.isGameRunning()) {
+            counterTimer.stop();
+            return;
+        }
+        handler.postAtTime(counterRunnable, counterTimer.start(SystemClock.uptimeMillis()));
+    }
+
+    private void onCounterTick() {
+        if (!counterTimer.isRunning()) return;
+
+        counterTimer.onTick(SystemClock.uptimeMillis());
+        int generation = counterGeneration;
+        libQspLock.lock();
+        counterExecuting = true;
+        try {
+            if (!nativeMethods.QSPExecCounter(true)) {
+                showLastQspError();
+            }
+        } finally {
+            counterExecuting = false;
+            libQspLock.unlock();
+        }
+        // Обработка счётчика могла перезапустить или остановить расписание
+        Handler handler = libQspHandler;
+        if (handler != null && counterTimer.isRunning() && generation == counterGeneration) {
+            handler.postAtTime(counterRunnable, counterTimer.next(SystemClock.uptimeMillis()));
+        }
+    }
+
+    private void logCounterStats() {
+        if (counterTimer.getTicksCount() == 0) return;
+
+        logger.info(String.format(
+                Locale.ROOT,
+                "Counter: %d ticks, %d late, %d skipped, max lateness %d ms",
+                counterTimer.getTicksCount(),
+                counterTimer.getLateTicksCount(),
+                counterTimer.getSkippedTicksCount(),
+                counterTimer.getMaxLateness()));
+        counterTimer.resetStats();
+    }
+
+    /**
+     * Выводит в журнал самые затратные по времени локации. Профилирование включается только
+     * в отладочной сборке.
+     */
+    private void logProfile() {
+        if (!BuildConfig.DEBUG) return;
+
+        ProfileData profile = (ProfileData) nativeMethods.QSPGetProfileData();
+        if (profile == null) return;
+
+        String[] locNames = profile.getLocNames();
+        long[] times = profile.getTimes();
+        Integer[] order = new Integer[locNames.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> Long.compare(times[i2], times[i1]));
+
+        logger.debug(String.format(
+                Locale.ROOT,
+                "Profile: counter %d calls, %d us",
+                profile.getCounterCallsCount(),
+                profile.getCounterTime()));
+        for (int i = 0; i < order.length && i < PROFILE_LOG_LOCS_COUNT; ++i) {
+            int idx = order[i];
+            logger.debug(String.format(
+                    Locale.ROOT,
+                    "Profile: %s - %d calls, %d us, %d statements",
+                    locNames[idx],
+                    profile.getCallsCounts()[idx],
+                    times[idx],
+                    profile.getStatementsCounts()[idx]));
+        }
+    }
+
+    /**
+     * Выводит в журнал попадания и промахи кешей библиотеки в отладочной сборке.
+     */
+    private void logCacheStats() {
+        if (!BuildConfig.DEBUG) return;
+
+        logCacheStats("Regexp cache", (CacheStatsData) nativeMethods.QSPGetRegExpCacheStats());
+        logCacheStats("Code cache", (CacheStatsData) nativeMethods.QSPGetCodeCacheStats());
+    }
+
+    private static void logCacheStats(String name, CacheStatsData stats) {
+        if (stats == null) return;
+
+        logger.debug(String.format(
+                Locale.ROOT,
+                "%s: %d hits, %d misses",
+                name,
+                stats.getHits(),
+                stats.getMisses()));
+    }
+
     private void runOnQspThread(final Runnable runnable) {
         throwIfNotMainThread();
 
@@ -101,19 +294,12 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
         }
     }
 
+    /**
+     * Загружает игру из файла, который библиотека отображает в память, не копируя его содержимое в Java.
+     */
     private boolean loadGameWorld() {
-        byte[] gameData;
-        try (FileInputStream in = new FileInputStream(gameState.getGameFile())) {
-            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-                StreamUtil.copy(in, out);
-                gameData = out.toByteArray();
-            }
-        } catch (IOException ex) {
-            logger.error("Failed to load the game world", ex);
-            return false;
-        }
         String fileName = gameState.getGameFile().getAbsolutePath();
-        if (!nativeMethods.QSPLoadGameWorldFromData(gameData, gameData.length, fileName)) {
+        if (!nativeMethods.QSPLoadGameWorldFromFile(fileName)) {
             showLastQspError();
             return false;
         }
@@ -144,70 +330,52 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
     }
 
     /**
-     * Загружает конфигурацию интерфейса - использование HTML, шрифт и цвета - из библиотеки.
+     * Загружает конфигурацию интерфейса - использование HTML, шрифт и цвета - из изменений,
+     * полученных из библиотеки.
      *
      * @return <code>true</code> если конфигурация изменилась, иначе <code>false</code>
      */
-    private boolean loadInterfaceConfiguration() {
+    private boolean loadInterfaceConfiguration(RefreshDeltaData delta) {
         InterfaceConfiguration config = gameState.getInterfaceConfig();
         boolean changed = false;
 
-        GetVarValuesResponse htmlResult = (GetVarValuesResponse) nativeMethods.QSPGetVarValues("USEHTML", 0);
-        if (htmlResult.isSuccess()) {
-            boolean useHtml = htmlResult.getIntValue() != 0;
-            if (config.isUseHtml() != useHtml) {
-                config.setUseHtml(useHtml);
-                changed = true;
-            }
+        if (config.isUseHtml() != delta.isUseHtml()) {
+            config.setUseHtml(delta.isUseHtml());
+            changed = true;
         }
-        GetVarValuesResponse fSizeResult = (GetVarValuesResponse) nativeMethods.QSPGetVarValues("FSIZE", 0);
-        if (fSizeResult.isSuccess() && config.getFontSize() != fSizeResult.getIntValue()) {
-            config.setFontSize(fSizeResult.getIntValue());
+        if (config.getFontSize() != delta.getFontSize()) {
+            config.setFontSize(delta.getFontSize());
             changed = true;
         }
-        GetVarValuesResponse bColorResult = (GetVarValuesResponse) nativeMethods.QSPGetVarValues("BCOLOR", 0);
-        if (bColorResult.isSuccess() && config.getBackColor() != bColorResult.getIntValue()) {
-            config.setBackColor(bColorResult.getIntValue());
+        if (config.getBackColor() != delta.getBackColor()) {
+            config.setBackColor(delta.getBackColor());
             changed = true;
         }
-        GetVarValuesResponse fColorResult = (GetVarValuesResponse) nativeMethods.QSPGetVarValues("FCOLOR", 0);
-        if (fColorResult.isSuccess() && config.getFontColor() != fColorResult.getIntValue()) {
-            config.setFontColor(fColorResult.getIntValue());
+        if (config.getFontColor() != delta.getFontColor()) {
+            config.setFontColor(delta.getFontColor());
             changed = true;
         }
-        GetVarValuesResponse lColorResult = (GetVarValuesResponse) nativeMethods.QSPGetVarValues("LCOLOR", 0);
-        if (lColorResult.isSuccess() && config.getLinkColor() != lColorResult.getIntValue()) {
-            config.setLinkColor(lColorResult.getIntValue());
+        if (config.getLinkColor() != delta.getLinkColor()) {
+            config.setLinkColor(delta.getLinkColor());
             changed = true;
         }
 
         return changed;
     }
 
-    private ArrayList<QspListItem> getActions() {
-        ArrayList<QspListItem> actions = new ArrayList<>();
-        int count = nativeMethods.QSPGetActionsCount();
-        for (int i = 0; i < count; ++i) {
-            ActionData actionData = (ActionData) nativeMethods.QSPGetActionData(i);
-            QspListItem action = new QspListItem();
-            action.icon = imageProvider.get(actionData.getImage());
-            action.text = gameState.getInterfaceConfig().isUseHtml() ? htmlProcessor.removeHtmlTags(actionData.getName()) : actionData.getName();
-            actions.add(action);
-        }
-        return actions;
-    }
+    private ArrayList<QspListItem> toListItems(ListItemsData data) {
+        String[] names = data.getNames();
+        String[] images = data.getImages();
+        boolean useHtml = gameState.getInterfaceConfig().isUseHtml();
 
-    private ArrayList<QspListItem> getObjects() {
-        ArrayList<QspListItem> objects = new ArrayList<>();
-        int count = nativeMethods.QSPGetObjectsCount();
-        for (int i = 0; i < count; i++) {
-            ObjectData objectResult = (ObjectData) nativeMethods.QSPGetObjectData(i);
-            QspListItem object = new QspListItem();
-            object.icon = imageProvider.get(objectResult.getImage());
-            object.text = gameState.getInterfaceConfig().isUseHtml() ? htmlProcessor.removeHtmlTags(objectResult.getName()) : objectResult.getName();
-            objects.add(object);
+        ArrayList<QspListItem> items = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; ++i) {
+            QspListItem item = new QspListItem();
+            item.icon = imageProvider.get(images[i]);
+            item.text = useHtml ? htmlProcessor.removeHtmlTags(names[i]) : names[i];
+            items.add(item);
         }
-        return objects;
+        return items;
     }
 
     // region LibQspProxy
@@ -218,6 +386,7 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
             public void run() {
                 try {
                     nativeMethods.QSPInit();
+                    nativeMethods.QSPEnableProfiling(BuildConfig.DEBUG);
                     Looper.prepare();
                     libQspHandler = new Handler();
                     libQspThreadInited = true;
@@ -241,6 +410,11 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
         if (libQspThreadInited) {
             Handler handler = libQspHandler;
             if (handler != null) {
+                // Отложенное автосохранение выполняется до остановки потока
+                if (autosaveScheduled) {
+                    handler.removeCallbacks(autosaveRunnable);
+                    handler.post(autosaveRunnable);
+                }
                 handler.getLooper().quitSafely();
             }
             libQspThreadInited = false;
@@ -256,28 +430,34 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
     }
 
     private void doRunGame(final String id, final String title, final File dir, final File file) {
-        gameInterface.doWithCounterDisabled(() -> {
-            audioPlayer.closeAllFiles();
+        libQspHandler.removeCallbacks(autosaveRunnable);
+        autosaveScheduled = false;
+        autosaveWriter.cancel();
+        counterTimer.stop();
+        libQspHandler.removeCallbacks(counterRunnable);
 
-            gameState.reset();
-            gameState.setGameRunning(true);
-            gameState.setGameId(id);
-            gameState.setGameTitle(title);
-            gameState.setGameDir(dir);
-            gameState.setGameFile(file);
+        audioPlayer.closeAllFiles();
 
-            gameContentResolver.setGameDir(dir);
-            imageProvider.invalidateCache();
+        gameState.reset();
+        gameState.setGameRunning(true);
+        gameState.setGameId(id);
+        gameState.setGameTitle(title);
+        gameState.setGameDir(dir);
+        gameState.setGameFile(file);
 
-            if (!loadGameWorld()) return;
+        gameContentResolver.setGameDir(dir);
+        imageProvider.invalidateCache();
+        saveSlotIndex = SaveSlotIndex.load(getOrCreateDirectory(dir, "saves"));
 
-            gameStartTime = SystemClock.elapsedRealtime();
-            lastMsCountCallTime = 0;
+        if (!loadGameWorld()) return;
 
-            if (!nativeMethods.QSPRestartGame(true)) {
-                showLastQspError();
-            }
-        });
+        gameStartTime = SystemClock.elapsedRealtime();
+        lastMsCountCallTime = 0;
+
+        if (!nativeMethods.QSPRestartGame(true)) {
+            showLastQspError();
+        }
+        restartCounter();
     }
 
     @Override
@@ -297,10 +477,7 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
         final byte[] gameData;
 
         try (InputStream in = context.getContentResolver().openInputStream(uri)) {
-            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-                StreamUtil.copy(in, out);
-                gameData = out.toByteArray();
-            }
+            gameData = SaveContainer.read(in);
         } catch (IOException ex) {
             logger.error("Failed to load game state", ex);
             return;
@@ -309,21 +486,26 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
         if (!nativeMethods.QSPOpenSavedGameFromData(gameData, gameData.length, true)) {
             showLastQspError();
         }
+        restartCounter();
     }
 
     @Override
-    public void saveGameState(final Uri uri) {
+    public void saveGameState(final Uri uri, final boolean compress) {
         if (!isSameThread(libQspHandler.getLooper().getThread())) {
-            runOnQspThread(() -> saveGameState(uri));
+            runOnQspThread(() -> saveGameState(uri, compress));
             return;
         }
-        byte[] gameData = nativeMethods.QSPSaveGameAsData(false);
-        if (gameData == null) return;
-
-        try (OutputStream out = context.getContentResolver().openOutputStream(uri, "w")) {
-            out.write(gameData);
+        // Файл открывается при первой записи, чтобы ошибка в ONGSAVE не затирала прежнее сохранение
+        boolean saved;
+        try (OutputStream fileOut = new LazyOutputStream(() -> context.getContentResolver().openOutputStream(uri, "w"));
+             OutputStream out = compress ? SaveContainer.newOutputStream(fileOut) : fileOut) {
+            saved = nativeMethods.QSPSaveGameToStream(out, false);
         } catch (IOException ex) {
             logger.error("Failed to save the game state", ex);
+            return;
+        }
+        if (saved) {
+            updateSaveSlotIndex(uri);
         }
     }
 
@@ -345,6 +527,7 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
             if (!nativeMethods.QSPExecuteSelActionCode(true)) {
                 showLastQspError();
             }
+            scheduleAutosave();
         });
     }
 
@@ -354,6 +537,7 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
             if (!nativeMethods.QSPSetSelObjectIndex(index, true)) {
                 showLastQspError();
             }
+            scheduleAutosave();
         });
     }
 
@@ -369,6 +553,7 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
             if (!nativeMethods.QSPExecUserInput(true)) {
                 showLastQspError();
             }
+            scheduleAutosave();
         });
     }
 
@@ -378,25 +563,39 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
             if (!nativeMethods.QSPExecString(code, true)) {
                 showLastQspError();
             }
+            scheduleAutosave();
         });
     }
 
     @Override
-    public void executeCounter() {
-        if (libQspLock.isLocked()) return;
-
+    public void setCounterPaused(final boolean paused) {
+        // Флаг учитывается и игрой, которая запустится позже
+        counterPaused = paused;
         runOnQspThread(() -> {
-            if (!nativeMethods.QSPExecCounter(true)) {
-                showLastQspError();
+            if (paused) {
+                logCounterStats();
+                logProfile();
+                logCacheStats();
             }
+            restartCounter();
         });
     }
 
+    @Override
+    public void setCompressSaves(boolean compress) {
+        compressSaves = compress;
+    }
+
     @Override
     public GameState getGameState() {
         return gameState;
     }
 
+    @Override
+    public SaveSlotIndex getSaveSlotIndex() {
+        return saveSlotIndex;
+    }
+
     @Override
     public void setGameInterface(GameInterface view) {
         gameInterface = view;
@@ -408,26 +607,29 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
 
     @Override
     public void RefreshInt() {
+        RefreshDeltaData delta = refreshDelta;
+        nativeMethods.QSPGetRefreshDelta(delta);
+
         RefreshInterfaceRequest request = new RefreshInterfaceRequest();
 
-        boolean configChanged = loadInterfaceConfiguration();
+        boolean configChanged = loadInterfaceConfiguration(delta);
         if (configChanged) {
             request.setInterfaceConfigChanged(true);
         }
-        if (nativeMethods.QSPIsMainDescChanged()) {
-            gameState.setMainDesc(nativeMethods.QSPGetMainDesc());
+        if (delta.isMainDescChanged()) {
+            gameState.setMainDesc(delta.getMainDesc());
             request.setMainDescChanged(true);
         }
-        if (nativeMethods.QSPIsActionsChanged()) {
-            gameState.setActions(getActions());
+        if (delta.isActionsChanged()) {
+            gameState.setActions(toListItems(delta.getActions()));
             request.setActionsChanged(true);
         }
-        if (nativeMethods.QSPIsObjectsChanged()) {
-            gameState.setObjects(getObjects());
+        if (delta.isObjectsChanged()) {
+            gameState.setObjects(toListItems(delta.getObjects()));
             request.setObjectsChanged(true);
         }
-        if (nativeMethods.QSPIsVarsDescChanged()) {
-            gameState.setVarsDesc(nativeMethods.QSPGetVarsDesc());
+        if (delta.isVarsDescChanged()) {
+            gameState.setVarsDesc(delta.getVarsDesc());
             request.setVarsDescChanged(true);
         }
 
@@ -447,9 +649,10 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
 
     @Override
     public void SetTimer(int msecs) {
-        GameInterface inter = gameInterface;
-        if (inter != null) {
-            inter.setCounterInterval(msecs);
+        counterTimer.setInterval(msecs);
+        // Внутри счётчика новый интервал применяется к следующему сроку
+        if (!counterExecuting && counterTimer.isRunning()) {
+            restartCounter();
         }
     }
 
@@ -484,16 +687,19 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
 
     @Override
     public void OpenGame(String filename) {
-        File savesDir = getOrCreateDirectory(gameState.getGameDir(), "saves");
-        File saveFile = findFileOrDirectory(savesDir, filename);
+        SaveSlotIndex index = saveSlotIndex;
+        SaveSlotIndex.Slot slot = index != null ? index.get(filename) : null;
+        File saveFile;
+        if (slot != null) {
+            saveFile = new File(index.getSavesDir(), slot.getFilename());
+        } else {
+            saveFile = findFileOrDirectory(getOrCreateDirectory(gameState.getGameDir(), "saves"), filename);
+        }
         if (saveFile == null) {
             logger.error("Save file not found: " + filename);
             return;
         }
-        GameInterface inter = gameInterface;
-        if (inter != null) {
-            inter.doWithCounterDisabled(() -> loadGameState(Uri.fromFile(saveFile)));
-        }
+        loadGameState(Uri.fromFile(saveFile));
     }
 
     @Override
@@ -580,6 +786,7 @@ public class LibQspProxyImpl implements LibQspProxy, LibQspCallbacks {
             gameState.setGameDir(dir);
             gameContentResolver.setGameDir(dir);
             imageProvider.invalidateCache();
+            saveSlotIndex = SaveSlotIndex.load(getOrCreateDirectory(dir, "saves"));
         }
     }
 
@@ -1,5 +1,9 @@
 package com.qsp.player.libqsp;
 
+import com.qsp.player.libqsp.dto.RefreshDeltaData;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Objects;
 
 /**
@@ -20,6 +24,8 @@ public class NativeMethods {
     public native void QSPDeInit();
     public native boolean QSPIsInCallBack();
     public native void QSPEnableDebugMode(boolean isDebug);
+    public native void QSPEnableProfiling(boolean isProfiling);
+    public native Object QSPGetProfileData();
     public native Object QSPGetCurStateData();//!!!STUB
     public native String QSPGetVersion();
     public native int QSPGetFullRefreshCount();
@@ -29,16 +35,19 @@ public class NativeMethods {
     public native boolean QSPIsMainDescChanged();
     public native String QSPGetVarsDesc();
     public native boolean QSPIsVarsDescChanged();
+    public native void QSPGetRefreshDelta(RefreshDeltaData delta);
     public native Object QSPGetExprValue();//!!!STUB
     public native void QSPSetInputStrText(String val);
     public native int QSPGetActionsCount();
     public native Object QSPGetActionData(int ind);//!!!STUB
+    public native Object QSPGetActionsData();
     public native boolean QSPExecuteSelActionCode(boolean isRefresh);
     public native boolean QSPSetSelActionIndex(int ind, boolean isRefresh);
     public native int QSPGetSelActionIndex();
     public native boolean QSPIsActionsChanged();
     public native int QSPGetObjectsCount();
     public native Object QSPGetObjectData(int ind);//!!!STUB
+    public native Object QSPGetObjectsData();
     public native boolean QSPSetSelObjectIndex(int ind, boolean isRefresh);
     public native int QSPGetSelObjectIndex();
     public native boolean QSPIsObjectsChanged();
@@ -47,6 +56,8 @@ public class NativeMethods {
     public native Object QSPGetVarValues(String name, int ind);//!!!STUB
     public native int QSPGetMaxVarsCount();
     public native Object QSPGetVarNameByIndex(int index);//!!!STUB
+    public native Object QSPGetRegExpCacheStats();
+    public native Object QSPGetCodeCacheStats();
     public native boolean QSPExecString(String s, boolean isRefresh);
     public native boolean QSPExecLocationCode(String name, boolean isRefresh);
     public native boolean QSPExecCounter(boolean isRefresh);
@@ -55,8 +66,18 @@ public class NativeMethods {
     public native String QSPGetErrorDesc(int errorNum);
     public native boolean QSPLoadGameWorld(String fileName);
     public native boolean QSPLoadGameWorldFromData(byte data[], int dataSize, String fileName);
+    public native boolean QSPLoadGameWorldFromFile(String fileName);
     public native boolean QSPSaveGame(String fileName, boolean isRefresh);
     public native byte[] QSPSaveGameAsData(boolean isRefresh);
+    /**
+     * Снимает состояние игры в память, не выполняя локацию <code>ONGSAVE</code>.
+     */
+    public native byte[] QSPSaveGameSnapshot();
+    /**
+     * Записывает сохранение в <code>out</code> частями по мере формирования.
+     * Исключение, выброшенное потоком, пробрасывается после завершения сохранения.
+     */
+    public native boolean QSPSaveGameToStream(OutputStream out, boolean isRefresh) throws IOException;
     public native boolean QSPOpenSavedGame(String fileName, boolean isRefresh);
     public native boolean QSPOpenSavedGameFromData(byte data[], int dataSize, boolean isRefresh);
     public native boolean QSPRestartGame(boolean isRefresh);
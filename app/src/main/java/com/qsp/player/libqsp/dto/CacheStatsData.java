@@ -0,0 +1,18 @@
+package com.qsp.player.libqsp.dto;
+
+/**
+ * Счётчики попаданий и промахов кеша библиотеки. Сбрасываются вместе с кешем при запуске игры
+ * и загрузке сохранения.
+ */
+public class CacheStatsData {
+    private int hits;
+    private int misses;
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,18 @@
+package com.qsp.player.libqsp.dto;
+
+/**
+ * Снимок списка действий или объектов, полученный из библиотеки за один вызов.
+ * Элементы с одинаковым индексом в <code>names</code> и <code>images</code> относятся к одному пункту.
+ */
+public class ListItemsData {
+    private String[] names;
+    private String[] images;
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public String[] getImages() {
+        return images;
+    }
+}
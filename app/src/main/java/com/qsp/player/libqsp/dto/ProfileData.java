@@ -0,0 +1,39 @@
+package com.qsp.player.libqsp.dto;
+
+/**
+ * Профиль выполнения локаций с момента включения профилирования.
+ * Элементы с одинаковым индексом в массивах относятся к одной локации, время - в микросекундах.
+ * Время локации включает вложенные вызовы, операторы учитываются только для самой локации.
+ */
+public class ProfileData {
+    private String[] locNames;
+    private int[] callsCounts;
+    private long[] times;
+    private long[] statementsCounts;
+    private int counterCallsCount;
+    private long counterTime;
+
+    public String[] getLocNames() {
+        return locNames;
+    }
+
+    public int[] getCallsCounts() {
+        return callsCounts;
+    }
+
+    public long[] getTimes() {
+        return times;
+    }
+
+    public long[] getStatementsCounts() {
+        return statementsCounts;
+    }
+
+    public int getCounterCallsCount() {
+        return counterCallsCount;
+    }
+
+    public long getCounterTime() {
+        return counterTime;
+    }
+}
@@ -0,0 +1,74 @@
+package com.qsp.player.libqsp.dto;
+
+/**
+ * Изменения состояния интерфейса, которые библиотека заполняет за один вызов
+ * <code>QSPGetRefreshDelta</code>. Объект переиспользуется между обновлениями.
+ * Текст и списки заполняются только при установленном флаге изменения, иначе равны <code>null</code>.
+ */
+public class RefreshDeltaData {
+    private boolean mainDescChanged;
+    private boolean varsDescChanged;
+    private boolean actionsChanged;
+    private boolean objectsChanged;
+    private String mainDesc;
+    private String varsDesc;
+    private ListItemsData actions;
+    private ListItemsData objects;
+    private int useHtml;
+    private int fontSize;
+    private int backColor;
+    private int fontColor;
+    private int linkColor;
+
+    public boolean isMainDescChanged() {
+        return mainDescChanged;
+    }
+
+    public boolean isVarsDescChanged() {
+        return varsDescChanged;
+    }
+
+    public boolean isActionsChanged() {
+        return actionsChanged;
+    }
+
+    public boolean isObjectsChanged() {
+        return objectsChanged;
+    }
+
+    public String getMainDesc() {
+        return mainDesc;
+    }
+
+    public String getVarsDesc() {
+        return varsDesc;
+    }
+
+    public ListItemsData getActions() {
+        return actions;
+    }
+
+    public ListItemsData getObjects() {
+        return objects;
+    }
+
+    public boolean isUseHtml() {
+        return useHtml != 0;
+    }
+
+    public int getFontSize() {
+        return fontSize;
+    }
+
+    public int getBackColor() {
+        return backColor;
+    }
+
+    public int getFontColor() {
+        return fontColor;
+    }
+
+    public int getLinkColor() {
+        return linkColor;
+    }
+}
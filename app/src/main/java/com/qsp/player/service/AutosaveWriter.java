@@ -0,0 +1,161 @@
+package com.qsp.player.service;
+
+import com.qsp.player.util.SaveContainer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Записывает автосохранения в отдельном потоке. Снимок состояния игры делается вызывающим,
+ * здесь выполняются только сжатие, если оно включено, и запись на диск.
+ *
+ * @implNote Если снимки поступают быстрее, чем записываются, промежуточные отбрасываются -
+ * записывается только последний. Каждый снимок пишется во временный файл, который затем
+ * переименовывается в самый старый из слотов <code>autosaveN.sav</code>, поэтому прерванная
+ * запись не портит уже существующие автосохранения.
+ */
+public class AutosaveWriter {
+    public static final String SLOT_PREFIX = "autosave";
+
+    private static final String SLOT_EXTENSION = ".sav";
+    private static final String TEMP_FILENAME = "autosave.tmp";
+
+    private static final Logger logger = LoggerFactory.getLogger(AutosaveWriter.class);
+
+    private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final int slotsCount;
+
+    private File lastSavesDir;
+    private int lastSlot;
+
+    public AutosaveWriter(int slotsCount) {
+        if (slotsCount < 1) {
+            throw new IllegalArgumentException("slotsCount must be positive");
+        }
+        this.slotsCount = slotsCount;
+    }
+
+    /**
+     * Ставит снимок в очередь на запись в папку <code>savesDir</code>. Не блокирует вызывающий поток.
+     *
+     * @param compress <code>true</code> для сжатого формата, <code>false</code> для формата,
+     *                 совместимого с другими плеерами QSP
+     * @param listener вызывается в потоке записи после того, как снимок записан в слот
+     */
+    public void submit(File savesDir, byte[] data, boolean compress, OnWrittenListener listener) {
+        if (pending.getAndSet(new Snapshot(savesDir, data, compress, listener)) == null) {
+            executor.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Отменяет снимок, который ещё не начал записываться.
+     */
+    public void cancel() {
+        pending.set(null);
+    }
+
+    /**
+     * Ожидает завершения записи снимков, поставленных в очередь до вызова.
+     *
+     * @return <code>true</code> если запись завершилась, иначе <code>false</code>
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(latch::countDown);
+        return latch.await(timeout, unit);
+    }
+
+    private void writePending() {
+        Snapshot snapshot = pending.getAndSet(null);
+        if (snapshot == null) return;
+
+        try {
+            write(snapshot);
+        } catch (IOException ex) {
+            logger.error("Failed to write the autosave", ex);
+        }
+    }
+
+    private void write(Snapshot snapshot) throws IOException {
+        File temp = new File(snapshot.savesDir, TEMP_FILENAME);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            if (snapshot.compress) {
+                SaveContainer.write(out, snapshot.data);
+            } else {
+                out.write(snapshot.data);
+            }
+            out.getFD().sync();
+        }
+        int slot = getNextSlot(snapshot.savesDir);
+        File slotFile = getSlotFile(snapshot.savesDir, slot);
+        if (!temp.renameTo(slotFile)) {
+            temp.delete();
+            throw new IOException("Failed to rename the autosave to " + slotFile.getName());
+        }
+        lastSavesDir = snapshot.savesDir;
+        lastSlot = slot;
+
+        if (snapshot.listener != null) {
+            snapshot.listener.onWritten(slotFile);
+        }
+    }
+
+    /**
+     * @implNote Время изменения файла может храниться с точностью до секунды, поэтому
+     * по нему слот выбирается только для папки, в которую этот объект ещё не писал.
+     */
+    private int getNextSlot(File savesDir) {
+        if (savesDir.equals(lastSavesDir)) {
+            return lastSlot % slotsCount + 1;
+        }
+        int oldest = 0;
+        long oldestTime = Long.MAX_VALUE;
+        for (int i = 1; i <= slotsCount; ++i) {
+            File file = getSlotFile(savesDir, i);
+            if (!file.exists()) return i;
+
+            if (file.lastModified() < oldestTime) {
+                oldest = i;
+                oldestTime = file.lastModified();
+            }
+        }
+        return oldest;
+    }
+
+    private static File getSlotFile(File savesDir, int slot) {
+        return new File(savesDir, SLOT_PREFIX + slot + SLOT_EXTENSION);
+    }
+
+    private static class Snapshot {
+        private final File savesDir;
+        private final byte[] data;
+        private final boolean compress;
+        private final OnWrittenListener listener;
+
+        private Snapshot(File savesDir, byte[] data, boolean compress, OnWrittenListener listener) {
+            this.savesDir = savesDir;
+            this.data = data;
+            this.compress = compress;
+            this.listener = listener;
+        }
+    }
+
+    public interface OnWrittenListener {
+        void onWritten(File slotFile);
+    }
+}
@@ -1,17 +1,39 @@
 package com.qsp.player.service;
 
-import java.io.File;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import static com.qsp.player.util.FileUtil.findFileRecursively;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GameContentResolver {
-    private File gameDir;
+    private static final int MAX_INDEX_THREADS = 4;
+
+    private static final Logger logger = LoggerFactory.getLogger(GameContentResolver.class);
+
+    private volatile File gameDir;
+    private volatile ConcurrentHashMap<String, File> index = new ConcurrentHashMap<>();
+    private volatile int generation;
 
     public File getFile(String relPath) {
-        if (gameDir == null) {
+        File dir = gameDir;
+        if (dir == null) {
             throw new IllegalStateException("gameDir must not be null");
         }
-        return findFileRecursively(gameDir, normalizeContentPath(relPath));
+        String normPath = normalizeContentPath(relPath);
+        if (normPath == null) return null;
+
+        File file = index.get(normPath.toLowerCase(Locale.ROOT));
+        if (file != null) return file;
+
+        // Файл мог появиться после построения индекса
+        file = new File(dir, normPath);
+        return file.exists() ? file : null;
     }
 
     public String getAbsolutePath(String relPath) {
@@ -35,7 +57,71 @@ public class GameContentResolver {
         return result.replace("\\", "/");
     }
 
+    public File getGameDir() {
+        return gameDir;
+    }
+
+    /**
+     * @return номер загрузки игры, который увеличивается при каждом вызове {@link #setGameDir(File)},
+     * в том числе с той же папкой
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Устанавливает папку игры и строит индекс её содержимого, в котором ключом является
+     * относительный путь к файлу или папке в нижнем регистре.
+     */
     public void setGameDir(File gameDir) {
         this.gameDir = gameDir;
+        this.index = gameDir != null ? buildIndex(gameDir) : new ConcurrentHashMap<>();
+        ++generation;
+    }
+
+    private static ConcurrentHashMap<String, File> buildIndex(File gameDir) {
+        ConcurrentHashMap<String, File> result = new ConcurrentHashMap<>();
+        File[] files = gameDir.listFiles();
+        if (files == null) return result;
+
+        // Вложенные папки верхнего уровня обходятся параллельно
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (File file : files) {
+            String relPath = file.getName().toLowerCase(Locale.ROOT);
+            result.putIfAbsent(relPath, file);
+            if (file.isDirectory()) {
+                tasks.add(() -> {
+                    indexDirectory(result, file, relPath + "/");
+                    return null;
+                });
+            }
+        }
+        if (tasks.isEmpty()) return result;
+
+        int threadCount = Math.min(tasks.size(), Math.min(MAX_INDEX_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threadCount, 1));
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException ex) {
+            logger.error("Game directory indexing was interrupted", ex);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+
+        return result;
+    }
+
+    private static void indexDirectory(ConcurrentHashMap<String, File> index, File dir, String prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            String relPath = prefix + file.getName().toLowerCase(Locale.ROOT);
+            index.putIfAbsent(relPath, file);
+            if (file.isDirectory()) {
+                indexDirectory(index, file, relPath + "/");
+            }
+        }
     }
 }
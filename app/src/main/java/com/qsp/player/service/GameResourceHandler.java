@@ -0,0 +1,394 @@
+package com.qsp.player.service;
+
+import android.webkit.MimeTypeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.qsp.player.service.GameContentResolver.normalizeContentPath;
+
+/**
+ * Отдаёт {@linkplain android.webkit.WebView} файлы игры, на которые ссылаются описания.
+ *
+ * @implNote Файлы и их MIME-типы запоминаются до следующей загрузки игры, поэтому повторные
+ * запросы не обращаются к файловой системе. Небольшие файлы (стили, значки, шрифты) кешируются
+ * в памяти целиком. Для остальных поддерживаются запросы части файла с заголовком
+ * <code>Range</code>, которые отправляет, например, проигрыватель видео; такие файлы
+ * перечитываются, если изменились их размер или время изменения.
+ */
+public class GameResourceHandler {
+    private static final int DEFAULT_MAX_CACHED_FILE_SIZE = 64 * 1024;
+    private static final int DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    private static final Logger logger = LoggerFactory.getLogger(GameResourceHandler.class);
+    private static final Pattern rangePattern = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final HashMap<String, String> mimeTypes = new HashMap<>();
+
+    static {
+        mimeTypes.put("css", "text/css");
+        mimeTypes.put("js", "application/javascript");
+        mimeTypes.put("htm", "text/html");
+        mimeTypes.put("html", "text/html");
+        mimeTypes.put("txt", "text/plain");
+        mimeTypes.put("png", "image/png");
+        mimeTypes.put("jpg", "image/jpeg");
+        mimeTypes.put("jpeg", "image/jpeg");
+        mimeTypes.put("gif", "image/gif");
+        mimeTypes.put("bmp", "image/bmp");
+        mimeTypes.put("webp", "image/webp");
+        mimeTypes.put("svg", "image/svg+xml");
+        mimeTypes.put("ico", "image/x-icon");
+        mimeTypes.put("ttf", "font/ttf");
+        mimeTypes.put("otf", "font/otf");
+        mimeTypes.put("woff", "font/woff");
+        mimeTypes.put("woff2", "font/woff2");
+        mimeTypes.put("mp3", "audio/mpeg");
+        mimeTypes.put("ogg", "audio/ogg");
+        mimeTypes.put("wav", "audio/wav");
+        mimeTypes.put("mid", "audio/midi");
+        mimeTypes.put("midi", "audio/midi");
+        mimeTypes.put("mp4", "video/mp4");
+        mimeTypes.put("webm", "video/webm");
+    }
+
+    private final ConcurrentHashMap<String, Resource> resources = new ConcurrentHashMap<>();
+    private final GameContentResolver gameContentResolver;
+    private final int maxCachedFileSize;
+    private final int cacheSize;
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedBytes;
+    private int gameGeneration;
+
+    public GameResourceHandler(GameContentResolver gameContentResolver) {
+        this(gameContentResolver, DEFAULT_MAX_CACHED_FILE_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param maxCachedFileSize наибольший размер файла, который кешируется в памяти
+     * @param cacheSize         размер кеша в памяти в байтах
+     */
+    public GameResourceHandler(GameContentResolver gameContentResolver, int maxCachedFileSize, int cacheSize) {
+        this.gameContentResolver = gameContentResolver;
+        this.maxCachedFileSize = maxCachedFileSize;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Обрабатывает запрос файла игры по относительному пути <code>relPath</code>.
+     *
+     * @param range значение заголовка <code>Range</code> или <code>null</code>
+     * @return ответ, или <code>null</code> если файл не найден или не может быть прочитан
+     */
+    public Response handle(String relPath, String range) {
+        Resource resource = getResource(relPath);
+        if (resource == null) return null;
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Accept-Ranges", "bytes");
+
+        long start = 0;
+        long end = resource.length - 1;
+        boolean partial = false;
+        long[] bounds = range != null ? parseRange(range, resource.length) : null;
+        if (bounds == UNSATISFIABLE_RANGE) {
+            headers.put("Content-Range", "bytes */" + resource.length);
+            headers.put("Content-Length", "0");
+            return new Response(416, "Range Not Satisfiable", resource.mimeType, headers, new ByteArrayInputStream(new byte[0]));
+        }
+        if (bounds != null) {
+            start = bounds[0];
+            end = bounds[1];
+            partial = true;
+            headers.put("Content-Range", "bytes " + start + "-" + end + "/" + resource.length);
+        }
+        long count = end - start + 1;
+        headers.put("Content-Length", Long.toString(count));
+
+        try {
+            InputStream data = openStream(resource, start, count);
+            return partial ?
+                    new Response(206, "Partial Content", resource.mimeType, headers, data) :
+                    new Response(200, "OK", resource.mimeType, headers, data);
+        } catch (IOException ex) {
+            logger.error("Failed to read the game resource: " + relPath, ex);
+            resources.remove(resource.key);
+            removeCachedData(resource.key);
+            return null;
+        }
+    }
+
+    private Resource getResource(String relPath) {
+        File dir = gameContentResolver.getGameDir();
+        if (dir == null) return null;
+
+        invalidateIfGameReloaded();
+
+        String normPath = normalizeContentPath(relPath);
+        if (normPath == null) return null;
+
+        String key = normPath.toLowerCase(Locale.ROOT);
+        Resource resource = resources.get(key);
+        if (resource != null && !isModified(resource)) return resource;
+
+        File file = gameContentResolver.getFile(relPath);
+        if (file == null || !file.isFile()) {
+            resources.remove(key);
+            return null;
+        }
+
+        resource = new Resource(key, file, getMimeType(file.getName()), file.length(), file.lastModified());
+        resources.put(key, resource);
+
+        return resource;
+    }
+
+    /**
+     * Сбрасывает запомненные файлы и кеш, если игра была загружена заново, даже из той же папки.
+     */
+    private synchronized void invalidateIfGameReloaded() {
+        int generation = gameContentResolver.getGeneration();
+        if (generation == gameGeneration) return;
+
+        resources.clear();
+        synchronized (cache) {
+            cache.clear();
+            cachedBytes = 0;
+        }
+        gameGeneration = generation;
+    }
+
+    /**
+     * Проверяет, изменился ли на диске файл, который не кешируется в памяти.
+     */
+    private boolean isModified(Resource resource) {
+        if (resource.length <= maxCachedFileSize) return false;
+
+        return resource.file.length() != resource.length ||
+                resource.file.lastModified() != resource.lastModified;
+    }
+
+    private static String getMimeType(String filename) {
+        int idx = filename.lastIndexOf('.');
+        if (idx == -1) return DEFAULT_MIME_TYPE;
+
+        String extension = filename.substring(idx + 1).toLowerCase(Locale.ROOT);
+        String mimeType = mimeTypes.get(extension);
+        if (mimeType == null) {
+            mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        }
+
+        return mimeType != null ? mimeType : DEFAULT_MIME_TYPE;
+    }
+
+    /**
+     * @return начало и конец части файла длиной <code>length</code>, {@link #UNSATISFIABLE_RANGE}
+     * если часть за пределами файла, или <code>null</code> если заголовок нужно проигнорировать
+     * и отдать файл целиком
+     */
+    private static long[] parseRange(String range, long length) {
+        Matcher matcher = rangePattern.matcher(range.trim());
+        if (!matcher.matches()) return null;
+
+        String first = matcher.group(1);
+        String last = matcher.group(2);
+        try {
+            if (first.isEmpty()) {
+                if (last.isEmpty()) return null;
+
+                long suffix = Long.parseLong(last);
+                if (suffix == 0 || length == 0) return UNSATISFIABLE_RANGE;
+
+                return new long[]{Math.max(length - suffix, 0), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (end < start) return null;
+            if (start >= length) return UNSATISFIABLE_RANGE;
+
+            return new long[]{start, Math.min(end, length - 1)};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private InputStream openStream(Resource resource, long start, long count) throws IOException {
+        if (resource.length <= maxCachedFileSize) {
+            byte[] data = getCachedData(resource);
+            return new ByteArrayInputStream(data, (int) start, (int) count);
+        }
+        FileInputStream in = new FileInputStream(resource.file);
+        if (start == 0 && count == resource.length) return in;
+
+        try {
+            in.getChannel().position(start);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+
+        return new RangeInputStream(in, count);
+    }
+
+    private byte[] getCachedData(Resource resource) throws IOException {
+        synchronized (cache) {
+            byte[] data = cache.get(resource.key);
+            if (data != null) return data;
+        }
+        byte[] data = new byte[(int) resource.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(resource.file))) {
+            in.readFully(data);
+        }
+        putCachedData(resource.key, data);
+
+        return data;
+    }
+
+    /**
+     * Кладёт данные в кеш, вытесняя давно не запрашивавшиеся файлы, если кеш переполнен.
+     */
+    private void putCachedData(String key, byte[] data) {
+        synchronized (cache) {
+            byte[] previous = cache.put(key, data);
+            if (previous != null) {
+                cachedBytes -= previous.length;
+            }
+            cachedBytes += data.length;
+
+            Iterator<byte[]> it = cache.values().iterator();
+            while (cachedBytes > cacheSize && it.hasNext()) {
+                cachedBytes -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    private void removeCachedData(String key) {
+        synchronized (cache) {
+            byte[] previous = cache.remove(key);
+            if (previous != null) {
+                cachedBytes -= previous.length;
+            }
+        }
+    }
+
+    public static class Response {
+        private final int statusCode;
+        private final String reasonPhrase;
+        private final String mimeType;
+        private final Map<String, String> headers;
+        private final InputStream data;
+
+        private Response(int statusCode, String reasonPhrase, String mimeType, Map<String, String> headers, InputStream data) {
+            this.statusCode = statusCode;
+            this.reasonPhrase = reasonPhrase;
+            this.mimeType = mimeType;
+            this.headers = headers;
+            this.data = data;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getReasonPhrase() {
+            return reasonPhrase;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public InputStream getData() {
+            return data;
+        }
+    }
+
+    private static class Resource {
+        private final String key;
+        private final File file;
+        private final String mimeType;
+        private final long length;
+        private final long lastModified;
+
+        private Resource(String key, File file, String mimeType, long length, long lastModified) {
+            this.key = key;
+            this.file = file;
+            this.mimeType = mimeType;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Поток, который читает не более заданного числа байт.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        private RangeInputStream(InputStream in, long count) {
+            super(in);
+            remaining = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+
+            int b = super.read();
+            if (b != -1) {
+                --remaining;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+
+            int bytesRead = super.read(b, off, (int) Math.min(len, remaining));
+            if (bytesRead > 0) {
+                remaining -= bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
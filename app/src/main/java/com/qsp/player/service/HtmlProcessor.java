@@ -1,27 +1,24 @@
 package com.qsp.player.service;
 
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.util.Base64;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Locale;
 
 import static com.qsp.player.util.Base64Util.encodeBase64;
-import static com.qsp.player.util.StringUtil.isNotEmpty;
 import static com.qsp.player.util.StringUtil.isNullOrEmpty;
 
 public class HtmlProcessor {
     private static final int IMAGE_WIDTH_THRESHOLD = 400;
+    private static final String EXEC_HREF = "href=\"exec:";
+    private static final String MAX_WIDTH_STYLE = "max-width:100%;";
+    private static final String PAGE_START = "<html><head></head><body>";
+    private static final String PAGE_END = "</body></html>";
 
     private static final Logger logger = LoggerFactory.getLogger(HtmlProcessor.class);
-    private static final Pattern execPattern = Pattern.compile("href=\"exec:([\\s\\S]*?)\"", Pattern.CASE_INSENSITIVE);
 
     private final GameContentResolver gameContentResolver;
     private final ImageProvider imageProvider;
@@ -38,71 +35,472 @@ public class HtmlProcessor {
     public String convertQspHtmlToWebViewHtml(String html) {
         if (isNullOrEmpty(html)) return "";
 
-        String result = unescapeQuotes(html);
-        result = encodeExec(result);
-        result = htmlizeLineBreaks(result);
+        StringBuilder result = new StringBuilder(estimateCapacity(html) + PAGE_START.length() + PAGE_END.length());
+        result.append(PAGE_START);
+        rewriteQspHtml(html, result);
+        result.append(PAGE_END);
 
-        Document document = Jsoup.parse(result);
-        document.outputSettings().prettyPrint(false);
+        return result.toString();
+    }
+
+    /**
+     * Привести фрагмент HTML-кода <code>html</code>, полученный из библиотеки, к HTML-коду,
+     * пригодному для вставки в <code>body</code> уже отображаемой страницы.
+     */
+    public String convertQspHtmlFragmentToWebViewHtml(String html) {
+        if (isNullOrEmpty(html)) return "";
 
-        Element body = document.body();
-        processHtmlImages(body);
-        processHtmlVideos(body);
+        StringBuilder result = new StringBuilder(estimateCapacity(html));
+        rewriteQspHtml(html, result);
 
-        return document.toString();
+        return result.toString();
     }
 
-    private String unescapeQuotes(String str) {
-        return str.replace("\\\"", "'");
+    /**
+     * То же, что {@link #convertQspHtmlFragmentToWebViewHtml(String)}, но дописывает результат
+     * в <code>out</code>, например в собираемую страницу.
+     */
+    public void convertQspHtmlFragmentToWebViewHtml(String html, StringBuilder out) {
+        if (isNullOrEmpty(html)) return;
+
+        out.ensureCapacity(out.length() + estimateCapacity(html));
+        rewriteQspHtml(html, out);
     }
 
-    private String encodeExec(String html) {
-        Matcher matcher = execPattern.matcher(html);
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            String exec = normalizePathsInExec(matcher.group(1));
-            String encodedExec = encodeBase64(exec, Base64.NO_WRAP);
-            matcher.appendReplacement(sb, "href=\"exec:" + encodedExec + "\"");
+    /**
+     * @return <code>true</code> если HTML-код <code>html</code> не обрывается внутри тега или
+     * экранированной кавычки и не оставляет незакрытых элементов, и дописанный к нему текст можно
+     * обработать отдельно, иначе <code>false</code>
+     * @implNote Дописанный текст разбирается отдельно от страницы, поэтому не попал бы внутрь
+     * незакрытого элемента, например <code>&lt;b&gt;</code>, как при загрузке страницы целиком.
+     */
+    public boolean canAppendToQspHtml(String html) {
+        if (isNullOrEmpty(html)) return true;
+        int len = html.length();
+        if (html.charAt(len - 1) == '\\') return false;
+
+        int openElementsCount = 0;
+        int idx = html.indexOf('<');
+        while (idx != -1) {
+            boolean closing = idx + 1 < len && html.charAt(idx + 1) == '/';
+            int nameStart = closing ? idx + 2 : idx + 1;
+            if (nameStart >= len) return false;
+            if (!Character.isLetter(html.charAt(nameStart))) {
+                idx = html.indexOf('<', idx + 1);
+                continue;
+            }
+            int nameEnd = nameStart;
+            while (nameEnd < len && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+                ++nameEnd;
+            }
+            int tagEnd = findTagEnd(html, nameEnd);
+            if (tagEnd == -1) return false;
+
+            if (closing) {
+                if (openElementsCount > 0) {
+                    --openElementsCount;
+                }
+            } else if (!isVoidElement(html.substring(nameStart, nameEnd)) && !isSelfClosing(html.subSequence(nameEnd, tagEnd))) {
+                ++openElementsCount;
+            }
+            idx = html.indexOf('<', tagEnd + 1);
         }
-        matcher.appendTail(sb);
+        return openElementsCount == 0;
+    }
 
-        return sb.toString();
+    /**
+     * @return позиция <code>&gt;</code>, закрывающего тег, атрибуты которого начинаются
+     * с позиции <code>idx</code>, или <code>-1</code> если тег не закрыт
+     */
+    private static int findTagEnd(String html, int idx) {
+        char quote = 0;
+        boolean afterEquals = false;
+        while (idx < html.length()) {
+            boolean escapedQuote = isEscapedQuote(html, idx);
+            char c = escapedQuote ? '\'' : html.charAt(idx);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (afterEquals && (c == '"' || c == '\'')) {
+                quote = c;
+            } else if (c == '>') {
+                return idx;
+            }
+            if (quote == 0 && c == '=') {
+                afterEquals = true;
+            } else if (!Character.isWhitespace(c)) {
+                afterEquals = false;
+            }
+            idx += escapedQuote ? 2 : 1;
+        }
+        return -1;
     }
 
-    private String normalizePathsInExec(String exec) {
-        return exec.replace("\\", "/");
+    private static int estimateCapacity(String html) {
+        return html.length() + (html.length() >> 3) + 16;
     }
 
-    private String htmlizeLineBreaks(String s) {
-        return s.replace("\n", "<br>")
-                .replace("\r", "");
+    /**
+     * Дописывает HTML-код <code>html</code> в <code>out</code>, за один проход заменяя экранированные
+     * кавычки на одинарные, кодируя в Base64 код ссылок <code>exec:</code>, заменяя переводы строк на
+     * <code>&lt;br&gt;</code> и ограничивая ширину изображений и видео.
+     *
+     * @implNote Самозакрывающиеся теги, которые в HTML не бывают пустыми (например,
+     * <code>&lt;a ... /&gt;</code>), закрываются явно, иначе {@linkplain android.webkit.WebView}
+     * включил бы в них весь последующий текст.
+     */
+    private void rewriteQspHtml(String html, StringBuilder out) {
+        int len = html.length();
+        int idx = 0;
+
+        // Открытый тег, кавычка открытого в нём значения атрибута и признак того, что следом идёт значение
+        String tagName = null;
+        char quote = 0;
+        boolean afterEquals = false;
+
+        while (idx < len) {
+            char c = html.charAt(idx);
+            boolean escapedQuote = isEscapedQuote(html, idx);
+            char unescaped = escapedQuote ? '\'' : c;
+
+            if (tagName != null) {
+                if (quote != 0) {
+                    if (unescaped == quote) {
+                        quote = 0;
+                    }
+                } else if (afterEquals && (unescaped == '"' || unescaped == '\'')) {
+                    quote = unescaped;
+                } else if (unescaped == '>') {
+                    tagName = null;
+                } else if (unescaped == '/') {
+                    int tagEnd = skipWhitespace(html, idx + 1);
+                    if (tagEnd < len && html.charAt(tagEnd) == '>') {
+                        closeSelfClosingTag(tagName, out);
+                        tagName = null;
+                        idx = tagEnd + 1;
+                        continue;
+                    }
+                }
+                if (quote == 0 && unescaped == '=') {
+                    afterEquals = true;
+                } else if (!Character.isWhitespace(unescaped)) {
+                    afterEquals = false;
+                }
+            }
+
+            if (escapedQuote) {
+                out.append('\'');
+                idx += 2;
+                continue;
+            }
+            switch (c) {
+                case '\n':
+                    out.append("<br>");
+                    ++idx;
+                    break;
+                case '\r':
+                    ++idx;
+                    break;
+                case 'h':
+                case 'H':
+                    idx = appendExecHref(html, idx, out);
+                    break;
+                case '<':
+                    if (tagName == null && isTagNameStart(html, idx + 1) && !isMediaTag(html, idx + 1)) {
+                        int nameEnd = idx + 1;
+                        while (nameEnd < len && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+                            ++nameEnd;
+                        }
+                        tagName = html.substring(idx + 1, nameEnd);
+                        quote = 0;
+                        afterEquals = false;
+                        out.append('<').append(tagName);
+                        idx = nameEnd;
+                    } else if (tagName == null) {
+                        idx = appendMediaTag(html, idx, out);
+                    } else {
+                        out.append(c);
+                        ++idx;
+                    }
+                    break;
+                default:
+                    out.append(c);
+                    ++idx;
+                    break;
+            }
+        }
+    }
+
+    private static boolean isTagNameStart(String html, int idx) {
+        return idx < html.length() && Character.isLetter(html.charAt(idx));
+    }
+
+    private static boolean isMediaTag(String html, int idx) {
+        return isTagName(html, idx, "img") || isTagName(html, idx, "video");
+    }
+
+    /**
+     * Дописывает конец самозакрывающегося тега <code>name</code>: у пустых элементов косая черта
+     * просто отбрасывается, остальные закрываются явно.
+     */
+    private static void closeSelfClosingTag(String name, StringBuilder out) {
+        int length = out.length();
+        while (length > 0 && Character.isWhitespace(out.charAt(length - 1))) {
+            --length;
+        }
+        out.setLength(length);
+        out.append('>');
+        if (!isVoidElement(name)) {
+            out.append("</").append(name).append('>');
+        }
+    }
+
+    private static boolean isVoidElement(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "area":
+            case "base":
+            case "br":
+            case "col":
+            case "embed":
+            case "hr":
+            case "img":
+            case "input":
+            case "link":
+            case "meta":
+            case "param":
+            case "source":
+            case "track":
+            case "wbr":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isEscapedQuote(String html, int idx) {
+        return html.charAt(idx) == '\\' && idx + 1 < html.length() && html.charAt(idx + 1) == '"';
     }
 
-    private void processHtmlImages(Element documentBody) {
-        for (Element img : documentBody.select("img")) {
-            boolean resize = shouldImageBeResized(img);
-            if (resize) {
-                img.attr("style", "max-width:100%;");
+    /**
+     * Если с позиции <code>idx</code> начинается ссылка <code>href="exec:..."</code>, дописывает её
+     * в <code>out</code> с кодом в Base64, иначе дописывает один символ.
+     *
+     * @return позиция, с которой продолжить обработку
+     */
+    private int appendExecHref(String html, int idx, StringBuilder out) {
+        if (!html.regionMatches(true, idx, EXEC_HREF, 0, EXEC_HREF.length())) {
+            out.append(html.charAt(idx));
+            return idx + 1;
+        }
+        int execStart = idx + EXEC_HREF.length();
+        int execEnd = execStart;
+        while (execEnd < html.length() && (html.charAt(execEnd) != '"' || html.charAt(execEnd - 1) == '\\')) {
+            ++execEnd;
+        }
+        if (execEnd == html.length()) {
+            out.append(html.charAt(idx));
+            return idx + 1;
+        }
+        StringBuilder exec = new StringBuilder(execEnd - execStart);
+        for (int i = execStart; i < execEnd; ++i) {
+            if (isEscapedQuote(html, i)) {
+                exec.append('\'');
+                ++i;
+            } else {
+                char c = html.charAt(i);
+                exec.append(c == '\\' ? '/' : c);
             }
         }
+        out.append(EXEC_HREF)
+                .append(encodeBase64(exec.toString(), Base64.NO_WRAP))
+                .append('"');
+
+        return execEnd + 1;
     }
 
-    private boolean shouldImageBeResized(Element img) {
-        String relPath = img.attr("src");
-        String absPath = gameContentResolver.getAbsolutePath(relPath);
+    /**
+     * Если с позиции <code>idx</code> начинается тег <code>img</code> или <code>video</code>,
+     * дописывает его в <code>out</code> с ограничением ширины, иначе дописывает один символ.
+     *
+     * @return позиция, с которой продолжить обработку
+     */
+    private int appendMediaTag(String html, int idx, StringBuilder out) {
+        String name;
+        if (isTagName(html, idx + 1, "img")) {
+            name = "img";
+        } else if (isTagName(html, idx + 1, "video")) {
+            name = "video";
+        } else {
+            out.append('<');
+            return idx + 1;
+        }
+
+        // Тег копируется отдельно, потому что атрибуты нужно знать до того, как дописать его
+        StringBuilder tag = new StringBuilder();
+        char quote = 0;
+        boolean afterEquals = false;
+        int len = html.length();
+        int i = idx + 1 + name.length();
+        while (i < len) {
+            char c = html.charAt(i);
+            if (isEscapedQuote(html, i)) {
+                c = '\'';
+                ++i;
+            } else if (c == '\r') {
+                ++i;
+                continue;
+            } else if (c == '\n') {
+                c = ' ';
+            }
+            ++i;
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '>') {
+                writeMediaTag(html.substring(idx + 1, idx + 1 + name.length()), tag, out);
+                return i;
+            } else if (afterEquals && (c == '"' || c == '\'')) {
+                quote = c;
+            }
+            if (quote == 0 && c == '=') {
+                afterEquals = true;
+            } else if (!Character.isWhitespace(c)) {
+                afterEquals = false;
+            }
+            tag.append(c);
+        }
+        logger.warn("Invalid HTML: element at {} is not closed", idx);
+        out.append('<');
+
+        return idx + 1;
+    }
+
+    private static boolean isTagName(String html, int idx, String name) {
+        if (!html.regionMatches(true, idx, name, 0, name.length())) return false;
+
+        int end = idx + name.length();
+        if (end == html.length()) return true;
+
+        char c = html.charAt(end);
+        return Character.isWhitespace(c) || c == '/' || c == '>';
+    }
+
+    /**
+     * Дописывает в <code>out</code> тег с именем <code>name</code> и атрибутами <code>attrs</code>,
+     * заменяя атрибут <code>style</code> у больших изображений и у видео.
+     */
+    private void writeMediaTag(String name, CharSequence attrs, StringBuilder out) {
+        ArrayList<Attribute> attributes = parseAttributes(attrs);
+        boolean video = name.equalsIgnoreCase("video");
+        boolean resize = video || shouldImageBeResized(attributes);
+
+        out.append('<').append(name);
+        boolean styleWritten = false;
+        boolean mutedWritten = false;
+        for (Attribute attribute : attributes) {
+            if (resize && attribute.name.equalsIgnoreCase("style")) {
+                if (!styleWritten) {
+                    out.append(" style=\"").append(MAX_WIDTH_STYLE).append('"');
+                    styleWritten = true;
+                }
+            } else if (video && attribute.name.equalsIgnoreCase("muted")) {
+                if (!mutedWritten) {
+                    out.append(" muted=\"true\"");
+                    mutedWritten = true;
+                }
+            } else {
+                out.append(' ').append(attrs, attribute.start, attribute.end);
+            }
+        }
+        if (resize && !styleWritten) {
+            out.append(" style=\"").append(MAX_WIDTH_STYLE).append('"');
+        }
+        if (video && !mutedWritten) {
+            out.append(" muted=\"true\"");
+        }
+        out.append('>');
+        if (video && isSelfClosing(attrs)) {
+            out.append("</").append(name).append('>');
+        }
+    }
+
+    private static boolean isSelfClosing(CharSequence attrs) {
+        int idx = attrs.length() - 1;
+        while (idx >= 0 && Character.isWhitespace(attrs.charAt(idx))) {
+            --idx;
+        }
+        return idx >= 0 && attrs.charAt(idx) == '/';
+    }
 
-        Drawable drawable = imageProvider.get(absPath);
-        if (drawable == null) return false;
+    private static ArrayList<Attribute> parseAttributes(CharSequence attrs) {
+        ArrayList<Attribute> result = new ArrayList<>();
+        int len = attrs.length();
+        int idx = 0;
+        while (idx < len) {
+            char c = attrs.charAt(idx);
+            if (Character.isWhitespace(c) || c == '/') {
+                ++idx;
+                continue;
+            }
+            int start = idx;
+            while (idx < len && !isAttributeNameEnd(attrs.charAt(idx))) {
+                ++idx;
+            }
+            String name = attrs.subSequence(start, idx).toString();
+            int end = idx;
+            String value = "";
+
+            idx = skipWhitespace(attrs, idx);
+            if (idx < len && attrs.charAt(idx) == '=') {
+                idx = skipWhitespace(attrs, idx + 1);
+                int valueStart = idx;
+                if (idx < len && (attrs.charAt(idx) == '"' || attrs.charAt(idx) == '\'')) {
+                    char quote = attrs.charAt(idx);
+                    ++valueStart;
+                    idx = valueStart;
+                    while (idx < len && attrs.charAt(idx) != quote) {
+                        ++idx;
+                    }
+                    value = attrs.subSequence(valueStart, idx).toString();
+                    idx = Math.min(idx + 1, len);
+                } else {
+                    while (idx < len && !Character.isWhitespace(attrs.charAt(idx))) {
+                        ++idx;
+                    }
+                    value = attrs.subSequence(valueStart, idx).toString();
+                }
+                end = idx;
+            }
+            result.add(new Attribute(name, value, start, end));
+        }
+
+        return result;
+    }
 
-        int width = ((BitmapDrawable) drawable).getBitmap().getWidth();
+    private static boolean isAttributeNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '=' || c == '/';
+    }
 
-        return width > IMAGE_WIDTH_THRESHOLD;
+    private static int skipWhitespace(CharSequence s, int idx) {
+        while (idx < s.length() && Character.isWhitespace(s.charAt(idx))) {
+            ++idx;
+        }
+        return idx;
     }
 
-    private void processHtmlVideos(Element documentBody) {
-        documentBody.select("video")
-                .attr("style", "max-width:100%;")
-                .attr("muted", "true");
+    private boolean shouldImageBeResized(ArrayList<Attribute> attributes) {
+        String relPath = "";
+        for (Attribute attribute : attributes) {
+            if (attribute.name.equalsIgnoreCase("src")) {
+                relPath = attribute.value;
+                break;
+            }
+        }
+        String absPath = gameContentResolver.getAbsolutePath(relPath);
+
+        return imageProvider.getImageWidth(absPath) > IMAGE_WIDTH_THRESHOLD;
     }
 
     /**
@@ -110,7 +508,29 @@ public class HtmlProcessor {
      * приемлемому для отображения в {@linkplain android.webkit.WebView}.
      */
     public String convertQspStringToWebViewHtml(String str) {
-        return isNotEmpty(str) ? htmlizeLineBreaks(str) : "";
+        if (isNullOrEmpty(str)) return "";
+
+        StringBuilder result = new StringBuilder(estimateCapacity(str));
+        convertQspStringToWebViewHtml(str, result);
+
+        return result.toString();
+    }
+
+    /**
+     * То же, что {@link #convertQspStringToWebViewHtml(String)}, но дописывает результат в <code>out</code>.
+     */
+    public void convertQspStringToWebViewHtml(String str, StringBuilder out) {
+        if (isNullOrEmpty(str)) return;
+
+        out.ensureCapacity(out.length() + estimateCapacity(str));
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            if (c == '\n') {
+                out.append("<br>");
+            } else if (c != '\r') {
+                out.append(c);
+            }
+        }
     }
 
     /**
@@ -141,4 +561,18 @@ public class HtmlProcessor {
 
         return result.toString();
     }
+
+    private static class Attribute {
+        private final String name;
+        private final String value;
+        private final int start;
+        private final int end;
+
+        private Attribute(String name, String value, int start, int end) {
+            this.name = name;
+            this.value = value;
+            this.start = start;
+            this.end = end;
+        }
+    }
 }
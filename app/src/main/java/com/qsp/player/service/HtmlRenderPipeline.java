@@ -0,0 +1,187 @@
+package com.qsp.player.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Преобразует основное и дополнительное описания в HTML для {@linkplain android.webkit.WebView}
+ * в отдельном потоке и передаёт результат слушателю. Страницы целиком собираются по шаблону
+ * {@link PageTemplate}, так что текст описания копируется в страницу один раз.
+ *
+ * @implNote Если текст описания меняется быстрее, чем преобразуется, промежуточные версии
+ * пропускаются - преобразуется только последняя. Если новый текст основного описания является
+ * продолжением предыдущего, преобразуется только добавленная часть.
+ */
+public class HtmlRenderPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(HtmlRenderPipeline.class);
+
+    private final AtomicReference<Request> pendingMainDesc = new AtomicReference<>();
+    private final AtomicReference<Request> pendingVarsDesc = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "html");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final HtmlProcessor htmlProcessor;
+    private final Listener listener;
+    private volatile PageTemplate pageTemplate = PageTemplate.EMPTY;
+
+    // Состояние потока преобразования
+    private final StringBuilder page = new StringBuilder();
+    private String convertedMainDesc;
+    private boolean convertedMainDescUseHtml;
+
+    public HtmlRenderPipeline(HtmlProcessor htmlProcessor, Listener listener) {
+        this.htmlProcessor = htmlProcessor;
+        this.listener = listener;
+    }
+
+    /**
+     * Устанавливает шаблон для страниц, которые будут собраны после вызова. Уже собранные
+     * страницы не обновляются, их нужно поставить в очередь заново.
+     */
+    public void setPageTemplate(PageTemplate pageTemplate) {
+        this.pageTemplate = pageTemplate;
+    }
+
+    /**
+     * Ставит основное описание в очередь на преобразование.
+     *
+     * @param reload <code>true</code> если страницу нужно загрузить заново, даже если текст только дописан
+     */
+    public void submitMainDesc(String text, boolean useHtml, boolean reload) {
+        Request previous;
+        Request request;
+        do {
+            // Заменённый запрос мог требовать перезагрузки страницы
+            previous = pendingMainDesc.get();
+            request = new Request(text, useHtml, reload || previous != null && previous.reload);
+        } while (!pendingMainDesc.compareAndSet(previous, request));
+
+        if (previous == null) {
+            execute(this::convertMainDesc);
+        }
+    }
+
+    /**
+     * Ставит дополнительное описание в очередь на преобразование.
+     */
+    public void submitVarsDesc(String text, boolean useHtml) {
+        if (pendingVarsDesc.getAndSet(new Request(text, useHtml, true)) == null) {
+            execute(this::convertVarsDesc);
+        }
+    }
+
+    /**
+     * Останавливает поток преобразования. Описания, поставленные в очередь после вызова, отбрасываются.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void execute(Runnable task) {
+        // Описание может прийти из потока библиотеки уже после закрытия экрана
+        if (executor.isShutdown()) return;
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            logger.debug("Description submitted after shutdown is dropped");
+        }
+    }
+
+    private void convertMainDesc() {
+        Request request = pendingMainDesc.getAndSet(null);
+        if (request == null) return;
+
+        try {
+            if (!request.reload && request.text.equals(convertedMainDesc)) return;
+
+            if (canAppend(request)) {
+                String base = convertedMainDesc;
+                String html = convertFragment(request.text.substring(base.length()), request.useHtml);
+                listener.onMainDescAppended(base, request.text, html);
+            } else {
+                listener.onMainDescConverted(request.text, buildPage(request.text, request.useHtml));
+            }
+            convertedMainDesc = request.text;
+            convertedMainDescUseHtml = request.useHtml;
+        } catch (RuntimeException ex) {
+            logger.error("Failed to convert the main description", ex);
+        }
+    }
+
+    private boolean canAppend(Request request) {
+        if (request.reload || convertedMainDesc == null) return false;
+        if (request.useHtml != convertedMainDescUseHtml || !request.text.startsWith(convertedMainDesc)) return false;
+
+        return !request.useHtml || htmlProcessor.canAppendToQspHtml(convertedMainDesc);
+    }
+
+    private void convertVarsDesc() {
+        Request request = pendingVarsDesc.getAndSet(null);
+        if (request == null) return;
+
+        try {
+            listener.onVarsDescConverted(buildPage(request.text, request.useHtml));
+        } catch (RuntimeException ex) {
+            logger.error("Failed to convert the vars description", ex);
+        }
+    }
+
+    private String buildPage(String text, boolean useHtml) {
+        PageTemplate template = pageTemplate;
+        page.setLength(0);
+        page.ensureCapacity(template.getLength() + text.length());
+        template.appendHead(page);
+        if (useHtml) {
+            htmlProcessor.convertQspHtmlFragmentToWebViewHtml(text, page);
+        } else {
+            htmlProcessor.convertQspStringToWebViewHtml(text, page);
+        }
+        template.appendTail(page);
+
+        return page.toString();
+    }
+
+    private String convertFragment(String text, boolean useHtml) {
+        return useHtml ?
+                htmlProcessor.convertQspHtmlFragmentToWebViewHtml(text) :
+                htmlProcessor.convertQspStringToWebViewHtml(text);
+    }
+
+    /**
+     * Получает результаты преобразования в потоке преобразования.
+     */
+    public interface Listener {
+
+        /**
+         * Основное описание <code>text</code> преобразовано в страницу <code>page</code> целиком.
+         */
+        void onMainDescConverted(String text, String page);
+
+        /**
+         * К основному описанию <code>baseText</code> дописан текст, в результате получилось
+         * описание <code>text</code>. HTML-код <code>html</code> нужно дописать в конец страницы.
+         */
+        void onMainDescAppended(String baseText, String text, String html);
+
+        void onVarsDescConverted(String page);
+    }
+
+    private static class Request {
+        private final String text;
+        private final boolean useHtml;
+        private final boolean reload;
+
+        private Request(String text, boolean useHtml, boolean reload) {
+            this.text = text != null ? text : "";
+            this.useHtml = useHtml;
+            this.reload = reload;
+        }
+    }
+}
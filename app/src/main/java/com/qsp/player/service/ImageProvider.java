@@ -1,50 +1,243 @@
 package com.qsp.player.service;
 
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+
+import com.qsp.player.util.ImageUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.qsp.player.util.StringUtil.isNullOrEmpty;
 
 public class ImageProvider {
+    private static final float DEFAULT_CACHE_MEMORY_FRACTION = 0.125f;
+    private static final int BYTES_PER_PIXEL = 4;
+
     private static final Logger logger = LoggerFactory.getLogger(ImageProvider.class);
-    private static final HashMap<String, Drawable> cache = new HashMap<>();
+
+    private final ConcurrentHashMap<String, Point> sizeCache = new ConcurrentHashMap<>();
+    private final LinkedList<ReusableBitmap> reusableBitmaps = new LinkedList<>();
+
+    private LruCache<String, BitmapDrawable> cache = createCache((int) (Runtime.getRuntime().maxMemory() * DEFAULT_CACHE_MEMORY_FRACTION));
+    private int reusableBytes;
+    private int maxWidth;
+    private int maxHeight;
+
+    public void init(Context context) {
+        init(context, DEFAULT_CACHE_MEMORY_FRACTION);
+    }
+
+    /**
+     * Ограничивает размер кеша долей <code>memoryFraction</code> от памяти, доступной приложению,
+     * а размер загружаемых изображений - размером экрана.
+     */
+    public void init(Context context, float memoryFraction) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = (int) (activityManager.getMemoryClass() * 1024L * 1024L * memoryFraction);
+        cache = createCache(maxBytes);
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        maxWidth = Math.max(metrics.widthPixels, metrics.heightPixels);
+        maxHeight = maxWidth;
+    }
+
+    private LruCache<String, BitmapDrawable> createCache(int maxBytes) {
+        return new LruCache<String, BitmapDrawable>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, BitmapDrawable value) {
+                return value.getBitmap().getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, BitmapDrawable oldValue, BitmapDrawable newValue) {
+                addReusableBitmap(oldValue, maxSize() / 4);
+            }
+        };
+    }
 
     /**
      * Загружает изображение из файла по абсолютному пути или возвращает изображение из кеша.
+     * Изображение уменьшается до размера экрана, если был вызван {@link #init(Context)}.
      *
      * @return загруженное изображение, или <code>null</code> если изображение не было найдено
      */
     public Drawable get(String path) {
-        if (isNullOrEmpty(path)) return null;
+        return get(path, maxWidth, maxHeight);
+    }
 
-        Drawable drawable = cache.get(path);
+    /**
+     * Загружает изображение из файла по абсолютному пути или возвращает изображение из кеша.
+     * Изображение уменьшается, пока его размеры не меньше <code>reqWidth</code> и <code>reqHeight</code>.
+     *
+     * @return загруженное изображение, или <code>null</code> если изображение не было найдено
+     */
+    public Drawable get(String path, int reqWidth, int reqHeight) {
+        Point size = getImageSize(path);
+        if (size == null) return null;
+
+        int sampleSize = calculateSampleSize(size, reqWidth, reqHeight);
+        String key = sampleSize == 1 ? path : path + "#" + sampleSize;
+
+        BitmapDrawable drawable = cache.get(key);
         if (drawable != null) return drawable;
 
+        Bitmap bitmap = decodeBitmap(path, size, sampleSize);
+        if (bitmap == null) return null;
+
+        drawable = new BitmapDrawable(null, bitmap);
+        cache.put(key, drawable);
+
+        return drawable;
+    }
+
+    /**
+     * @return ширина изображения в пикселях, или <code>0</code> если изображение не было найдено
+     * @implNote Читает только заголовок файла, само изображение не загружается.
+     * Размеры запоминаются до вызова {@link #invalidateCache()}.
+     */
+    public int getImageWidth(String path) {
+        Point size = getImageSize(path);
+        return size != null ? size.x : 0;
+    }
+
+    private Point getImageSize(String path) {
+        if (isNullOrEmpty(path)) return null;
+
+        Point size = sizeCache.get(path);
+        if (size != null) return size;
+
         File file = new File(path);
         if (!file.exists()) {
             logger.error("Image file not found: " + path);
             return null;
         }
-        try (FileInputStream in = new FileInputStream(file)) {
-            drawable = Drawable.createFromStream(in, path);
+        size = readImageSize(file);
+        if (size == null) {
+            logger.error("Error reading the image file: " + path);
+            return null;
+        }
+        sizeCache.put(path, size);
+
+        return size;
+    }
+
+    private static Point readImageSize(File file) {
+        try {
+            int[] size = ImageUtil.readImageSize(file);
+            if (size != null && size[0] > 0 && size[1] > 0) {
+                return new Point(size[0], size[1]);
+            }
         } catch (IOException ex) {
-            logger.error("Error reading the image file", ex);
+            logger.error("Error reading the image file header", ex);
         }
-        if (drawable != null) {
-            cache.put(file.getAbsolutePath(), drawable);
+
+        // Формат не распознан по заголовку, пусть его определит BitmapFactory
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        return new Point(options.outWidth, options.outHeight);
+    }
+
+    private static int calculateSampleSize(Point size, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) return sampleSize;
+
+        while (size.x / (sampleSize * 2) >= reqWidth && size.y / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
         }
 
-        return drawable;
+        return sampleSize;
+    }
+
+    private Bitmap decodeBitmap(String path, Point size, int sampleSize) {
+        int width = (size.x + sampleSize - 1) / sampleSize;
+        int height = (size.y + sampleSize - 1) / sampleSize;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inBitmap = takeReusableBitmap(width * height * BYTES_PER_PIXEL);
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException ex) {
+            // Формат изображения не позволяет переиспользовать растр
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    /**
+     * Запоминает растр вытесненного из кеша изображения для повторного использования при загрузке.
+     * Растр используется повторно только после того, как на изображение не осталось ссылок.
+     */
+    private void addReusableBitmap(BitmapDrawable drawable, int maxBytes) {
+        Bitmap bitmap = drawable.getBitmap();
+        if (!bitmap.isMutable()) return;
+
+        synchronized (reusableBitmaps) {
+            ReusableBitmap reusable = new ReusableBitmap(bitmap, drawable);
+            reusableBitmaps.addLast(reusable);
+            reusableBytes += reusable.byteCount;
+            while (reusableBytes > maxBytes && !reusableBitmaps.isEmpty()) {
+                reusableBytes -= reusableBitmaps.removeFirst().byteCount;
+            }
+        }
+    }
+
+    private Bitmap takeReusableBitmap(int byteCount) {
+        synchronized (reusableBitmaps) {
+            Iterator<ReusableBitmap> it = reusableBitmaps.iterator();
+            while (it.hasNext()) {
+                ReusableBitmap reusable = it.next();
+                if (reusable.owner.get() != null) continue;
+
+                if (reusable.bitmap.isRecycled()) {
+                    it.remove();
+                    reusableBytes -= reusable.byteCount;
+                    continue;
+                }
+                if (reusable.byteCount >= byteCount) {
+                    it.remove();
+                    reusableBytes -= reusable.byteCount;
+                    return reusable.bitmap;
+                }
+            }
+        }
+
+        return null;
     }
 
     public void invalidateCache() {
-        cache.clear();
+        cache.evictAll();
+        sizeCache.clear();
+    }
+
+    private static class ReusableBitmap {
+        private final Bitmap bitmap;
+        private final int byteCount;
+        private final WeakReference<Drawable> owner;
+
+        private ReusableBitmap(Bitmap bitmap, Drawable owner) {
+            this.bitmap = bitmap;
+            this.byteCount = bitmap.getAllocationByteCount();
+            this.owner = new WeakReference<>(owner);
+        }
     }
 }
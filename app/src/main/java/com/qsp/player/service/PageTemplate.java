@@ -0,0 +1,94 @@
+package com.qsp.player.service;
+
+import static com.qsp.player.util.ColorUtil.getHexColor;
+
+/**
+ * Шаблон страницы {@linkplain android.webkit.WebView} с описанием: код до и после содержимого
+ * <code>body</code>, в котором уже подставлены цвета и шрифт.
+ *
+ * @implNote Страница запрещает выполнение скриптов, включая обработчики <code>on*</code> и ссылки
+ * <code>javascript:</code>: JavaScript включается в {@linkplain android.webkit.WebView} только для
+ * вызовов <code>evaluateJavascript</code> из приложения, на которые политика не действует.
+ */
+public class PageTemplate {
+    public static final PageTemplate EMPTY = new PageTemplate();
+
+    private static final String HEAD_TEMPLATE = "<head>\n"
+            + "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1, minimum-scale=1, maximum-scale=1\">\n"
+            + "<meta http-equiv=\"Content-Security-Policy\" content=\"script-src 'none'\">\n"
+            + "<style type=\"text/css\">\n"
+            + "  body {\n"
+            + "    margin: 0;\n"
+            + "    padding: 0.5em;\n"
+            + "    color: QSPTEXTCOLOR;\n"
+            + "    background-color: QSPBACKCOLOR;\n"
+            + "    font-size: QSPFONTSIZE;\n"
+            + "    font-family: QSPFONTSTYLE;\n"
+            + "  }\n"
+            + "  a { color: QSPLINKCOLOR; }\n"
+            + "  a:link { color: QSPLINKCOLOR; }\n"
+            + "</style></head><body>";
+
+    private static final String TAIL = "</body>";
+
+    private final int textColor;
+    private final int backColor;
+    private final int linkColor;
+    private final String fontStyle;
+    private final int fontSize;
+    private final String head;
+    private final String tail;
+
+    private PageTemplate() {
+        textColor = 0;
+        backColor = 0;
+        linkColor = 0;
+        fontStyle = "";
+        fontSize = 0;
+        head = "";
+        tail = "";
+    }
+
+    public PageTemplate(int textColor, int backColor, int linkColor, String fontStyle, int fontSize) {
+        this.textColor = textColor;
+        this.backColor = backColor;
+        this.linkColor = linkColor;
+        this.fontStyle = fontStyle;
+        this.fontSize = fontSize;
+        head = HEAD_TEMPLATE
+                .replace("QSPTEXTCOLOR", getHexColor(textColor))
+                .replace("QSPBACKCOLOR", getHexColor(backColor))
+                .replace("QSPLINKCOLOR", getHexColor(linkColor))
+                .replace("QSPFONTSTYLE", fontStyle)
+                .replace("QSPFONTSIZE", Integer.toString(fontSize));
+        tail = TAIL;
+    }
+
+    /**
+     * @return <code>true</code> если шаблон построен с такими же цветами и шрифтом,
+     * и создавать новый не нужно
+     */
+    public boolean matches(int textColor, int backColor, int linkColor, String fontStyle, int fontSize) {
+        return this != EMPTY &&
+                this.textColor == textColor &&
+                this.backColor == backColor &&
+                this.linkColor == linkColor &&
+                this.fontStyle.equals(fontStyle) &&
+                this.fontSize == fontSize;
+    }
+
+    /**
+     * @return длина страницы без содержимого <code>body</code>
+     */
+    public int getLength() {
+        return head.length() + tail.length();
+    }
+
+    public void appendHead(StringBuilder page) {
+        page.append(head);
+    }
+
+    public void appendTail(StringBuilder page) {
+        page.append(tail);
+    }
+}
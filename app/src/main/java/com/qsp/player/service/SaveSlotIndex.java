@@ -0,0 +1,195 @@
+package com.qsp.player.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Индекс сохранений игры, который хранится в файле <code>slots.idx</code> папки сохранений.
+ * Позволяет показывать список слотов без обхода папки.
+ *
+ * @implNote Индекс перестраивается обходом папки, если она изменилась позже самого индекса, например
+ * если сохранения были скопированы в неё вручную.
+ */
+public class SaveSlotIndex {
+    private static final String INDEX_FILENAME = "slots.idx";
+    private static final String SAVE_EXTENSION = ".sav";
+    private static final int VERSION = 1;
+
+    private static final Logger logger = LoggerFactory.getLogger(SaveSlotIndex.class);
+
+    private final HashMap<String, Slot> slots = new HashMap<>();
+    private final File savesDir;
+
+    private SaveSlotIndex(File savesDir) {
+        this.savesDir = savesDir;
+    }
+
+    /**
+     * Загружает индекс из папки сохранений <code>savesDir</code>, при необходимости перестраивая его.
+     */
+    public static SaveSlotIndex load(File savesDir) {
+        SaveSlotIndex index = new SaveSlotIndex(savesDir);
+        File indexFile = new File(savesDir, INDEX_FILENAME);
+        boolean upToDate = indexFile.exists() &&
+                indexFile.lastModified() >= savesDir.lastModified() &&
+                index.read(indexFile);
+        if (!upToDate) {
+            index.rebuild();
+        }
+        return index;
+    }
+
+    public File getSavesDir() {
+        return savesDir;
+    }
+
+    /**
+     * @return слот с именем файла <code>filename</code> без учёта регистра, или <code>null</code> если его нет
+     */
+    public synchronized Slot get(String filename) {
+        return slots.get(toKey(filename));
+    }
+
+    /**
+     * @return последний из слотов, имена файлов которых начинаются с <code>prefix</code>,
+     * или <code>null</code> если таких нет
+     */
+    public synchronized Slot getLatest(String prefix) {
+        String keyPrefix = toKey(prefix);
+        Slot latest = null;
+        for (HashMap.Entry<String, Slot> entry : slots.entrySet()) {
+            if (!entry.getKey().startsWith(keyPrefix)) continue;
+
+            Slot slot = entry.getValue();
+            if (latest == null || slot.time > latest.time) {
+                latest = slot;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Добавляет или заменяет слот и сохраняет индекс.
+     */
+    public synchronized void put(Slot slot) {
+        slots.put(toKey(slot.filename), slot);
+        write();
+    }
+
+    private static String toKey(String filename) {
+        return filename.toLowerCase(Locale.ROOT);
+    }
+
+    private boolean read(File indexFile) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != VERSION) return false;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                Slot slot = new Slot(in.readUTF(), in.readLong(), in.readLong(), in.readUTF(), in.readUTF());
+                slots.put(toKey(slot.filename), slot);
+            }
+            return true;
+        } catch (IOException ex) {
+            logger.error("Failed to read the save slot index", ex);
+            slots.clear();
+            return false;
+        }
+    }
+
+    private synchronized void rebuild() {
+        HashMap<String, Slot> known = new HashMap<>(slots);
+        slots.clear();
+
+        File[] files = savesDir.listFiles((dir, filename) -> toKey(filename).endsWith(SAVE_EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                String key = toKey(file.getName());
+                Slot slot = known.get(key);
+                if (slot == null || slot.time != file.lastModified() || slot.size != file.length()) {
+                    slot = Slot.fromFile(file, "", "");
+                }
+                slots.put(key, slot);
+            }
+        }
+        write();
+    }
+
+    /**
+     * @implNote Файл индекса перезаписывается на месте: переименование изменило бы время
+     * изменения папки и индекс считался бы устаревшим.
+     */
+    private void write() {
+        File indexFile = new File(savesDir, INDEX_FILENAME);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(VERSION);
+            out.writeInt(slots.size());
+            for (Slot slot : slots.values()) {
+                out.writeUTF(slot.filename);
+                out.writeLong(slot.time);
+                out.writeLong(slot.size);
+                out.writeUTF(slot.locName);
+                out.writeUTF(slot.thumbnail);
+            }
+        } catch (IOException ex) {
+            logger.error("Failed to write the save slot index", ex);
+        }
+    }
+
+    public static class Slot {
+        private final String filename;
+        private final long time;
+        private final long size;
+        private final String locName;
+        private final String thumbnail;
+
+        public Slot(String filename, long time, long size, String locName, String thumbnail) {
+            this.filename = filename;
+            this.time = time;
+            this.size = size;
+            this.locName = locName != null ? locName : "";
+            this.thumbnail = thumbnail != null ? thumbnail : "";
+        }
+
+        /**
+         * Создаёт слот для файла сохранения <code>file</code>, читая его время изменения и размер.
+         */
+        public static Slot fromFile(File file, String locName, String thumbnail) {
+            return new Slot(file.getName(), file.lastModified(), file.length(), locName, thumbnail);
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getLocName() {
+            return locName;
+        }
+
+        /**
+         * @return начало текста основного описания на момент сохранения
+         */
+        public String getThumbnail() {
+            return thumbnail;
+        }
+    }
+}
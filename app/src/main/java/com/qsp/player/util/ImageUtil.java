@@ -0,0 +1,127 @@
+package com.qsp.player.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class ImageUtil {
+    private static final int HEADER_BUFFER_SIZE = 1024;
+
+    /**
+     * Читает размеры изображения из заголовка файла <code>file</code> в форматах PNG, JPEG, GIF и BMP.
+     *
+     * @return ширина и высота изображения, или <code>null</code> если формат не поддерживается
+     */
+    public static int[] readImageSize(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), HEADER_BUFFER_SIZE)) {
+            return readImageSize(in);
+        }
+    }
+
+    /**
+     * Читает размеры изображения из заголовка в потоке <code>in</code> в форматах PNG, JPEG, GIF и BMP.
+     *
+     * @return ширина и высота изображения, или <code>null</code> если формат не поддерживается
+     */
+    public static int[] readImageSize(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            int b0 = data.readUnsignedByte();
+            int b1 = data.readUnsignedByte();
+            if (b0 == 0x89 && b1 == 'P') return readPngSize(data);
+            if (b0 == 0xff && b1 == 0xd8) return readJpegSize(data);
+            if (b0 == 'G' && b1 == 'I') return readGifSize(data);
+            if (b0 == 'B' && b1 == 'M') return readBmpSize(data);
+        } catch (EOFException ex) {
+            return null;
+        }
+
+        return null;
+    }
+
+    private static int[] readPngSize(DataInputStream data) throws IOException {
+        // Остаток сигнатуры (6 байт), длина (4 байта) и тип (4 байта) блока IHDR
+        byte[] header = new byte[14];
+        data.readFully(header);
+        if (header[0] != 'N' || header[1] != 'G' || header[10] != 'I' || header[11] != 'H') return null;
+
+        int width = data.readInt();
+        int height = data.readInt();
+
+        return new int[]{width, height};
+    }
+
+    private static int[] readJpegSize(DataInputStream data) throws IOException {
+        while (true) {
+            int marker = data.readUnsignedByte();
+            if (marker != 0xff) return null;
+            while (marker == 0xff) {
+                marker = data.readUnsignedByte();
+            }
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd8)) continue;
+            if (marker == 0xd9 || marker == 0xda) return null;
+
+            int length = data.readUnsignedShort();
+            if (length < 2) return null;
+
+            boolean startOfFrame = marker >= 0xc0 && marker <= 0xcf &&
+                    marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+            if (startOfFrame) {
+                data.readUnsignedByte(); // точность
+                int height = data.readUnsignedShort();
+                int width = data.readUnsignedShort();
+                return new int[]{width, height};
+            }
+            skipFully(data, length - 2);
+        }
+    }
+
+    private static int[] readGifSize(DataInputStream data) throws IOException {
+        // Остаток сигнатуры и версия: "F87a" или "F89a"
+        byte[] header = new byte[4];
+        data.readFully(header);
+        if (header[0] != 'F') return null;
+
+        int width = readUnsignedShortLE(data);
+        int height = readUnsignedShortLE(data);
+
+        return new int[]{width, height};
+    }
+
+    private static int[] readBmpSize(DataInputStream data) throws IOException {
+        skipFully(data, 12);
+        int headerSize = readIntLE(data);
+        if (headerSize == 12) {
+            int width = readUnsignedShortLE(data);
+            int height = readUnsignedShortLE(data);
+            return new int[]{width, height};
+        }
+        int width = readIntLE(data);
+        int height = Math.abs(readIntLE(data)); // отрицательная высота у изображений, хранимых сверху вниз
+
+        return new int[]{width, height};
+    }
+
+    private static int readUnsignedShortLE(DataInputStream data) throws IOException {
+        int b0 = data.readUnsignedByte();
+        int b1 = data.readUnsignedByte();
+        return b0 | (b1 << 8);
+    }
+
+    private static int readIntLE(DataInputStream data) throws IOException {
+        return Integer.reverseBytes(data.readInt());
+    }
+
+    private static void skipFully(DataInputStream data, int count) throws IOException {
+        int remaining = count;
+        while (remaining > 0) {
+            int skipped = data.skipBytes(remaining);
+            if (skipped <= 0) throw new EOFException();
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.qsp.player.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Поток, который открывает целевой поток только при первой записи. Если запись не начиналась,
+ * целевой файл не создаётся и не перезаписывается.
+ */
+public class LazyOutputStream extends OutputStream {
+    private final Opener opener;
+    private OutputStream out;
+
+    public LazyOutputStream(Opener opener) {
+        this.opener = opener;
+    }
+
+    public boolean isOpened() {
+        return out != null;
+    }
+
+    private OutputStream getOut() throws IOException {
+        if (out == null) {
+            out = opener.open();
+            if (out == null) {
+                throw new IOException("Output stream could not be opened");
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        getOut().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        getOut().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    public interface Opener {
+        OutputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,252 @@
+package com.qsp.player.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Сжатый формат файла сохранения.
+ *
+ * @implNote Заголовок: сигнатура <code>QSPZ</code> и версия формата. За ним следуют данные в формате
+ * gzip, размер и CRC32 исходных данных в котором записаны после сжатых данных, поэтому сохранение
+ * сжимается по мере записи.
+ */
+public final class SaveContainer {
+    private static final byte[] MAGIC = {'Q', 'S', 'P', 'Z'};
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    /**
+     * Наибольшая степень сжатия, которой может достичь алгоритм deflate.
+     */
+    private static final int MAX_COMPRESSION_RATIO = 1032;
+
+    /**
+     * Возвращает поток, который сжимает записываемые в него данные сохранения и передаёт их в поток
+     * <code>out</code>. До первой записи в <code>out</code> ничего не пишется. Закрытие потока
+     * дописывает окончание сжатых данных и закрывает <code>out</code>.
+     */
+    public static OutputStream newOutputStream(OutputStream out) {
+        return new ContainerOutputStream(out);
+    }
+
+    /**
+     * Сжимает данные сохранения <code>data</code> и записывает их в поток <code>out</code>.
+     */
+    public static void write(OutputStream out, byte[] data) throws IOException {
+        ContainerOutputStream containerOut = new ContainerOutputStream(out);
+        try {
+            containerOut.write(data);
+            containerOut.finish();
+        } finally {
+            containerOut.end();
+        }
+        out.flush();
+    }
+
+    /**
+     * Читает данные сохранения из потока <code>in</code>. Сохранения в прежнем, несжатом,
+     * формате возвращаются как есть.
+     *
+     * @throws IOException если сохранение повреждено или записано более новой версией формата
+     */
+    public static byte[] read(InputStream in) throws IOException {
+        BufferedInputStream bufIn = new BufferedInputStream(in, BUFFER_SIZE);
+        bufIn.mark(MAGIC.length);
+
+        byte[] magic = new byte[MAGIC.length];
+        int magicSize = readFully(bufIn, magic);
+        if (magicSize < MAGIC.length || !Arrays.equals(magic, MAGIC)) {
+            bufIn.reset();
+            return readLegacy(bufIn);
+        }
+
+        DataInputStream header = new DataInputStream(bufIn);
+        int version = header.readUnsignedByte();
+        if (version == 0 || version > VERSION) {
+            throw new IOException("Unsupported save format version: " + version);
+        }
+        CountingInputStream compressedIn = new CountingInputStream(bufIn);
+        PayloadInputStream payloadIn = null;
+        try {
+            payloadIn = new PayloadInputStream(compressedIn);
+            return inflate(payloadIn, compressedIn);
+        } catch (EOFException ex) {
+            throw new IOException("Save file is truncated", ex);
+        } finally {
+            if (payloadIn != null) {
+                payloadIn.end();
+            }
+        }
+    }
+
+    /**
+     * Распаковывает данные из потока <code>in</code>, не допуская, чтобы их размер превысил
+     * размер, которого можно достичь сжатием прочитанных из <code>compressedIn</code> данных.
+     */
+    private static byte[] inflate(InputStream in, CountingInputStream compressedIn) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream(MAX_INITIAL_CAPACITY)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+                long limit = Math.min(MAX_SIZE, MAX_COMPRESSION_RATIO * compressedIn.getCount());
+                if (out.size() > limit) {
+                    throw new IOException("Save file is corrupted");
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] readLegacy(InputStream in) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            StreamUtil.copy(in, out);
+            return out.toByteArray();
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] b) throws IOException {
+        int total = 0;
+        while (total < b.length) {
+            int bytesRead = in.read(b, total, b.length - total);
+            if (bytesRead < 0) break;
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                ++count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytesRead = super.read(b, off, len);
+            if (bytesRead > 0) {
+                count += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static class ContainerOutputStream extends OutputStream {
+        private final OutputStream out;
+        private PayloadOutputStream payloadOut;
+        private boolean closed;
+
+        ContainerOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        private PayloadOutputStream getPayloadOut() throws IOException {
+            if (payloadOut == null) {
+                out.write(MAGIC);
+                out.write(VERSION);
+                payloadOut = new PayloadOutputStream(out);
+            }
+            return payloadOut;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            getPayloadOut().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            getPayloadOut().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (payloadOut != null) {
+                payloadOut.flush();
+            }
+        }
+
+        void finish() throws IOException {
+            if (payloadOut != null) {
+                payloadOut.finish();
+            }
+        }
+
+        void end() {
+            if (payloadOut != null) {
+                payloadOut.end();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                finish();
+            } finally {
+                end();
+                out.close();
+            }
+        }
+    }
+
+    private static class PayloadOutputStream extends GZIPOutputStream {
+        PayloadOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+
+    private static class PayloadInputStream extends GZIPInputStream {
+        PayloadInputStream(InputStream in) throws IOException {
+            super(in, BUFFER_SIZE);
+        }
+
+        void end() {
+            inf.end();
+        }
+    }
+}
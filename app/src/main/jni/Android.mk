@@ -26,6 +26,8 @@ qsp/memwatch.c \
 qsp/menu.c \
 qsp/objects.c \
 qsp/playlist.c \
+qsp/profiler.c \
+qsp/regexp.c \
 qsp/statements.c \
 qsp/text.c \
 qsp/time.c \
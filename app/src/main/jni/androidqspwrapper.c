@@ -1,4 +1,9 @@
+#include <fcntl.h>
+#include <limits.h>
 #include <string.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
 
 #include "android/log.h"
 #include "jni.h"
@@ -8,6 +13,176 @@
 JNIEnv *qspJniEnv;
 jobject qspCallbacksObj;
 
+/* Классы и поля Java, кешируемые при загрузке библиотеки */
+static jclass stringClass;
+static jclass actionDataClass;
+static jfieldID actionDataNameFid;
+static jfieldID actionDataImageFid;
+static jclass objectDataClass;
+static jfieldID objectDataNameFid;
+static jfieldID objectDataImageFid;
+static jclass listItemsDataClass;
+static jfieldID listItemsDataNamesFid;
+static jfieldID listItemsDataImagesFid;
+static jclass refreshDeltaDataClass;
+static jfieldID refreshDeltaMainDescChangedFid;
+static jfieldID refreshDeltaVarsDescChangedFid;
+static jfieldID refreshDeltaActionsChangedFid;
+static jfieldID refreshDeltaObjectsChangedFid;
+static jfieldID refreshDeltaMainDescFid;
+static jfieldID refreshDeltaVarsDescFid;
+static jfieldID refreshDeltaActionsFid;
+static jfieldID refreshDeltaObjectsFid;
+static jfieldID refreshDeltaUseHtmlFid;
+static jfieldID refreshDeltaFontSizeFid;
+static jfieldID refreshDeltaBackColorFid;
+static jfieldID refreshDeltaFontColorFid;
+static jfieldID refreshDeltaLinkColorFid;
+static jclass cacheStatsDataClass;
+static jfieldID cacheStatsHitsFid;
+static jfieldID cacheStatsMissesFid;
+static jclass profileDataClass;
+static jfieldID profileLocNamesFid;
+static jfieldID profileCallsCountsFid;
+static jfieldID profileTimesFid;
+static jfieldID profileStatementsCountsFid;
+static jfieldID profileCounterCallsCountFid;
+static jfieldID profileCounterTimeFid;
+static jmethodID outputStreamWriteMid;
+
+static jclass findClassGlobal(JNIEnv *env, const char *name) {
+    jclass cls = (*env)->FindClass(env, name);
+    if (cls == NULL)
+        return NULL;
+    jclass globalCls = (*env)->NewGlobalRef(env, cls);
+    (*env)->DeleteLocalRef(env, cls);
+    return globalCls;
+}
+
+jint JNI_OnLoad(JavaVM *vm, void *reserved) {
+    JNIEnv *env;
+    if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_6) != JNI_OK)
+        return JNI_ERR;
+
+    stringClass = findClassGlobal(env, "java/lang/String");
+    actionDataClass = findClassGlobal(env, "com/qsp/player/libqsp/dto/ActionData");
+    objectDataClass = findClassGlobal(env, "com/qsp/player/libqsp/dto/ObjectData");
+    listItemsDataClass = findClassGlobal(env, "com/qsp/player/libqsp/dto/ListItemsData");
+    refreshDeltaDataClass = findClassGlobal(env, "com/qsp/player/libqsp/dto/RefreshDeltaData");
+    cacheStatsDataClass = findClassGlobal(env, "com/qsp/player/libqsp/dto/CacheStatsData");
+    profileDataClass = findClassGlobal(env, "com/qsp/player/libqsp/dto/ProfileData");
+    if (stringClass == NULL || actionDataClass == NULL || objectDataClass == NULL ||
+        listItemsDataClass == NULL || refreshDeltaDataClass == NULL || cacheStatsDataClass == NULL ||
+        profileDataClass == NULL)
+        return JNI_ERR;
+
+    actionDataNameFid = (*env)->GetFieldID(env, actionDataClass, "name", "Ljava/lang/String;");
+    actionDataImageFid = (*env)->GetFieldID(env, actionDataClass, "image", "Ljava/lang/String;");
+    objectDataNameFid = (*env)->GetFieldID(env, objectDataClass, "name", "Ljava/lang/String;");
+    objectDataImageFid = (*env)->GetFieldID(env, objectDataClass, "image", "Ljava/lang/String;");
+    listItemsDataNamesFid = (*env)->GetFieldID(env, listItemsDataClass, "names", "[Ljava/lang/String;");
+    listItemsDataImagesFid = (*env)->GetFieldID(env, listItemsDataClass, "images", "[Ljava/lang/String;");
+    if (actionDataNameFid == NULL || actionDataImageFid == NULL ||
+        objectDataNameFid == NULL || objectDataImageFid == NULL ||
+        listItemsDataNamesFid == NULL || listItemsDataImagesFid == NULL)
+        return JNI_ERR;
+
+    jclass cls = refreshDeltaDataClass;
+    refreshDeltaMainDescChangedFid = (*env)->GetFieldID(env, cls, "mainDescChanged", "Z");
+    refreshDeltaVarsDescChangedFid = (*env)->GetFieldID(env, cls, "varsDescChanged", "Z");
+    refreshDeltaActionsChangedFid = (*env)->GetFieldID(env, cls, "actionsChanged", "Z");
+    refreshDeltaObjectsChangedFid = (*env)->GetFieldID(env, cls, "objectsChanged", "Z");
+    refreshDeltaMainDescFid = (*env)->GetFieldID(env, cls, "mainDesc", "Ljava/lang/String;");
+    refreshDeltaVarsDescFid = (*env)->GetFieldID(env, cls, "varsDesc", "Ljava/lang/String;");
+    refreshDeltaActionsFid = (*env)->GetFieldID(env, cls, "actions", "Lcom/qsp/player/libqsp/dto/ListItemsData;");
+    refreshDeltaObjectsFid = (*env)->GetFieldID(env, cls, "objects", "Lcom/qsp/player/libqsp/dto/ListItemsData;");
+    refreshDeltaUseHtmlFid = (*env)->GetFieldID(env, cls, "useHtml", "I");
+    refreshDeltaFontSizeFid = (*env)->GetFieldID(env, cls, "fontSize", "I");
+    refreshDeltaBackColorFid = (*env)->GetFieldID(env, cls, "backColor", "I");
+    refreshDeltaFontColorFid = (*env)->GetFieldID(env, cls, "fontColor", "I");
+    refreshDeltaLinkColorFid = (*env)->GetFieldID(env, cls, "linkColor", "I");
+    if (refreshDeltaMainDescChangedFid == NULL || refreshDeltaVarsDescChangedFid == NULL ||
+        refreshDeltaActionsChangedFid == NULL || refreshDeltaObjectsChangedFid == NULL ||
+        refreshDeltaMainDescFid == NULL || refreshDeltaVarsDescFid == NULL ||
+        refreshDeltaActionsFid == NULL || refreshDeltaObjectsFid == NULL ||
+        refreshDeltaUseHtmlFid == NULL || refreshDeltaFontSizeFid == NULL ||
+        refreshDeltaBackColorFid == NULL || refreshDeltaFontColorFid == NULL ||
+        refreshDeltaLinkColorFid == NULL)
+        return JNI_ERR;
+
+    cacheStatsHitsFid = (*env)->GetFieldID(env, cacheStatsDataClass, "hits", "I");
+    cacheStatsMissesFid = (*env)->GetFieldID(env, cacheStatsDataClass, "misses", "I");
+    if (cacheStatsHitsFid == NULL || cacheStatsMissesFid == NULL)
+        return JNI_ERR;
+
+    cls = profileDataClass;
+    profileLocNamesFid = (*env)->GetFieldID(env, cls, "locNames", "[Ljava/lang/String;");
+    profileCallsCountsFid = (*env)->GetFieldID(env, cls, "callsCounts", "[I");
+    profileTimesFid = (*env)->GetFieldID(env, cls, "times", "[J");
+    profileStatementsCountsFid = (*env)->GetFieldID(env, cls, "statementsCounts", "[J");
+    profileCounterCallsCountFid = (*env)->GetFieldID(env, cls, "counterCallsCount", "I");
+    profileCounterTimeFid = (*env)->GetFieldID(env, cls, "counterTime", "J");
+    if (profileLocNamesFid == NULL || profileCallsCountsFid == NULL ||
+        profileTimesFid == NULL || profileStatementsCountsFid == NULL ||
+        profileCounterCallsCountFid == NULL || profileCounterTimeFid == NULL)
+        return JNI_ERR;
+
+    jclass outputStreamClass = (*env)->FindClass(env, "java/io/OutputStream");
+    if (outputStreamClass == NULL)
+        return JNI_ERR;
+    outputStreamWriteMid = (*env)->GetMethodID(env, outputStreamClass, "write", "([BII)V");
+    (*env)->DeleteLocalRef(env, outputStreamClass);
+    if (outputStreamWriteMid == NULL)
+        return JNI_ERR;
+
+    return JNI_VERSION_1_6;
+}
+
+/* Строка QSP в UTF-16 передаётся в Java без промежуточного перекодирования в UTF-8 */
+static jstring qspToJavaString(JNIEnv *env, const QSP_CHAR *str) {
+    if (str == NULL)
+        return NULL;
+    const QSP_CHAR *end = str;
+    while (*end)
+        ++end;
+    return (*env)->NewString(env, (const jchar *) str, (jsize) (end - str));
+}
+
+typedef void (*QSP_GET_ITEM_DATA)(int ind, QSP_CHAR **image, QSP_CHAR **desc);
+
+/* Заполняет ListItemsData всеми пунктами списка за один переход через JNI */
+static jobject getListItemsData(JNIEnv *env, int count, QSP_GET_ITEM_DATA getItemData) {
+    jobjectArray names = (*env)->NewObjectArray(env, count, stringClass, NULL);
+    jobjectArray images = (*env)->NewObjectArray(env, count, stringClass, NULL);
+    if (names == NULL || images == NULL)
+        return NULL;
+
+    int i;
+    QSP_CHAR *image;
+    QSP_CHAR *desc;
+    for (i = 0; i < count; ++i) {
+        getItemData(i, &image, &desc);
+
+        jstring jName = qspToJavaString(env, desc);
+        (*env)->SetObjectArrayElement(env, names, i, jName);
+        (*env)->DeleteLocalRef(env, jName);
+
+        jstring jImage = qspToJavaString(env, image);
+        (*env)->SetObjectArrayElement(env, images, i, jImage);
+        (*env)->DeleteLocalRef(env, jImage);
+    }
+
+    jobject obj = (*env)->AllocObject(env, listItemsDataClass);
+    if (obj == NULL)
+        return NULL;
+    (*env)->SetObjectField(env, obj, listItemsDataNamesFid, names);
+    (*env)->SetObjectField(env, obj, listItemsDataImagesFid, images);
+    (*env)->DeleteLocalRef(env, names);
+    (*env)->DeleteLocalRef(env, images);
+
+    return obj;
+}
+
 void Java_com_qsp_player_libqsp_NativeMethods_QSPInit(JNIEnv *env, jobject this) {
     qspJniEnv = env;
 
@@ -34,6 +209,65 @@ void Java_com_qsp_player_libqsp_NativeMethods_QSPEnableDebugMode(JNIEnv *env, jo
     QSPEnableDebugMode((QSP_BOOL) isDebug);
 }
 
+void Java_com_qsp_player_libqsp_NativeMethods_QSPEnableProfiling(JNIEnv *env, jobject this,
+                                                                      jboolean isProfiling) {
+    QSPEnableProfiling((QSP_BOOL) isProfiling);
+}
+
+/* Заполняет ProfileData локациями, которые выполнялись с момента включения профилирования */
+jobject Java_com_qsp_player_libqsp_NativeMethods_QSPGetProfileData(JNIEnv *env, jobject this) {
+    int i, count = 0, locsCount = QSPGetLocsProfileCount();
+    int callsCount;
+    long long time, statsCount;
+    QSP_CHAR *name;
+    for (i = 0; i < locsCount; ++i) {
+        if (QSPGetLocProfileData(i, &name, &callsCount, &time, &statsCount) && (callsCount || statsCount))
+            ++count;
+    }
+
+    jobjectArray names = (*env)->NewObjectArray(env, count, stringClass, NULL);
+    jintArray callsCounts = (*env)->NewIntArray(env, count);
+    jlongArray times = (*env)->NewLongArray(env, count);
+    jlongArray statsCounts = (*env)->NewLongArray(env, count);
+    if (names == NULL || callsCounts == NULL || times == NULL || statsCounts == NULL)
+        return NULL;
+
+    int ind = 0;
+    for (i = 0; i < locsCount && ind < count; ++i) {
+        if (!QSPGetLocProfileData(i, &name, &callsCount, &time, &statsCount) || !(callsCount || statsCount))
+            continue;
+
+        jstring jName = qspToJavaString(env, name);
+        (*env)->SetObjectArrayElement(env, names, ind, jName);
+        (*env)->DeleteLocalRef(env, jName);
+
+        jint jCallsCount = callsCount;
+        jlong jTime = time;
+        jlong jStatsCount = statsCount;
+        (*env)->SetIntArrayRegion(env, callsCounts, ind, 1, &jCallsCount);
+        (*env)->SetLongArrayRegion(env, times, ind, 1, &jTime);
+        (*env)->SetLongArrayRegion(env, statsCounts, ind, 1, &jStatsCount);
+        ++ind;
+    }
+
+    jobject obj = (*env)->AllocObject(env, profileDataClass);
+    if (obj == NULL)
+        return NULL;
+    (*env)->SetObjectField(env, obj, profileLocNamesFid, names);
+    (*env)->SetObjectField(env, obj, profileCallsCountsFid, callsCounts);
+    (*env)->SetObjectField(env, obj, profileTimesFid, times);
+    (*env)->SetObjectField(env, obj, profileStatementsCountsFid, statsCounts);
+    QSPGetCounterProfileData(&callsCount, &time);
+    (*env)->SetIntField(env, obj, profileCounterCallsCountFid, callsCount);
+    (*env)->SetLongField(env, obj, profileCounterTimeFid, time);
+    (*env)->DeleteLocalRef(env, names);
+    (*env)->DeleteLocalRef(env, callsCounts);
+    (*env)->DeleteLocalRef(env, times);
+    (*env)->DeleteLocalRef(env, statsCounts);
+
+    return obj;
+}
+
 jobject
 Java_com_qsp_player_libqsp_NativeMethods_QSPGetCurStateData(JNIEnv *env, jobject this) {
     //!!!STUB
@@ -113,6 +347,52 @@ Java_com_qsp_player_libqsp_NativeMethods_QSPIsVarsDescChanged(JNIEnv *env, jobje
     return QSPIsVarsDescChanged();
 }
 
+///* ------------------------------------------------------------ */
+///* Изменения интерфейса */
+
+/* Числовое значение системной переменной, или 0, если переменной не присвоено значение */
+static int getVarNumValue(const QSP_CHAR *name) {
+    int numVal;
+    QSP_CHAR *strVal;
+    return QSPGetVarValues(name, 0, &numVal, &strVal) ? numVal : 0;
+}
+
+static void setObjectFieldAndRelease(JNIEnv *env, jobject obj, jfieldID fid, jobject value) {
+    (*env)->SetObjectField(env, obj, fid, value);
+    if (value != NULL)
+        (*env)->DeleteLocalRef(env, value);
+}
+
+/* Заполняет RefreshDeltaData флагами изменений, изменившимся текстом и списками,
+ * а также конфигурацией интерфейса (USEHTML, FSIZE, BCOLOR, FCOLOR, LCOLOR) */
+void Java_com_qsp_player_libqsp_NativeMethods_QSPGetRefreshDelta(JNIEnv *env, jobject this,
+                                                                      jobject delta) {
+    QSP_BOOL mainDescChanged = QSPIsMainDescChanged();
+    QSP_BOOL varsDescChanged = QSPIsVarsDescChanged();
+    QSP_BOOL actionsChanged = QSPIsActionsChanged();
+    QSP_BOOL objectsChanged = QSPIsObjectsChanged();
+
+    (*env)->SetBooleanField(env, delta, refreshDeltaMainDescChangedFid, (jboolean) mainDescChanged);
+    (*env)->SetBooleanField(env, delta, refreshDeltaVarsDescChangedFid, (jboolean) varsDescChanged);
+    (*env)->SetBooleanField(env, delta, refreshDeltaActionsChangedFid, (jboolean) actionsChanged);
+    (*env)->SetBooleanField(env, delta, refreshDeltaObjectsChangedFid, (jboolean) objectsChanged);
+
+    setObjectFieldAndRelease(env, delta, refreshDeltaMainDescFid,
+                             mainDescChanged ? qspToJavaString(env, QSPGetMainDesc()) : NULL);
+    setObjectFieldAndRelease(env, delta, refreshDeltaVarsDescFid,
+                             varsDescChanged ? qspToJavaString(env, QSPGetVarsDesc()) : NULL);
+    setObjectFieldAndRelease(env, delta, refreshDeltaActionsFid,
+                             actionsChanged ? getListItemsData(env, QSPGetActionsCount(), QSPGetActionData) : NULL);
+    setObjectFieldAndRelease(env, delta, refreshDeltaObjectsFid,
+                             objectsChanged ? getListItemsData(env, QSPGetObjectsCount(), QSPGetObjectData) : NULL);
+
+    (*env)->SetIntField(env, delta, refreshDeltaUseHtmlFid, getVarNumValue(QSP_FMT("USEHTML")));
+    (*env)->SetIntField(env, delta, refreshDeltaFontSizeFid, getVarNumValue(QSP_FMT("FSIZE")));
+    (*env)->SetIntField(env, delta, refreshDeltaBackColorFid, getVarNumValue(QSP_FMT("BCOLOR")));
+    (*env)->SetIntField(env, delta, refreshDeltaFontColorFid, getVarNumValue(QSP_FMT("FCOLOR")));
+    (*env)->SetIntField(env, delta, refreshDeltaLinkColorFid, getVarNumValue(QSP_FMT("LCOLOR")));
+}
+
 ///* ------------------------------------------------------------ */
 ///* Получить значение указанного выражения */
 //(const QSP_CHAR *expr, QSP_BOOL *isString, int *numVal, QSP_CHAR *strVal, int strValBufSize)
@@ -165,34 +445,26 @@ jint Java_com_qsp_player_libqsp_NativeMethods_QSPGetActionsCount(JNIEnv *env, jo
 //void QSPGetActionData(int ind, QSP_CHAR **image, QSP_CHAR **desc)
 jobject Java_com_qsp_player_libqsp_NativeMethods_QSPGetActionData(JNIEnv *env, jobject this,
                                                                        jint ind) {
-    char *qspImgFileName;
-    char *qspActName;
+    QSP_CHAR *qspImgFileName;
+    QSP_CHAR *qspActName;
     QSPGetActionData(ind, &qspImgFileName, &qspActName);
 
-    char *sz = qspW2C(qspActName);
-    char *isz = qspW2C(qspImgFileName);
-    jstring actName = (*env)->NewStringUTF(env, sz);
-    jstring actImg = (*env)->NewStringUTF(env, isz);
-    if (sz != NULL)
-        free(sz);
-    if (isz != NULL)
-        free(isz);
-
-    jclass clazz = (*env)->FindClass(env, "com/qsp/player/libqsp/dto/ActionData");
-    if (clazz == 0)
-        return 0;
-    jobject obj = (*env)->AllocObject(env, clazz);
-    jfieldID fid = (*env)->GetFieldID(env, clazz, "name", "Ljava/lang/String;");
-    jfieldID fid2 = (*env)->GetFieldID(env, clazz, "image", "Ljava/lang/String;");
-    (*env)->DeleteLocalRef(env, clazz);
-    if (fid == 0 || fid2 == 0)
-        return 0;
-    (*env)->SetObjectField(env, obj, fid, actName);
-    (*env)->SetObjectField(env, obj, fid2, actImg);
+    jobject obj = (*env)->AllocObject(env, actionDataClass);
+    if (obj == NULL)
+        return NULL;
+    jstring actName = qspToJavaString(env, qspActName);
+    jstring actImg = qspToJavaString(env, qspImgFileName);
+    (*env)->SetObjectField(env, obj, actionDataNameFid, actName);
+    (*env)->SetObjectField(env, obj, actionDataImageFid, actImg);
 
     return obj;
 }
 
+///* Данные всех действий */
+jobject Java_com_qsp_player_libqsp_NativeMethods_QSPGetActionsData(JNIEnv *env, jobject this) {
+    return getListItemsData(env, QSPGetActionsCount(), QSPGetActionData);
+}
+
 ///* Выполнение кода выбранного действия */
 jboolean
 Java_com_qsp_player_libqsp_NativeMethods_QSPExecuteSelActionCode(JNIEnv *env, jobject this,
@@ -230,36 +502,26 @@ jint Java_com_qsp_player_libqsp_NativeMethods_QSPGetObjectsCount(JNIEnv *env, jo
 //void QSPGetObjectData(int ind, QSP_CHAR **image, QSP_CHAR **desc)
 jobject Java_com_qsp_player_libqsp_NativeMethods_QSPGetObjectData(JNIEnv *env, jobject this,
                                                                        jint ind) {
-    char *qspImgFileName;
-    char *qspObjName;
+    QSP_CHAR *qspImgFileName;
+    QSP_CHAR *qspObjName;
     QSPGetObjectData(ind, &qspImgFileName, &qspObjName);
 
-    char *sz = qspW2C(qspObjName);
-    jstring objName = (*env)->NewStringUTF(env, sz);
-    if (sz != NULL)
-        free(sz);
-
-    char *isz = qspW2C(qspImgFileName);
-    jstring objImg = (*env)->NewStringUTF(env, isz);
-    if (isz != NULL)
-        free(isz);
-
-    jclass clazz = (*env)->FindClass(env, "com/qsp/player/libqsp/dto/ObjectData");
-    if (clazz == 0)
-        return 0;
-    jobject obj = (*env)->AllocObject(env, clazz);
-    jfieldID fid = (*env)->GetFieldID(env, clazz, "name", "Ljava/lang/String;");
-    jfieldID fid2 = (*env)->GetFieldID(env, clazz, "image", "Ljava/lang/String;");
-    (*env)->DeleteLocalRef(env, clazz);
-    if (fid == 0 || fid2 == 0)
-        return 0;
-    // Set the major field to the operating system's major version.
-    (*env)->SetObjectField(env, obj, fid, objName);
-    (*env)->SetObjectField(env, obj, fid2, objImg);
+    jobject obj = (*env)->AllocObject(env, objectDataClass);
+    if (obj == NULL)
+        return NULL;
+    jstring objName = qspToJavaString(env, qspObjName);
+    jstring objImg = qspToJavaString(env, qspImgFileName);
+    (*env)->SetObjectField(env, obj, objectDataNameFid, objName);
+    (*env)->SetObjectField(env, obj, objectDataImageFid, objImg);
 
     return obj;
 }
 
+///* Данные всех объектов */
+jobject Java_com_qsp_player_libqsp_NativeMethods_QSPGetObjectsData(JNIEnv *env, jobject this) {
+    return getListItemsData(env, QSPGetObjectsCount(), QSPGetObjectData);
+}
+
 ///* Установить индекс выбранного объекта */
 jboolean
 Java_com_qsp_player_libqsp_NativeMethods_QSPSetSelObjectIndex(JNIEnv *env, jobject this,
@@ -377,6 +639,30 @@ Java_com_qsp_player_libqsp_NativeMethods_QSPGetVarNameByIndex(JNIEnv *env, jobje
     return NULL;
 }
 
+static jobject newCacheStatsData(JNIEnv *env, int hits, int misses) {
+    jobject obj = (*env)->AllocObject(env, cacheStatsDataClass);
+    if (obj == NULL)
+        return NULL;
+
+    (*env)->SetIntField(env, obj, cacheStatsHitsFid, hits);
+    (*env)->SetIntField(env, obj, cacheStatsMissesFid, misses);
+    return obj;
+}
+
+///* Получить число попаданий и промахов кеша регулярных выражений */
+jobject Java_com_qsp_player_libqsp_NativeMethods_QSPGetRegExpCacheStats(JNIEnv *env, jobject this) {
+    int hits, misses;
+    QSPGetRegExpCacheStats(&hits, &misses);
+    return newCacheStatsData(env, hits, misses);
+}
+
+///* Получить число попаданий и промахов кеша разобранного кода DYNAMIC и DYNEVAL */
+jobject Java_com_qsp_player_libqsp_NativeMethods_QSPGetCodeCacheStats(JNIEnv *env, jobject this) {
+    int hits, misses;
+    QSPGetCodeCacheStats(&hits, &misses);
+    return newCacheStatsData(env, hits, misses);
+}
+
 ///* ------------------------------------------------------------ */
 ///* Выполнение кода */
 //
@@ -521,6 +807,48 @@ Java_com_qsp_player_libqsp_NativeMethods_QSPLoadGameWorldFromData(JNIEnv *env, j
     return result;
 }
 
+///* Загрузка новой игры из файла, отображённого в память.
+// * Файл отображается поверх анонимной области, которая длиннее файла хотя бы на 3 байта,
+// * поэтому за данными всегда следуют нулевые байты, и движок разбирает их без копирования.
+// * Если отобразить файл не удалось, игра загружается обычным способом. */
+jboolean Java_com_qsp_player_libqsp_NativeMethods_QSPLoadGameWorldFromFile(JNIEnv *env, jobject this,
+                                                                           jstring fileName) {
+    const char *str = (*env)->GetStringUTFChars(env, fileName, NULL);
+    if (str == NULL)
+        return JNI_FALSE;
+
+    QSP_CHAR *wcs = qspC2W(str);
+    jboolean result;
+    char *data = MAP_FAILED;
+    size_t mapSize = 0;
+    struct stat st;
+
+    int fd = open(str, O_RDONLY);
+    if (fd != -1 && fstat(fd, &st) == 0 && st.st_size > 0 && st.st_size < INT_MAX - 3) {
+        size_t pageSize = (size_t) sysconf(_SC_PAGESIZE);
+        mapSize = ((size_t) st.st_size + 3 + pageSize - 1) / pageSize * pageSize;
+        data = mmap(NULL, mapSize, PROT_READ, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+        if (data != MAP_FAILED &&
+            mmap(data, (size_t) st.st_size, PROT_READ, MAP_PRIVATE | MAP_FIXED, fd, 0) == MAP_FAILED) {
+            munmap(data, mapSize);
+            data = MAP_FAILED;
+        }
+    }
+    if (fd != -1)
+        close(fd);
+
+    if (data != MAP_FAILED) {
+        result = QSPLoadGameWorldFromTerminatedData(data, (int) st.st_size, wcs);
+        munmap(data, mapSize);
+    } else {
+        result = QSPLoadGameWorld(wcs);
+    }
+
+    free(wcs);
+    (*env)->ReleaseStringUTFChars(env, fileName, str);
+    return result;
+}
+
 ///* Сохранение состояния в файл */
 jboolean Java_com_qsp_player_libqsp_NativeMethods_QSPSaveGame(JNIEnv *env, jobject this,
                                                                    jstring fileName,
@@ -546,10 +874,83 @@ Java_com_qsp_player_libqsp_NativeMethods_QSPSaveGameAsData(JNIEnv *env, jobject
 
     jbyteArray result;
     result = (*env)->NewByteArray(env, bufferSize);
-    if (result == NULL)
+    if (result != NULL)
+        (*env)->SetByteArrayRegion(env, result, 0, bufferSize, buffer);
+
+    free(buffer);
+    return result;
+}
+
+///* Снимок состояния в память без вызова локации ONGSAVE, для автосохранения */
+jbyteArray
+Java_com_qsp_player_libqsp_NativeMethods_QSPSaveGameSnapshot(JNIEnv *env, jobject this) {
+    void *buffer = NULL;
+    int bufferSize = 0;
+    if (QSPSaveGameSnapshot(&buffer, &bufferSize) == QSP_FALSE)
         return NULL;
 
-    (*env)->SetByteArrayRegion(env, result, 0, bufferSize, buffer);
+    jbyteArray result;
+    result = (*env)->NewByteArray(env, bufferSize);
+    if (result != NULL)
+        (*env)->SetByteArrayRegion(env, result, 0, bufferSize, buffer);
+
+    free(buffer);
+    return result;
+}
+
+typedef struct {
+    JNIEnv *env;
+    jobject out;
+    jbyteArray chunk;
+    jsize chunkSize;
+    jthrowable error;
+} JavaStreamWriter;
+
+/* Передаёт часть сохранения в OutputStream через один переиспользуемый массив */
+static QSP_BOOL writeToJavaStream(void *context, QSP_CHAR *data, int len) {
+    JavaStreamWriter *writer = (JavaStreamWriter *) context;
+    JNIEnv *env = writer->env;
+    jsize size = (jsize) (len * sizeof(QSP_CHAR));
+    if (size > writer->chunkSize) {
+        if (writer->chunk != NULL)
+            (*env)->DeleteLocalRef(env, writer->chunk);
+        writer->chunk = (*env)->NewByteArray(env, size);
+        if (writer->chunk == NULL) {
+            writer->error = (*env)->ExceptionOccurred(env);
+            (*env)->ExceptionClear(env);
+            return QSP_FALSE;
+        }
+        writer->chunkSize = size;
+    }
+    (*env)->SetByteArrayRegion(env, writer->chunk, 0, size, (const jbyte *) data);
+    (*env)->CallVoidMethod(env, writer->out, outputStreamWriteMid, writer->chunk, 0, size);
+    if ((*env)->ExceptionCheck(env)) {
+        // Исключение будет выброшено повторно после завершения сохранения
+        writer->error = (*env)->ExceptionOccurred(env);
+        (*env)->ExceptionClear(env);
+        return QSP_FALSE;
+    }
+    return QSP_TRUE;
+}
+
+///* Сохранение состояния в поток частями, без сборки всего сохранения в памяти */
+jboolean
+Java_com_qsp_player_libqsp_NativeMethods_QSPSaveGameToStream(JNIEnv *env, jobject this,
+                                                                  jobject out,
+                                                                  jboolean isRefresh) {
+    JavaStreamWriter writer;
+    writer.env = env;
+    writer.out = out;
+    writer.chunk = NULL;
+    writer.chunkSize = 0;
+    writer.error = NULL;
+
+    jboolean result = QSPSaveGameToWriter(writeToJavaStream, &writer, (QSP_BOOL) isRefresh);
+
+    if (writer.chunk != NULL)
+        (*env)->DeleteLocalRef(env, writer.chunk);
+    if (writer.error != NULL)
+        (*env)->Throw(env, writer.error);
 
     return result;
 }
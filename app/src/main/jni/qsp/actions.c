@@ -185,7 +185,7 @@ void qspStatementAddAct(QSPLineOfCode *s, int statPos, int endPos)
 	}
 	oldRefreshCount = qspRefreshCount;
 	*pos = 0;
-	count = qspGetStatArgs(s->Str + s->Stats[statPos].ParamPos, qspStatAct, args);
+	count = qspGetStatArgs(s->Str + s->Stats[statPos].ParamPos, s->Stats + statPos, args);
 	*pos = QSP_COLONDELIM[0];
 	if (qspRefreshCount != oldRefreshCount || qspErrorNum) return;
 	++statPos;
@@ -193,6 +193,7 @@ void qspStatementAddAct(QSPLineOfCode *s, int statPos, int endPos)
 	code.Label = qspGetLineLabel(code.Str);
 	code.LineNum = 0;
 	code.IsMultiline = QSP_FALSE;
+	code.EndOffset = code.ElseOffset = code.LabelOffset = 0;
 	pos = s->Str + s->Stats[endPos - 1].EndPos;
 	if (*pos == QSP_COLONDELIM[0]) ++pos;
 	ch = *pos;
@@ -201,16 +202,11 @@ void qspStatementAddAct(QSPLineOfCode *s, int statPos, int endPos)
 	code.Stats = (QSPCachedStat *)malloc(code.StatsCount * sizeof(QSPCachedStat));
 	offset = (int)(code.Str - s->Str);
 	for (i = 0; i < code.StatsCount; ++i)
-	{
-		code.Stats[i].Stat = s->Stats[statPos].Stat;
-		code.Stats[i].EndPos = s->Stats[statPos].EndPos - offset;
-		code.Stats[i].ParamPos = s->Stats[statPos].ParamPos - offset;
-		++statPos;
-	}
+		qspCopyCachedStat(code.Stats + i, s->Stats + statPos++, offset);
 	qspAddAction(args, count, &code, 0, 1, QSP_FALSE);
 	*pos = ch;
 	qspFreeVariants(args, count);
-	free(code.Stats);
+	qspFreeCachedStats(code.Stats, code.StatsCount);
 	if (code.Label) free(code.Label);
 }
 
@@ -37,6 +37,9 @@
 		typedef int (*QSP_CALLBACK)();
 	#endif
 
+	/* Получает очередную часть сохранения, при ошибке записи возвращает QSP_FALSE */
+	typedef QSP_BOOL (*QSP_SAVE_WRITER)(void *context, QSP_CHAR *data, int len);
+
 	#ifdef __cplusplus
 	extern "C"
 	{
@@ -44,6 +47,10 @@
 
 	QSP_EXTERN QSP_BOOL QSPIsInCallBack();
 	QSP_EXTERN void QSPEnableDebugMode(QSP_BOOL isDebug);
+	QSP_EXTERN void QSPEnableProfiling(QSP_BOOL isProfiling);
+	QSP_EXTERN int QSPGetLocsProfileCount();
+	QSP_EXTERN QSP_BOOL QSPGetLocProfileData(int ind, QSP_CHAR **name, int *callsCount, long long *time, long long *statsCount);
+	QSP_EXTERN void QSPGetCounterProfileData(int *callsCount, long long *time);
 	QSP_EXTERN void QSPGetCurStateData(QSP_CHAR **loc, int *actIndex, int *line);
 	QSP_EXTERN const QSP_CHAR *QSPGetVersion();
 	QSP_EXTERN const QSP_CHAR *QSPGetCompiledDateTime();
@@ -72,6 +79,8 @@
 	QSP_EXTERN QSP_BOOL QSPGetVarValues(const QSP_CHAR *name, int ind, int *numVal, QSP_CHAR **strVal);
 	QSP_EXTERN int QSPGetMaxVarsCount();
 	QSP_EXTERN QSP_BOOL QSPGetVarNameByIndex(int ind, QSP_CHAR **name);
+	QSP_EXTERN void QSPGetRegExpCacheStats(int *hits, int *misses);
+	QSP_EXTERN void QSPGetCodeCacheStats(int *hits, int *misses);
 	QSP_EXTERN QSP_BOOL QSPExecString(const QSP_CHAR *str, QSP_BOOL isRefresh);
 	QSP_EXTERN QSP_BOOL QSPExecCounter(QSP_BOOL isRefresh);
 	QSP_EXTERN QSP_BOOL QSPExecUserInput(QSP_BOOL isRefresh);
@@ -80,7 +89,11 @@
 	QSP_EXTERN const QSP_CHAR *QSPGetErrorDesc(int errorNum);
 	QSP_EXTERN QSP_BOOL QSPLoadGameWorld(const QSP_CHAR *file);
 	QSP_EXTERN QSP_BOOL QSPLoadGameWorldFromData(const char *data, int dataSize, const QSP_CHAR *file);
+	QSP_EXTERN QSP_BOOL QSPLoadGameWorldFromTerminatedData(const char *data, int dataSize, const QSP_CHAR *file);
 	QSP_EXTERN QSP_BOOL QSPSaveGame(const QSP_CHAR *file, QSP_BOOL isRefresh);
+	QSP_EXTERN QSP_BOOL QSPSaveGameAsData(void **buf, int *realSize, QSP_BOOL isRefresh);
+	QSP_EXTERN QSP_BOOL QSPSaveGameSnapshot(void **buf, int *realSize);
+	QSP_EXTERN QSP_BOOL QSPSaveGameToWriter(QSP_SAVE_WRITER writeFunc, void *context, QSP_BOOL isRefresh);
 	QSP_EXTERN QSP_BOOL QSPSaveGameAsString(QSP_CHAR *strBuf, int strBufSize, int *realSize, QSP_BOOL isRefresh);
 	QSP_EXTERN QSP_BOOL QSPOpenSavedGame(const QSP_CHAR *file, QSP_BOOL isRefresh);
 	QSP_EXTERN QSP_BOOL QSPOpenSavedGameFromString(const QSP_CHAR *str, QSP_BOOL isRefresh);
@@ -28,7 +28,9 @@
 #include "../../locations.h"
 #include "../../mathops.h"
 #include "../../menu.h"
+#include "../../regexp.h"
 #include "../../objects.h"
+#include "../../profiler.h"
 #include "../../statements.h"
 #include "../../text.h"
 #include "../../time.h"
@@ -48,6 +50,33 @@ void QSPEnableDebugMode(QSP_BOOL isDebug)
 {
 	qspIsDebug = isDebug;
 }
+/* Управление режимом профилирования, при включении накопленные данные сбрасываются */
+void QSPEnableProfiling(QSP_BOOL isProfiling)
+{
+	if (isProfiling && !qspIsProfiling) qspResetProfile(0);
+	qspIsProfiling = isProfiling;
+}
+/* Получить число локаций в профиле */
+int QSPGetLocsProfileCount()
+{
+	return qspLocsProfileCount;
+}
+/* Получить данные профиля локации с указанным индексом, время - в микросекундах */
+QSP_BOOL QSPGetLocProfileData(int ind, QSP_CHAR **name, int *callsCount, long long *time, long long *statsCount)
+{
+	if (ind < 0 || ind >= qspLocsProfileCount || ind >= qspLocsCount) return QSP_FALSE;
+	*name = qspLocs[ind].Name;
+	*callsCount = qspLocsProfile[ind].CallsCount;
+	*time = qspLocsProfile[ind].Time;
+	*statsCount = qspLocsProfile[ind].StatsCount;
+	return QSP_TRUE;
+}
+/* Получить число вызовов и время выполнения локации-счетчика в микросекундах */
+void QSPGetCounterProfileData(int *callsCount, long long *time)
+{
+	*callsCount = qspCounterCallsCount;
+	*time = qspCounterTime;
+}
 /* Получение данных текущего состояния */
 void QSPGetCurStateData(QSP_CHAR **loc, int *actIndex, int *line)
 {
@@ -290,15 +319,27 @@ QSP_BOOL QSPGetVarValues(const QSP_CHAR *name, int ind, int *numVal, QSP_CHAR **
 /* Получить максимальное количество переменных */
 int QSPGetMaxVarsCount()
 {
-	return QSP_VARSCOUNT;
+	return qspVarsBufSize;
 }
 /* Получить имя переменной с указанным индексом */
 QSP_BOOL QSPGetVarNameByIndex(int index, QSP_CHAR **name)
 {
-	if (index < 0 || index >= QSP_VARSCOUNT || !qspVars[index].Name) return QSP_FALSE;
-	*name = qspVars[index].Name;
+	if (index < 0 || index >= qspVarsBufSize || !qspVars[index]) return QSP_FALSE;
+	*name = qspVars[index]->Name;
 	return QSP_TRUE;
 }
+/* Получить число попаданий и промахов кеша регулярных выражений */
+void QSPGetRegExpCacheStats(int *hits, int *misses)
+{
+	*hits = qspRegExpsCacheHits;
+	*misses = qspRegExpsCacheMisses;
+}
+/* Получить число попаданий и промахов кеша разобранного кода DYNAMIC и DYNEVAL */
+void QSPGetCodeCacheStats(int *hits, int *misses)
+{
+	*hits = qspCodeCacheHits;
+	*misses = qspCodeCacheMisses;
+}
 /* ------------------------------------------------------------ */
 /* Выполнение кода */
 
@@ -327,10 +368,18 @@ QSP_BOOL QSPExecLocationCode(const QSP_CHAR *name, QSP_BOOL isRefresh)
 /* Выполнение кода локации-счетчика */
 QSP_BOOL QSPExecCounter(QSP_BOOL isRefresh)
 {
+	QSP_BOOL isProfiling;
+	QSP_PROFTIME startTime;
 	if (!qspIsInCallBack)
 	{
 		qspPrepareExecution();
+		if (isProfiling = qspIsProfiling) startTime = qspProfileTime();
 		qspExecLocByVarNameWithArgs(QSP_FMT("COUNTER"), 0, 0);
+		if (isProfiling)
+		{
+			++qspCounterCallsCount;
+			qspCounterTime += qspProfileTime() - startTime;
+		}
 		if (qspErrorNum) return QSP_FALSE;
 		if (isRefresh) qspCallRefreshInt(QSP_FALSE);
 	}
@@ -435,6 +484,16 @@ QSP_BOOL QSPLoadGameWorldFromData(const char *data, int dataSize, const QSP_CHAR
 	if (qspErrorNum) return QSP_FALSE;
 	return QSP_TRUE;
 }
+/* Загрузка новой игры из памяти без копирования, за данными должны следовать 3 нулевых байта */
+QSP_BOOL QSPLoadGameWorldFromTerminatedData(const char *data, int dataSize, const QSP_CHAR *fileName)
+{
+	if (qspIsExitOnError && qspErrorNum) return QSP_FALSE;
+	qspResetError();
+	if (qspIsDisableCodeExec) return QSP_FALSE;
+	qspOpenQuestFromData((char *)data, dataSize + 3, (QSP_CHAR *)fileName, QSP_FALSE);
+	if (qspErrorNum) return QSP_FALSE;
+	return QSP_TRUE;
+}
 /* Сохранение состояния в файл */
 QSP_BOOL QSPSaveGame(const QSP_CHAR *fileName, QSP_BOOL isRefresh)
 {
@@ -449,7 +508,7 @@ QSP_BOOL QSPSaveGame(const QSP_CHAR *fileName, QSP_BOOL isRefresh)
 /* Сохранение состояния в память */
 QSP_BOOL QSPSaveGameAsData(void **buf, int *realSize, QSP_BOOL isRefresh)
 {
-	int len, size;
+	int len;
 	QSP_CHAR *data;
 	if (qspIsExitOnError && qspErrorNum) return QSP_FALSE;
 	qspPrepareExecution();
@@ -459,18 +518,35 @@ QSP_BOOL QSPSaveGameAsData(void **buf, int *realSize, QSP_BOOL isRefresh)
 		*realSize = 0;
 		return QSP_FALSE;
 	}
-	size = len * sizeof(QSP_CHAR);
-	*realSize = size;
-
-	*buf = malloc(size);
-	if (*buf == NULL)
+	*buf = data;
+	*realSize = len * sizeof(QSP_CHAR);
+	if (isRefresh) qspCallRefreshInt(QSP_FALSE);
+	return QSP_TRUE;
+}
+/* Сохранение состояния в память без вызова локации ONGSAVE и без обновления интерфейса */
+QSP_BOOL QSPSaveGameSnapshot(void **buf, int *realSize)
+{
+	int len;
+	QSP_CHAR *data = 0;
+	if (qspIsExitOnError && qspErrorNum) return QSP_FALSE;
+	if (qspIsDisableCodeExec) return QSP_FALSE;
+	if (!(len = qspSaveGameSnapshotToString(&data)))
 	{
-		free(data);
+		if (data) free(data);
+		*realSize = 0;
 		return QSP_FALSE;
 	}
-
-	memcpy(*buf, data, size);
-	free(data);
+	*buf = data;
+	*realSize = len * sizeof(QSP_CHAR);
+	return QSP_TRUE;
+}
+/* Сохранение состояния с передачей данных частями в функцию записи */
+QSP_BOOL QSPSaveGameToWriter(QSP_SAVE_WRITER writeFunc, void *context, QSP_BOOL isRefresh)
+{
+	if (qspIsExitOnError && qspErrorNum) return QSP_FALSE;
+	qspPrepareExecution();
+	if (qspIsDisableCodeExec) return QSP_FALSE;
+	if (!qspSaveGameStatusWithWriter(writeFunc, context)) return QSP_FALSE;
 	if (isRefresh) qspCallRefreshInt(QSP_FALSE);
 	return QSP_TRUE;
 }
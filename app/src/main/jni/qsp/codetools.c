@@ -19,8 +19,57 @@
 #include "statements.h"
 #include "text.h"
 
+/* Кеш разобранного кода для DYNAMIC, DYNEVAL и выполнения строк, вытеснение - по давности использования */
+static QSPCachedCode qspCachedCodes[QSP_MAXCACHEDCODES];
+static unsigned int qspCachedCodesUseCounter = 0;
+int qspCodeCacheHits = 0;
+int qspCodeCacheMisses = 0;
+
 static int qspProcessPreformattedStrings(QSP_CHAR *, QSPLineOfCode **);
 static int qspProcessEOLExtensions(QSPLineOfCode *, int, QSPLineOfCode **);
+static unsigned int qspCodeHash(QSP_CHAR *);
+
+QSPCompiledStat *qspNewCompiledStat()
+{
+	QSPCompiledStat *compiled = (QSPCompiledStat *)malloc(sizeof(QSPCompiledStat));
+	compiled->RefCount = 1;
+	compiled->IsCompiled = QSP_FALSE;
+	compiled->Args = 0;
+	compiled->ArgsCount = 0;
+	compiled->VarName = 0;
+	compiled->VarOp = 0;
+	return compiled;
+}
+
+void qspCopyCachedStat(QSPCachedStat *dest, QSPCachedStat *src, int offset)
+{
+	dest->Stat = src->Stat;
+	dest->EndPos = src->EndPos - offset;
+	dest->ParamPos = src->ParamPos - offset;
+	if (dest->Compiled = src->Compiled) ++dest->Compiled->RefCount;
+}
+
+void qspFreeCachedStats(QSPCachedStat *stats, int count)
+{
+	int i;
+	QSPCompiledStat *compiled;
+	if (stats)
+	{
+		while (--count >= 0)
+		{
+			compiled = stats[count].Compiled;
+			if (compiled && !(--compiled->RefCount))
+			{
+				for (i = 0; i < compiled->ArgsCount; ++i)
+					qspFreeMathExpression(compiled->Args + i);
+				if (compiled->Args) free(compiled->Args);
+				if (compiled->VarName) free(compiled->VarName);
+				free(compiled);
+			}
+		}
+		free(stats);
+	}
+}
 
 void qspFreePrepLines(QSPLineOfCode *strs, int count)
 {
@@ -30,7 +79,7 @@ void qspFreePrepLines(QSPLineOfCode *strs, int count)
 		{
 			free(strs[count].Str);
 			if (strs[count].Label) free(strs[count].Label);
-			if (strs[count].Stats) free(strs[count].Stats);
+			qspFreeCachedStats(strs[count].Stats, strs[count].StatsCount);
 		}
 		free(strs);
 	}
@@ -53,15 +102,14 @@ void qspCopyPrepLines(QSPLineOfCode **dest, QSPLineOfCode *src, int start, int e
 			{
 				line->Stats = (QSPCachedStat *)malloc(count * sizeof(QSPCachedStat));
 				for (i = 0; i < count; ++i)
-				{
-					line->Stats[i].Stat = src[start].Stats[i].Stat;
-					line->Stats[i].EndPos = src[start].Stats[i].EndPos;
-					line->Stats[i].ParamPos = src[start].Stats[i].ParamPos;
-				}
+					qspCopyCachedStat(line->Stats + i, src[start].Stats + i, 0);
 			}
 			else
 				line->Stats = 0;
 			line->IsMultiline = src[start].IsMultiline;
+			line->EndOffset = src[start].EndOffset;
+			line->ElseOffset = src[start].ElseOffset;
+			line->LabelOffset = src[start].LabelOffset;
 			if (src[start].Label)
 				line->Label = qspGetNewText(src[start].Label, -1);
 			else
@@ -217,5 +265,128 @@ int qspPreprocessData(QSP_CHAR *data, QSPLineOfCode **strs)
 	int res, count = qspProcessPreformattedStrings(data, &s);
 	res = qspProcessEOLExtensions(s, count, strs);
 	qspFreePrepLines(s, count);
+	qspLinkPrepLines(*strs, res);
 	return res;
 }
+
+/* Вычисляет для каждой строки смещения до парных ELSE и END и до следующей метки */
+void qspLinkPrepLines(QSPLineOfCode *s, int count)
+{
+	int i, key, endLine, elseLine, labelLine = -1, *depths, *ends, *elses;
+	if (!count) return;
+	/* Глубина вложенности многострочных блоков перед каждой строкой */
+	depths = (int *)malloc((count + 1) * sizeof(int));
+	depths[0] = 0;
+	for (i = 0; i < count; ++i)
+	{
+		depths[i + 1] = depths[i];
+		switch (s[i].Stats->Stat)
+		{
+		case qspStatAct:
+		case qspStatIf:
+			if (s[i].IsMultiline) ++depths[i + 1];
+			break;
+		case qspStatEnd:
+			--depths[i + 1];
+			break;
+		}
+	}
+	/* Ближайшие END и ELSE ниже текущей строки для каждой глубины */
+	ends = (int *)malloc((count * 2 + 1) * sizeof(int));
+	elses = (int *)malloc((count * 2 + 1) * sizeof(int));
+	for (i = count * 2; i >= 0; --i)
+		ends[i] = elses[i] = -1;
+	for (i = count - 1; i >= 0; --i)
+	{
+		key = depths[i + 1] + count;
+		endLine = ends[key];
+		elseLine = elses[key];
+		s[i].EndOffset = (endLine >= 0 ? endLine - i : 0);
+		s[i].ElseOffset = (elseLine >= 0 && (endLine < 0 || elseLine < endLine) ? elseLine - i : 0);
+		s[i].LabelOffset = (labelLine >= 0 ? labelLine - i : 0);
+		key = depths[i] + count;
+		switch (s[i].Stats->Stat)
+		{
+		case qspStatEnd:
+			ends[key] = i;
+			break;
+		case qspStatElse:
+		case qspStatElseIf:
+			elses[key] = i;
+			break;
+		}
+		if (s[i].Label) labelLine = i;
+	}
+	free(depths);
+	free(ends);
+	free(elses);
+}
+
+static unsigned int qspCodeHash(QSP_CHAR *s)
+{
+	unsigned int hash = 0;
+	while (*s)
+		hash = hash * 31 + (unsigned int)*s++;
+	return hash;
+}
+
+void qspClearCachedCodes(QSP_BOOL isFirst)
+{
+	int i;
+	QSPCachedCode *code = qspCachedCodes;
+	for (i = 0; i < QSP_MAXCACHEDCODES; ++i)
+	{
+		if (!isFirst && code->Text)
+		{
+			free(code->Text);
+			qspFreePrepLines(code->Lines, code->LinesCount);
+		}
+		code->Text = 0;
+		code->Lines = 0;
+		code->LinesCount = 0;
+		code->LastUsed = 0;
+		++code;
+	}
+	qspCachedCodesUseCounter = 0;
+	qspCodeCacheHits = qspCodeCacheMisses = 0;
+}
+
+/* Возвращает копию разобранного кода, освобождать её нужно через qspFreePrepLines */
+int qspGetPreparedCode(QSP_CHAR *data, QSPLineOfCode **strs)
+{
+	int i;
+	unsigned int hash;
+	QSPCachedCode *cached, *oldest = qspCachedCodes;
+	hash = qspCodeHash(data);
+	++qspCachedCodesUseCounter;
+	for (i = 0; i < QSP_MAXCACHEDCODES; ++i)
+	{
+		cached = qspCachedCodes + i;
+		if (!cached->Text)
+		{
+			oldest = cached;
+			break;
+		}
+		if (cached->Hash == hash && !qspStrsComp(cached->Text, data))
+		{
+			cached->LastUsed = qspCachedCodesUseCounter;
+			++qspCodeCacheHits;
+			/* Копия нужна, т. к. во время выполнения запись может быть вытеснена */
+			qspCopyPrepLines(strs, cached->Lines, 0, cached->LinesCount);
+			return cached->LinesCount;
+		}
+		if (cached->LastUsed < oldest->LastUsed) oldest = cached;
+	}
+	++qspCodeCacheMisses;
+	if (oldest->Text)
+	{
+		free(oldest->Text);
+		qspFreePrepLines(oldest->Lines, oldest->LinesCount);
+	}
+	oldest->Text = qspGetNewText(data, -1);
+	oldest->Hash = hash;
+	oldest->LastUsed = qspCachedCodesUseCounter;
+	oldest->LinesCount = qspPreprocessData(data, &oldest->Lines);
+	qspCopyPrepLines(strs, oldest->Lines, 0, oldest->LinesCount);
+	return oldest->LinesCount;
+}
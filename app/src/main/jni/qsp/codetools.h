@@ -16,17 +16,31 @@
 */
 
 #include "declarations.h"
+#include "mathops.h"
 
 #ifndef QSP_CODETOOLSDEFINES
 	#define QSP_CODETOOLSDEFINES
 
 	#define QSP_EOLEXT QSP_FMT(" _")
+	#define QSP_MAXCACHEDCODES 64
+
+	/* Разобранные аргументы оператора, общие для всех копий строки кода */
+	typedef struct
+	{
+		int RefCount;
+		QSP_BOOL IsCompiled;
+		QSPMathExpression *Args;
+		int ArgsCount;
+		QSP_CHAR *VarName;
+		QSP_CHAR VarOp;
+	} QSPCompiledStat;
 
 	typedef struct
 	{
 		int Stat;
 		int EndPos;
 		int ParamPos;
+		QSPCompiledStat *Compiled;
 	} QSPCachedStat;
 
 	typedef struct
@@ -34,15 +48,36 @@
 		QSP_CHAR *Str;
 		int LineNum;
 		QSP_BOOL IsMultiline;
+		int EndOffset;
+		int ElseOffset;
+		int LabelOffset;
 		QSP_CHAR *Label;
 		QSPCachedStat *Stats;
 		int StatsCount;
 	} QSPLineOfCode;
 
+	typedef struct
+	{
+		QSP_CHAR *Text;
+		unsigned int Hash;
+		unsigned int LastUsed;
+		QSPLineOfCode *Lines;
+		int LinesCount;
+	} QSPCachedCode;
+
+	extern int qspCodeCacheHits;
+	extern int qspCodeCacheMisses;
+
 	/* External functions */
+	QSPCompiledStat *qspNewCompiledStat();
+	void qspCopyCachedStat(QSPCachedStat *, QSPCachedStat *, int);
+	void qspFreeCachedStats(QSPCachedStat *, int);
 	void qspFreePrepLines(QSPLineOfCode *, int);
 	void qspCopyPrepLines(QSPLineOfCode **, QSPLineOfCode *, int, int);
 	QSP_CHAR *qspJoinPrepLines(QSPLineOfCode *, int, QSP_CHAR *);
 	int qspPreprocessData(QSP_CHAR *, QSPLineOfCode **);
+	void qspLinkPrepLines(QSPLineOfCode *, int);
+	void qspClearCachedCodes(QSP_BOOL);
+	int qspGetPreparedCode(QSP_CHAR *, QSPLineOfCode **);
 
 #endif
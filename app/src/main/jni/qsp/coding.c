@@ -197,6 +197,7 @@ static char qspReverseConvertSB(char, unsigned char *);
 static wchar_t qspDirectConvertUC(char, wchar_t *);
 static char qspReverseConvertUC(wchar_t, wchar_t *);
 static char *qspQSPToGameString(QSP_CHAR *, QSP_BOOL, QSP_BOOL);
+static QSP_CHAR *qspWriterReserve(QSPWriter *, int);
 
 static int qspUCS2StrLen(char *str)
 {
@@ -448,34 +449,71 @@ int qspReCodeGetIntVal(QSP_CHAR *val)
 	return num;
 }
 
-int qspCodeWriteIntVal(QSP_CHAR **s, int len, int val, QSP_BOOL isCode)
+void qspInitWriter(QSPWriter *writer, QSP_WRITER_FLUSH flush, void *context)
 {
-	QSP_CHAR buf[12], *temp;
-	qspNumToStr(buf, val);
-	if (isCode)
+	writer->BufSize = QSP_WRITERCHUNKSIZE;
+	writer->Buf = (QSP_CHAR *)malloc(writer->BufSize * sizeof(QSP_CHAR));
+	writer->Len = 0;
+	writer->Flush = flush;
+	writer->Context = context;
+	writer->IsFailed = QSP_FALSE;
+}
+
+/* Сбрасывает накопленные данные, после ошибки дальнейшие данные отбрасываются */
+QSP_BOOL qspFlushWriter(QSPWriter *writer)
+{
+	if (writer->Flush && writer->Len)
 	{
-		temp = qspCodeReCode(buf, QSP_TRUE);
-		len = qspAddText(s, temp, len, -1, QSP_FALSE);
-		free(temp);
+		if (!writer->IsFailed && !writer->Flush(writer->Context, writer->Buf, writer->Len))
+			writer->IsFailed = QSP_TRUE;
+		writer->Len = 0;
 	}
-	else
-		len = qspAddText(s, buf, len, -1, QSP_FALSE);
-	return qspAddText(s, QSP_STRSDELIM, len, QSP_LEN(QSP_STRSDELIM), QSP_FALSE);
+	return !writer->IsFailed;
 }
 
-int qspCodeWriteVal(QSP_CHAR **s, int len, QSP_CHAR *val, QSP_BOOL isCode)
+/* Возвращает место в буфере для len символов */
+static QSP_CHAR *qspWriterReserve(QSPWriter *writer, int len)
 {
-	QSP_CHAR *temp;
-	if (val)
+	QSP_CHAR *pos;
+	if (writer->Len + len > writer->BufSize)
 	{
-		if (isCode)
+		if (writer->Flush) qspFlushWriter(writer);
+		if (writer->Len + len > writer->BufSize)
 		{
-			temp = qspCodeReCode(val, QSP_TRUE);
-			len = qspAddText(s, temp, len, -1, QSP_FALSE);
-			free(temp);
+			while (writer->Len + len > writer->BufSize) writer->BufSize <<= 1;
+			writer->Buf = (QSP_CHAR *)realloc(writer->Buf, writer->BufSize * sizeof(QSP_CHAR));
 		}
-		else
-			len = qspAddText(s, val, len, -1, QSP_FALSE);
 	}
-	return qspAddText(s, QSP_STRSDELIM, len, QSP_LEN(QSP_STRSDELIM), QSP_FALSE);
+	pos = writer->Buf + writer->Len;
+	writer->Len += len;
+	return pos;
+}
+
+void qspCodeWriteIntVal(QSPWriter *writer, int val, QSP_BOOL isCode)
+{
+	QSP_CHAR buf[12];
+	qspNumToStr(buf, val);
+	qspCodeWriteVal(writer, buf, isCode);
+}
+
+/* Записывает значение и разделитель, кодируя значение без промежуточных копий */
+void qspCodeWriteVal(QSPWriter *writer, QSP_CHAR *val, QSP_BOOL isCode)
+{
+	QSP_CHAR ch, *pos;
+	int len = (val ? qspStrLen(val) : 0);
+	pos = qspWriterReserve(writer, len + QSP_LEN(QSP_STRSDELIM));
+	if (isCode)
+	{
+		while (--len >= 0)
+		{
+			ch = *val++;
+			*pos++ = (ch == QSP_CODREMOV ? (QSP_CHAR)-QSP_CODREMOV : ch - QSP_CODREMOV);
+		}
+	}
+	else if (len)
+	{
+		qspStrNCopy(pos, val, len);
+		pos += len;
+	}
+	qspStrNCopy(pos, QSP_STRSDELIM, QSP_LEN(QSP_STRSDELIM));
 }
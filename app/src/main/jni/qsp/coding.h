@@ -21,6 +21,21 @@
 	#define QSP_CODINGDEFINES
 
 	#define QSP_CODREMOV 5
+	#define QSP_WRITERCHUNKSIZE 8192
+
+	/* Получает очередную часть записанных данных, при ошибке возвращает QSP_FALSE */
+	typedef QSP_BOOL (*QSP_WRITER_FLUSH)(void *, QSP_CHAR *, int);
+
+	/* Буфер записи: без функции сброса растет удвоением, иначе сбрасывается частями */
+	typedef struct
+	{
+		QSP_CHAR *Buf;
+		int Len;
+		int BufSize;
+		QSP_WRITER_FLUSH Flush;
+		void *Context;
+		QSP_BOOL IsFailed;
+	} QSPWriter;
 
 	extern unsigned char qspCP1251ToUpperTable[];
 	extern unsigned char qspCP1251ToLowerTable[];
@@ -36,7 +51,9 @@
 	QSP_CHAR *qspGameToQSPString(char *, QSP_BOOL, QSP_BOOL);
 	int qspSplitGameStr(char *, QSP_BOOL, QSP_CHAR *, char ***);
 	int qspReCodeGetIntVal(QSP_CHAR *);
-	int qspCodeWriteIntVal(QSP_CHAR **, int, int, QSP_BOOL);
-	int qspCodeWriteVal(QSP_CHAR **, int, QSP_CHAR *, QSP_BOOL);
+	void qspInitWriter(QSPWriter *, QSP_WRITER_FLUSH, void *);
+	QSP_BOOL qspFlushWriter(QSPWriter *);
+	void qspCodeWriteIntVal(QSPWriter *, int, QSP_BOOL);
+	void qspCodeWriteVal(QSPWriter *, QSP_CHAR *, QSP_BOOL);
 
 #endif
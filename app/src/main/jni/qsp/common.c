@@ -17,11 +17,13 @@
 
 #include "common.h"
 #include "actions.h"
+#include "codetools.h"
 #include "errors.h"
 #include "game.h"
 #include "menu.h"
 #include "objects.h"
 #include "playlist.h"
+#include "regexp.h"
 #include "variables.h"
 
 static unsigned int qspRandX[55], qspRandY[256], qspRandZ;
@@ -56,6 +58,8 @@ void qspMemClear(QSP_BOOL isFirst)
 	qspClearActions(isFirst);
 	qspClearMenu(isFirst);
 	qspClearPlayList(isFirst);
+	qspClearRegExps(isFirst);
+	qspClearCachedCodes(isFirst);
 	if (!isFirst)
 	{
 		if (qspCurDesc)
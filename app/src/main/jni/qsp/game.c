@@ -79,6 +79,8 @@ static int qspCRC(void *, int);
 static void qspOpenIncludes();
 static FILE *qspFileOpen(QSP_CHAR *, QSP_CHAR *);
 static QSP_BOOL qspCheckQuest(char **, int, QSP_BOOL);
+static void qspWriteGameStatus(QSPWriter *);
+static QSP_BOOL qspWriteToFile(void *, QSP_CHAR *, int);
 static QSP_BOOL qspCheckGameStatus(QSP_CHAR **, int);
 
 static int qspCRC(void *data, int len)
@@ -321,100 +323,133 @@ void qspOpenQuest(QSP_CHAR *fileName, QSP_BOOL isAddLocs)
 	free(buf);
 }
 
-int qspSaveGameStatusToString(QSP_CHAR **buf)
+static void qspWriteGameStatus(QSPWriter *writer)
 {
-	int i, j, len, oldRefreshCount = qspRefreshCount;
-	qspExecLocByVarNameWithArgs(QSP_FMT("ONGSAVE"), 0, 0);
-	if (qspRefreshCount != oldRefreshCount || qspErrorNum) return 0;
-	*buf = 0;
+	int i, j, varsCount;
+	QSPVarRef *varsRefs;
+	QSPVar *var;
 	qspRefreshPlayList();
-	len = qspCodeWriteVal(buf, 0, QSP_SAVEDGAMEID, QSP_FALSE);
-	len = qspCodeWriteVal(buf, len, QSP_VER, QSP_FALSE);
-	len = qspCodeWriteIntVal(buf, len, qspQstCRC, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, qspGetTime(), QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, qspCurSelAction, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, qspCurSelObject, QSP_TRUE);
-	len = qspCodeWriteVal(buf, len, qspViewPath, QSP_TRUE);
-	len = qspCodeWriteVal(buf, len, qspCurInput, QSP_TRUE);
-	len = qspCodeWriteVal(buf, len, qspCurDesc, QSP_TRUE);
-	len = qspCodeWriteVal(buf, len, qspCurVars, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, qspCurLoc, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, (int)qspCurIsShowActs, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, (int)qspCurIsShowObjs, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, (int)qspCurIsShowVars, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, (int)qspCurIsShowInput, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, qspTimerInterval, QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, qspPLFilesCount, QSP_TRUE);
+	qspCodeWriteVal(writer, QSP_SAVEDGAMEID, QSP_FALSE);
+	qspCodeWriteVal(writer, QSP_VER, QSP_FALSE);
+	qspCodeWriteIntVal(writer, qspQstCRC, QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspGetTime(), QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspCurSelAction, QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspCurSelObject, QSP_TRUE);
+	qspCodeWriteVal(writer, qspViewPath, QSP_TRUE);
+	qspCodeWriteVal(writer, qspCurInput, QSP_TRUE);
+	qspCodeWriteVal(writer, qspCurDesc, QSP_TRUE);
+	qspCodeWriteVal(writer, qspCurVars, QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspCurLoc, QSP_TRUE);
+	qspCodeWriteIntVal(writer, (int)qspCurIsShowActs, QSP_TRUE);
+	qspCodeWriteIntVal(writer, (int)qspCurIsShowObjs, QSP_TRUE);
+	qspCodeWriteIntVal(writer, (int)qspCurIsShowVars, QSP_TRUE);
+	qspCodeWriteIntVal(writer, (int)qspCurIsShowInput, QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspTimerInterval, QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspPLFilesCount, QSP_TRUE);
 	for (i = 0; i < qspPLFilesCount; ++i)
-		len = qspCodeWriteVal(buf, len, qspPLFiles[i], QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, qspCurIncFilesCount, QSP_TRUE);
+		qspCodeWriteVal(writer, qspPLFiles[i], QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspCurIncFilesCount, QSP_TRUE);
 	for (i = 0; i < qspCurIncFilesCount; ++i)
-		len = qspCodeWriteVal(buf, len, qspCurIncFiles[i], QSP_TRUE);
-	len = qspCodeWriteIntVal(buf, len, qspCurActionsCount, QSP_TRUE);
+		qspCodeWriteVal(writer, qspCurIncFiles[i], QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspCurActionsCount, QSP_TRUE);
 	for (i = 0; i < qspCurActionsCount; ++i)
 	{
 		if (qspCurActions[i].Image)
-			len = qspCodeWriteVal(buf, len, qspCurActions[i].Image + qspQstPathLen, QSP_TRUE);
+			qspCodeWriteVal(writer, qspCurActions[i].Image + qspQstPathLen, QSP_TRUE);
 		else
-			len = qspCodeWriteVal(buf, len, 0, QSP_FALSE);
-		len = qspCodeWriteVal(buf, len, qspCurActions[i].Desc, QSP_TRUE);
-		len = qspCodeWriteIntVal(buf, len, qspCurActions[i].OnPressLinesCount, QSP_TRUE);
+			qspCodeWriteVal(writer, 0, QSP_FALSE);
+		qspCodeWriteVal(writer, qspCurActions[i].Desc, QSP_TRUE);
+		qspCodeWriteIntVal(writer, qspCurActions[i].OnPressLinesCount, QSP_TRUE);
 		for (j = 0; j < qspCurActions[i].OnPressLinesCount; ++j)
 		{
-			len = qspCodeWriteVal(buf, len, qspCurActions[i].OnPressLines[j].Str, QSP_TRUE);
-			len = qspCodeWriteIntVal(buf, len, qspCurActions[i].OnPressLines[j].LineNum, QSP_TRUE);
+			qspCodeWriteVal(writer, qspCurActions[i].OnPressLines[j].Str, QSP_TRUE);
+			qspCodeWriteIntVal(writer, qspCurActions[i].OnPressLines[j].LineNum, QSP_TRUE);
 		}
-		len = qspCodeWriteIntVal(buf, len, qspCurActions[i].Location, QSP_TRUE);
-		len = qspCodeWriteIntVal(buf, len, qspCurActions[i].ActIndex, QSP_TRUE);
-		len = qspCodeWriteIntVal(buf, len, qspCurActions[i].StartLine, QSP_TRUE);
-		len = qspCodeWriteIntVal(buf, len, (int)qspCurActions[i].IsManageLines, QSP_TRUE);
+		qspCodeWriteIntVal(writer, qspCurActions[i].Location, QSP_TRUE);
+		qspCodeWriteIntVal(writer, qspCurActions[i].ActIndex, QSP_TRUE);
+		qspCodeWriteIntVal(writer, qspCurActions[i].StartLine, QSP_TRUE);
+		qspCodeWriteIntVal(writer, (int)qspCurActions[i].IsManageLines, QSP_TRUE);
 	}
-	len = qspCodeWriteIntVal(buf, len, qspCurObjectsCount, QSP_TRUE);
+	qspCodeWriteIntVal(writer, qspCurObjectsCount, QSP_TRUE);
 	for (i = 0; i < qspCurObjectsCount; ++i)
 	{
 		if (qspCurObjects[i].Image)
-			len = qspCodeWriteVal(buf, len, qspCurObjects[i].Image + qspQstPathLen, QSP_TRUE);
+			qspCodeWriteVal(writer, qspCurObjects[i].Image + qspQstPathLen, QSP_TRUE);
 		else
-			len = qspCodeWriteVal(buf, len, 0, QSP_FALSE);
-		len = qspCodeWriteVal(buf, len, qspCurObjects[i].Desc, QSP_TRUE);
+			qspCodeWriteVal(writer, 0, QSP_FALSE);
+		qspCodeWriteVal(writer, qspCurObjects[i].Desc, QSP_TRUE);
 	}
-	len = qspCodeWriteIntVal(buf, len, qspGetVarsCount(), QSP_TRUE);
-	for (i = 0; i < QSP_VARSCOUNT; ++i)
-		if (qspVars[i].Name)
+	varsCount = qspGetVarsSaveOrder(&varsRefs);
+	qspCodeWriteIntVal(writer, varsCount, QSP_TRUE);
+	for (i = 0; i < varsCount; ++i)
+	{
+		var = varsRefs[i].Var;
+		qspCodeWriteIntVal(writer, varsRefs[i].Index, QSP_TRUE);
+		qspCodeWriteVal(writer, var->Name, QSP_TRUE);
+		qspCodeWriteIntVal(writer, var->ValsCount, QSP_TRUE);
+		for (j = 0; j < var->ValsCount; ++j)
 		{
-			len = qspCodeWriteIntVal(buf, len, i, QSP_TRUE);
-			len = qspCodeWriteVal(buf, len, qspVars[i].Name, QSP_TRUE);
-			len = qspCodeWriteIntVal(buf, len, qspVars[i].ValsCount, QSP_TRUE);
-			for (j = 0; j < qspVars[i].ValsCount; ++j)
-			{
-				len = qspCodeWriteIntVal(buf, len, qspVars[i].Values[j].Num, QSP_TRUE);
-				len = qspCodeWriteVal(buf, len, qspVars[i].Values[j].Str, QSP_TRUE);
-			}
-			len = qspCodeWriteIntVal(buf, len, qspVars[i].IndsCount, QSP_TRUE);
-			for (j = 0; j < qspVars[i].IndsCount; ++j)
-			{
-				len = qspCodeWriteIntVal(buf, len, qspVars[i].Indices[j].Index, QSP_TRUE);
-				len = qspCodeWriteVal(buf, len, qspVars[i].Indices[j].Str, QSP_TRUE);
-			}
+			qspCodeWriteIntVal(writer, var->Values[j].Num, QSP_TRUE);
+			qspCodeWriteVal(writer, var->Values[j].Str, QSP_TRUE);
 		}
-	return len;
+		qspSortVarIndices(var);
+		qspCodeWriteIntVal(writer, var->IndsCount, QSP_TRUE);
+		for (j = 0; j < var->IndsCount; ++j)
+		{
+			qspCodeWriteIntVal(writer, var->Indices[j].Index, QSP_TRUE);
+			qspCodeWriteVal(writer, var->Indices[j].Str, QSP_TRUE);
+		}
+	}
+	if (varsRefs) free(varsRefs);
+}
+
+/* Состояние записывается частями через функцию flush, целиком в памяти оно не собирается */
+QSP_BOOL qspSaveGameStatusWithWriter(QSP_WRITER_FLUSH flush, void *context)
+{
+	QSP_BOOL isOk;
+	QSPWriter writer;
+	int oldRefreshCount = qspRefreshCount;
+	qspExecLocByVarNameWithArgs(QSP_FMT("ONGSAVE"), 0, 0);
+	if (qspRefreshCount != oldRefreshCount || qspErrorNum) return QSP_FALSE;
+	qspInitWriter(&writer, flush, context);
+	qspWriteGameStatus(&writer);
+	isOk = qspFlushWriter(&writer);
+	free(writer.Buf);
+	return isOk;
+}
+
+int qspSaveGameStatusToString(QSP_CHAR **buf)
+{
+	int oldRefreshCount = qspRefreshCount;
+	qspExecLocByVarNameWithArgs(QSP_FMT("ONGSAVE"), 0, 0);
+	if (qspRefreshCount != oldRefreshCount || qspErrorNum) return 0;
+	return qspSaveGameSnapshotToString(buf);
+}
+
+/* Снимок состояния без вызова локации ONGSAVE: код игры не выполняется */
+int qspSaveGameSnapshotToString(QSP_CHAR **buf)
+{
+	QSPWriter writer;
+	qspInitWriter(&writer, 0, 0);
+	qspWriteGameStatus(&writer);
+	*buf = writer.Buf;
+	return writer.Len;
+}
+
+static QSP_BOOL qspWriteToFile(void *file, QSP_CHAR *data, int len)
+{
+	return (fwrite(data, sizeof(QSP_CHAR), len, (FILE *)file) == (size_t)len);
 }
 
 void qspSaveGameStatus(QSP_CHAR *fileName)
 {
 	FILE *f;
-	int len;
-	QSP_CHAR *buf;
 	if (!(f = QSP_FOPEN(fileName, QSP_FMT("wb"))))
 	{
 		qspSetError(QSP_ERR_FILENOTFOUND);
 		return;
 	}
-	if (len = qspSaveGameStatusToString(&buf))
-	{
-		fwrite(buf, sizeof(QSP_CHAR), len, f);
-		free(buf);
-	}
+	qspSaveGameStatusWithWriter(qspWriteToFile, f);
 	fclose(f);
 }
 
@@ -469,7 +504,7 @@ static QSP_BOOL qspCheckGameStatus(QSP_CHAR **strs, int strsCount)
 	{
 		if (ind + 1 > strsCount) return QSP_FALSE;
 		temp = qspReCodeGetIntVal(strs[ind++]);
-		if (temp <= lastInd || temp >= QSP_VARSCOUNT) return QSP_FALSE;
+		if (temp <= lastInd) return QSP_FALSE;
 		lastInd = temp;
 		if (++ind > strsCount) return QSP_FALSE;
 		if (ind + 1 > strsCount) return QSP_FALSE;
@@ -484,7 +519,8 @@ static QSP_BOOL qspCheckGameStatus(QSP_CHAR **strs, int strsCount)
 
 void qspOpenGameStatusFromString(QSP_CHAR *str)
 {
-	int i, j, ind, count, varInd, varsCount, valsCount;
+	int i, j, ind, count, varsCount, valsCount;
+	QSPVar *var;
 	QSP_CHAR **strs, *file;
 	count = qspSplitStr(str, QSP_STRSDELIM, &strs);
 	if (!qspCheckGameStatus(strs, count))
@@ -538,6 +574,7 @@ void qspOpenGameStatusFromString(QSP_CHAR *str)
 				qspInitLineOfCode(qspCurActions[i].OnPressLines + j, qspCodeReCode(strs[ind++], QSP_FALSE), 0);
 				qspCurActions[i].OnPressLines[j].LineNum = qspReCodeGetIntVal(strs[ind++]);
 			}
+			qspLinkPrepLines(qspCurActions[i].OnPressLines, valsCount);
 		}
 		else
 			qspCurActions[i].OnPressLines = 0;
@@ -563,29 +600,37 @@ void qspOpenGameStatusFromString(QSP_CHAR *str)
 	varsCount = qspReCodeGetIntVal(strs[ind++]);
 	for (i = 0; i < varsCount; ++i)
 	{
-		varInd = qspReCodeGetIntVal(strs[ind++]);
-		qspVars[varInd].Name = qspCodeReCode(strs[ind++], QSP_FALSE);
+		++ind; /* Индекс в таблице не используется, переменная ищется по имени */
+		str = qspCodeReCode(strs[ind++], QSP_FALSE);
+		var = qspVarReference(str, QSP_TRUE);
+		free(str);
+		if (!var)
+		{
+			qspFreeStrs(strs, count);
+			return;
+		}
+		qspEmptyVar(var);
 		valsCount = qspReCodeGetIntVal(strs[ind++]);
 		if (valsCount)
 		{
-			qspVars[varInd].ValsCount = valsCount;
-			qspVars[varInd].Values = (QSPVarValue *)malloc(valsCount * sizeof(QSPVarValue));
+			var->ValsCount = valsCount;
+			var->Values = (QSPVarValue *)malloc(valsCount * sizeof(QSPVarValue));
 			for (j = 0; j < valsCount; ++j)
 			{
-				qspVars[varInd].Values[j].Num = qspReCodeGetIntVal(strs[ind++]);
-				qspVars[varInd].Values[j].Str = (*strs[ind] ? qspCodeReCode(strs[ind], QSP_FALSE) : 0);
+				var->Values[j].Num = qspReCodeGetIntVal(strs[ind++]);
+				var->Values[j].Str = (*strs[ind] ? qspCodeReCode(strs[ind], QSP_FALSE) : 0);
 				++ind;
 			}
 		}
 		valsCount = qspReCodeGetIntVal(strs[ind++]);
 		if (valsCount)
 		{
-			qspVars[varInd].IndsBufSize = qspVars[varInd].IndsCount = valsCount;
-			qspVars[varInd].Indices = (QSPVarIndex *)malloc(valsCount * sizeof(QSPVarIndex));
+			var->IndsBufSize = var->IndsCount = valsCount;
+			var->Indices = (QSPVarIndex *)malloc(valsCount * sizeof(QSPVarIndex));
 			for (j = 0; j < valsCount; ++j)
 			{
-				qspVars[varInd].Indices[j].Index = qspReCodeGetIntVal(strs[ind++]);
-				qspVars[varInd].Indices[j].Str = qspCodeReCode(strs[ind++], QSP_FALSE);
+				var->Indices[j].Index = qspReCodeGetIntVal(strs[ind++]);
+				var->Indices[j].Str = qspCodeReCode(strs[ind++], QSP_FALSE);
 			}
 		}
 	}
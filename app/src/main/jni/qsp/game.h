@@ -16,6 +16,7 @@
 */
 
 #include "declarations.h"
+#include "coding.h"
 #include "variant.h"
 
 #ifndef QSP_GAMEDEFINES
@@ -39,7 +40,9 @@
 	void qspNewGame(QSP_BOOL);
 	void qspOpenQuestFromData(char *, int, QSP_CHAR *, QSP_BOOL);
 	void qspOpenQuest(QSP_CHAR *, QSP_BOOL);
+	QSP_BOOL qspSaveGameStatusWithWriter(QSP_WRITER_FLUSH, void *);
 	int qspSaveGameStatusToString(QSP_CHAR **);
+	int qspSaveGameSnapshotToString(QSP_CHAR **);
 	void qspSaveGameStatus(QSP_CHAR *);
 	void qspOpenGameStatusFromString(QSP_CHAR *);
 	void qspOpenGameStatus(QSP_CHAR *);
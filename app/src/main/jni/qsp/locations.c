@@ -19,6 +19,7 @@
 #include "common.h"
 #include "errors.h"
 #include "game.h"
+#include "profiler.h"
 #include "statements.h"
 #include "text.h"
 #include "variables.h"
@@ -30,22 +31,42 @@ int qspCurLoc = -1;
 int qspRefreshCount = 0;
 int qspFullRefreshCount = 0;
 
-static int qspLocsCompare(const void *, const void *);
-static int qspLocStringCompare(const void *, const void *);
+/* Хеш-таблица имен локаций с открытой адресацией, хранит индекс в qspLocsNames + 1 */
+static int *qspLocsHash = 0;
+static int qspLocsHashBufSize = 0;
 
-static int qspLocsCompare(const void *locName1, const void *locName2)
+static unsigned int qspLocNameHash(QSP_CHAR *, QSP_CHAR *);
+static QSP_BOOL qspIsLocNameEqual(QSP_CHAR *, QSP_CHAR *, QSP_CHAR *);
+static void qspExecLocCode(int, QSP_BOOL);
+
+static unsigned int qspLocNameHash(QSP_CHAR *begin, QSP_CHAR *end)
 {
-	return qspStrsComp(((QSPLocName *)locName1)->Name, ((QSPLocName *)locName2)->Name);
+	unsigned int hash = 2166136261U;
+	while (begin < end)
+	{
+		hash ^= (unsigned int)(QSP_CHAR)QSP_CHRUPR(*begin);
+		hash *= 16777619U;
+		++begin;
+	}
+	return hash;
 }
 
-static int qspLocStringCompare(const void *name, const void *compareTo)
+/* Сравнивает имя в верхнем регистре uName с фрагментом строки без учёта регистра */
+static QSP_BOOL qspIsLocNameEqual(QSP_CHAR *uName, QSP_CHAR *begin, QSP_CHAR *end)
 {
-	return qspStrsComp((QSP_CHAR *)name, ((QSPLocName *)compareTo)->Name);
+	while (begin < end)
+	{
+		if (*uName != (QSP_CHAR)QSP_CHRUPR(*begin)) return QSP_FALSE;
+		++uName;
+		++begin;
+	}
+	return !*uName;
 }
 
 void qspCreateWorld(int start, int locsCount)
 {
 	int i, j;
+	qspResetProfile(start);
 	for (i = start; i < qspLocsCount; ++i)
 	{
 		free(qspLocsNames[i].Name);
@@ -60,6 +81,12 @@ void qspCreateWorld(int start, int locsCount)
 				qspFreePrepLines(qspLocs[i].Actions[j].OnPressLines, qspLocs[i].Actions[j].OnPressLinesCount);
 			}
 	}
+	if (!locsCount && qspLocsHash)
+	{
+		free(qspLocsHash);
+		qspLocsHash = 0;
+		qspLocsHashBufSize = 0;
+	}
 	if (qspLocsCount != locsCount)
 	{
 		qspLocsCount = locsCount;
@@ -76,34 +103,65 @@ void qspCreateWorld(int start, int locsCount)
 
 void qspPrepareLocs()
 {
-	int i;
+	int i, j, mask, bufSize = 16;
+	QSP_CHAR *name;
+	while (bufSize < qspLocsCount * 2) bufSize <<= 1;
+	if (bufSize != qspLocsHashBufSize)
+	{
+		if (qspLocsHash) free(qspLocsHash);
+		qspLocsHash = (int *)malloc(bufSize * sizeof(int));
+		qspLocsHashBufSize = bufSize;
+	}
+	memset(qspLocsHash, 0, bufSize * sizeof(int));
+	mask = bufSize - 1;
 	for (i = 0; i < qspLocsCount; ++i)
 	{
 		qspLocsNames[i].Index = i;
-		qspUpperStr(qspLocsNames[i].Name = qspGetAddText(qspLocsNames[i].Name, qspLocs[i].Name, 0, -1));
+		qspUpperStr(name = qspLocsNames[i].Name = qspGetAddText(qspLocsNames[i].Name, qspLocs[i].Name, 0, -1));
+		qspLocsNames[i].Hash = qspLocNameHash(name, qspStrEnd(name));
+		/* При совпадении имен используется первая локация */
+		for (j = qspLocsNames[i].Hash & mask; qspLocsHash[j]; j = (j + 1) & mask)
+			if (qspLocsNames[qspLocsHash[j] - 1].Hash == qspLocsNames[i].Hash &&
+				!qspStrsComp(qspLocsNames[qspLocsHash[j] - 1].Name, name)) break;
+		if (!qspLocsHash[j]) qspLocsHash[j] = i + 1;
 	}
-	qsort(qspLocsNames, qspLocsCount, sizeof(QSPLocName), qspLocsCompare);
 }
 
 int qspLocIndex(QSP_CHAR *name)
 {
 	QSPLocName *loc;
-	QSP_CHAR *uName;
-	if (!qspLocsCount) return -1;
-	uName = qspDelSpc(name);
-	if (!(*uName))
-	{
-		free(uName);
-		return -1;
-	}
-	qspUpperStr(uName);
-	loc = (QSPLocName *)bsearch(uName, qspLocsNames, qspLocsCount, sizeof(QSPLocName), qspLocStringCompare);
-	free(uName);
-	if (loc) return loc->Index;
+	QSP_CHAR *end;
+	unsigned int hash;
+	int i, mask;
+	if (!qspLocsCount || !qspLocsHashBufSize) return -1;
+	name = qspSkipSpaces(name);
+	end = qspStrEnd(name);
+	while (name < end && qspIsInList(QSP_SPACES, *(end - 1))) --end;
+	if (name == end) return -1;
+	hash = qspLocNameHash(name, end);
+	mask = qspLocsHashBufSize - 1;
+	for (i = hash & mask; qspLocsHash[i]; i = (i + 1) & mask)
+	{
+		loc = qspLocsNames + qspLocsHash[i] - 1;
+		if (loc->Hash == hash && qspIsLocNameEqual(loc->Name, name, end)) return loc->Index;
+	}
 	return -1;
 }
 
 void qspExecLocByIndex(int locInd, QSP_BOOL isChangeDesc)
+{
+	QSP_PROFTIME startTime;
+	if (qspIsProfiling)
+	{
+		startTime = qspProfileLocEnter(locInd);
+		qspExecLocCode(locInd, isChangeDesc);
+		qspProfileLocLeave(locInd, startTime);
+	}
+	else
+		qspExecLocCode(locInd, isChangeDesc);
+}
+
+static void qspExecLocCode(int locInd, QSP_BOOL isChangeDesc)
 {
 	QSPVariant args[2];
 	QSP_CHAR *str;
@@ -42,6 +42,7 @@
 	{
 		int Index;
 		QSP_CHAR *Name;
+		unsigned int Hash;
 	} QSPLocName;
 
 	extern QSPLocation *qspLocs;
@@ -22,6 +22,7 @@
 #include "game.h"
 #include "locations.h"
 #include "objects.h"
+#include "regexp.h"
 #include "statements.h"
 #include "text.h"
 #include "time.h"
@@ -43,10 +44,10 @@ static int qspFunctionOpCode(QSP_CHAR *);
 static int qspOperatorOpCode(QSP_CHAR **);
 static QSP_CHAR *qspGetString(QSP_CHAR **);
 static QSP_CHAR *qspGetQString(QSP_CHAR **);
-static QSPVariant qspValue(int, QSPVariant *, int *, int *);
 static void qspCompileExprPushOpCode(int *, int *, int *, int *, int);
-static void qspAppendToCompiled(int, int *, QSPVariant *, int *, int *, int, QSPVariant);
-static int qspCompileExpression(QSP_CHAR *, QSPVariant *, int *, int *);
+static void qspAppendToCompiled(QSPMathExpression *, int, int, int, QSPVariant);
+static void qspAppendVarToCompiled(QSPMathExpression *, int, QSP_CHAR *);
+static QSP_BOOL qspCompileExpression(QSP_CHAR *, QSPMathExpression *);
 static void qspApplyResult(QSPVar *, QSPVariant *);
 static void qspFunctionStrComp(QSPVariant *, int, QSPVariant *);
 static void qspFunctionStrFind(QSPVariant *, int, QSPVariant *);
@@ -132,6 +133,10 @@ void qspInitMath()
 	for (i = 0; i < QSP_OPSLEVELS; ++i) qspOpsNamesCounts[i] = 0;
 	qspOpMaxLen = 0;
 	qspAddOperation(qspOpValue, 0, 0, 0, 0, 0);
+	qspAddOperation(qspOpFormatValue, 0, 0, 1, 0, 0);
+	qspAddOperation(qspOpVar, 0, 0, 0, 0, 0);
+	qspAddOperation(qspOpVarItem, 0, 0, 0, 1, 1, 0);
+	qspAddOperation(qspOpVarLastItem, 0, 0, 0, 0, 0);
 	qspAddOperation(qspOpStart, 127, 0, 0, 0, 0);
 	qspAddOperation(qspOpEnd, 0, 0, 0, 0, 0);
 	qspAddOperation(qspOpOpenBracket, 127, 0, 0, 0, 0);
@@ -374,9 +379,7 @@ static QSP_CHAR *qspGetString(QSP_CHAR **expr)
 	}
 	buf[strLen] = 0;
 	*expr = pos;
-	pos = qspFormatText(buf, QSP_TRUE);
-	if (pos != buf) free(buf);
-	return pos;
+	return buf;
 }
 
 static QSP_CHAR *qspGetQString(QSP_CHAR **expr)
@@ -391,11 +394,15 @@ static QSP_CHAR *qspGetQString(QSP_CHAR **expr)
 	return qspGetNewText(buf + 1, (int)(pos - buf - 1));
 }
 
-static QSPVariant qspValue(int itemsCount, QSPVariant *compValues, int *compOpCodes, int *compArgsCounts)
+QSPVariant qspCalculateValue(QSPMathExpression *expr)
 {
 	int type;
+	QSPVar *var;
 	QSPVariant stack[QSP_STACKSIZE], args[QSP_OPMAXARGS], tos;
-	int i, j, oldRefreshCount, opCode, argsCount, len, sp = -1, index = 0;
+	QSP_CHAR *text;
+	QSPVariant *compValues = expr->CompValues;
+	int *compOpCodes = expr->CompOpCodes, *compArgsCounts = expr->CompArgsCounts;
+	int i, j, oldRefreshCount, opCode, argsCount, len, itemsCount = expr->ItemsCount, sp = -1, index = 0;
 	tos.IsStr = QSP_FALSE;
 	QSP_NUM(tos) = 0;
 	oldRefreshCount = qspRefreshCount;
@@ -435,7 +442,24 @@ static QSPVariant qspValue(int itemsCount, QSPVariant *compValues, int *compOpCo
 			switch (opCode)
 			{
 			case qspOpValue:
-				tos = compValues[index];
+				qspCopyVariant(&tos, compValues + index);
+				break;
+			case qspOpFormatValue:
+				/* Подстановки вычисляются при каждом выполнении, исходный текст не изменяется */
+				text = qspGetNewText(QSP_STR(compValues[index]), -1);
+				QSP_STR(tos) = qspFormatText(text, QSP_TRUE);
+				if (QSP_STR(tos) != text) free(text);
+				if (!QSP_STR(tos)) tos.IsStr = QSP_FALSE;
+				break;
+			case qspOpVar:
+			case qspOpVarItem:
+			case qspOpVarLastItem:
+				if (!(var = qspVarReferenceBySlot(expr->CompSlots + QSP_NUM(compValues[index])))) break;
+				if (opCode == qspOpVar)
+					i = 0;
+				else
+					i = qspGetVarItemIndex(var, opCode == qspOpVarItem ? args : 0);
+				tos = qspGetVarValueByReference(var, i, compValues[index].IsStr);
 				break;
 			case qspOpMul:
 				QSP_NUM(tos) = QSP_NUM(args[0]) * QSP_NUM(args[1]);
@@ -610,12 +634,6 @@ static QSPVariant qspValue(int itemsCount, QSPVariant *compValues, int *compOpCo
 		++index;
 	}
 	qspFreeVariants(stack, sp + 1);
-	while (index < itemsCount)
-	{
-		if (compOpCodes[index] == qspOpValue && compValues[index].IsStr)
-			free(QSP_STR(compValues[index]));
-		++index;
-	}
 	return qspGetEmptyVariant(QSP_FALSE);
 }
 
@@ -630,28 +648,78 @@ static void qspCompileExprPushOpCode(int *opStack, int *opSp, int *argStack, int
 	argStack[++(*argSp)] = (opCode < qspOpFirst_Function ? qspOps[opCode].MinArgsCount : 0);
 }
 
-static void qspAppendToCompiled(int opCode, int *itemsCount, QSPVariant *compValues, int *compOpCodes, int *compArgsCounts, int argsCount, QSPVariant v)
+static void qspAppendToCompiled(QSPMathExpression *expr, int firstItem, int opCode, int argsCount, QSPVariant v)
 {
-	if (*itemsCount == QSP_MAXITEMS)
+	int count = expr->ItemsCount;
+	if (count - firstItem == QSP_MAXITEMS)
 	{
 		qspSetError(QSP_ERR_TOOMANYITEMS);
 		return;
 	}
-	compOpCodes[*itemsCount] = opCode;
-	compArgsCounts[*itemsCount] = argsCount;
-	if (opCode == qspOpValue) compValues[*itemsCount] = v;
-	++(*itemsCount);
+	if (count == expr->ItemsBufSize)
+	{
+		expr->ItemsBufSize = (count ? count * 2 : 8);
+		expr->CompValues = (QSPVariant *)realloc(expr->CompValues, expr->ItemsBufSize * sizeof(QSPVariant));
+		expr->CompOpCodes = (int *)realloc(expr->CompOpCodes, expr->ItemsBufSize * sizeof(int));
+		expr->CompArgsCounts = (int *)realloc(expr->CompArgsCounts, expr->ItemsBufSize * sizeof(int));
+	}
+	expr->CompOpCodes[count] = opCode;
+	expr->CompArgsCounts[count] = argsCount;
+	expr->CompValues[count] = v;
+	expr->ItemsCount = count + 1;
 }
 
-static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOpCodes, int *compArgsCounts)
+/*
+Переменная читается при вычислении выражения.
+Индекс слота хранится в CompValues как число, а тип значения - в признаке IsStr.
+*/
+static void qspAppendVarToCompiled(QSPMathExpression *expr, int firstItem, QSP_CHAR *name)
+{
+	QSPVariant v;
+	QSPVarSlot *slot;
+	QSP_BOOL isCompiled;
+	int opCode;
+	QSP_CHAR *s, *rPos, *lPos = qspStrChar(name, QSP_LSBRACK[0]);
+	if (lPos)
+	{
+		if (!(rPos = qspStrPos(lPos, QSP_RSBRACK, QSP_FALSE)))
+		{
+			qspSetError(QSP_ERR_BRACKNOTFOUND);
+			return;
+		}
+		s = qspSkipSpaces(lPos + 1);
+		if (s == rPos)
+			opCode = qspOpVarLastItem;
+		else
+		{
+			*rPos = 0;
+			isCompiled = qspCompileExpression(s, expr);
+			*rPos = QSP_RSBRACK[0];
+			if (!isCompiled) return;
+			opCode = qspOpVarItem;
+		}
+	}
+	else
+		opCode = qspOpVar;
+	v.IsStr = (*name == QSP_STRCHAR[0]);
+	QSP_NUM(v) = expr->SlotsCount;
+	qspAppendToCompiled(expr, firstItem, opCode, opCode == qspOpVarItem, v);
+	if (qspErrorNum) return;
+	expr->CompSlots = (QSPVarSlot *)realloc(expr->CompSlots, (expr->SlotsCount + 1) * sizeof(QSPVarSlot));
+	slot = expr->CompSlots + expr->SlotsCount++;
+	slot->Name = qspGetNewText(name, lPos ? (int)(lPos - name) : -1);
+	slot->Var = 0;
+	slot->VarsGeneration = 0;
+}
+
+static QSP_BOOL qspCompileExpression(QSP_CHAR *s, QSPMathExpression *expr)
 {
 	QSPVariant v = { .Val.Num = 0, .IsStr = QSP_FALSE };
 	QSP_CHAR *name;
 	QSP_BOOL waitForOperator = QSP_FALSE;
-	int oldRefreshCount, opStack[QSP_STACKSIZE], argStack[QSP_STACKSIZE], opCode, itemsCount = 0, opSp = -1, argSp = -1;
+	int opStack[QSP_STACKSIZE], argStack[QSP_STACKSIZE], opCode, firstItem = expr->ItemsCount, opSp = -1, argSp = -1;
 	qspCompileExprPushOpCode(opStack, &opSp, argStack, &argSp, qspOpStart);
-	if (qspErrorNum) return 0;
-	oldRefreshCount = qspRefreshCount;
+	if (qspErrorNum) return QSP_FALSE;
 	while (1)
 	{
 		s = qspSkipSpaces(s);
@@ -671,7 +739,7 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 			while (qspOps[opCode].Priority <= qspOps[opStack[opSp]].Priority && qspOps[opStack[opSp]].Priority != 127)
 			{
 				if (opStack[opSp] >= qspOpFirst_Function) ++argStack[argSp];
-				qspAppendToCompiled(opStack[opSp], &itemsCount, compValues, compOpCodes, compArgsCounts, argStack[argSp], v);
+				qspAppendToCompiled(expr, firstItem, opStack[opSp], argStack[argSp], v);
 				if (qspErrorNum) break;
 				if (--opSp < 0 || --argSp < 0)
 				{
@@ -688,7 +756,7 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 					qspSetError(QSP_ERR_BRACKNOTFOUND);
 					break;
 				}
-				return itemsCount;
+				return QSP_TRUE;
 			case qspOpCloseBracket:
 				if (opStack[opSp] != qspOpOpenBracket)
 				{
@@ -737,7 +805,7 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 					--opSp;
 					--argSp;
 				}
-				qspAppendToCompiled(qspOpValue, &itemsCount, compValues, compOpCodes, compArgsCounts, 0, v);
+				qspAppendToCompiled(expr, firstItem, qspOpValue, 0, v);
 				if (qspErrorNum) break;
 				waitForOperator = QSP_TRUE;
 			}
@@ -746,7 +814,8 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 				if (!(name = qspGetString(&s))) break;
 				v.IsStr = QSP_TRUE;
 				QSP_STR(v) = name;
-				qspAppendToCompiled(qspOpValue, &itemsCount, compValues, compOpCodes, compArgsCounts, 0, v);
+				/* Текст с подстановками форматируется при вычислении */
+				qspAppendToCompiled(expr, firstItem, qspStrStr(name, QSP_LSUBEX) ? qspOpFormatValue : qspOpValue, 0, v);
 				if (qspErrorNum)
 				{
 					free(QSP_STR(v));
@@ -759,7 +828,7 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 				if (!(name = qspGetQString(&s))) break;
 				v.IsStr = QSP_TRUE;
 				QSP_STR(v) = name;
-				qspAppendToCompiled(qspOpValue, &itemsCount, compValues, compOpCodes, compArgsCounts, 0, v);
+				qspAppendToCompiled(expr, firstItem, qspOpValue, 0, v);
 				if (qspErrorNum)
 				{
 					free(QSP_STR(v));
@@ -806,7 +875,7 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 					break;
 				}
 				++s;
-				qspAppendToCompiled(opCode, &itemsCount, compValues, compOpCodes, compArgsCounts, 0, v);
+				qspAppendToCompiled(expr, firstItem, opCode, 0, v);
 				if (qspErrorNum) break;
 				--opSp;
 				--argSp;
@@ -837,7 +906,7 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 						}
 						else
 						{
-							qspAppendToCompiled(opCode, &itemsCount, compValues, compOpCodes, compArgsCounts, 0, v);
+							qspAppendToCompiled(expr, firstItem, opCode, 0, v);
 							if (qspErrorNum) break;
 							waitForOperator = QSP_TRUE;
 						}
@@ -850,15 +919,9 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 				}
 				else
 				{
-					v = qspGetVar(name);
+					qspAppendVarToCompiled(expr, firstItem, name);
 					free(name);
-					if (qspRefreshCount != oldRefreshCount || qspErrorNum) break;
-					qspAppendToCompiled(qspOpValue, &itemsCount, compValues, compOpCodes, compArgsCounts, 0, v);
-					if (qspErrorNum)
-					{
-						if (v.IsStr) free(QSP_STR(v));
-						break;
-					}
+					if (qspErrorNum) break;
 					waitForOperator = QSP_TRUE;
 				}
 			}
@@ -872,21 +935,46 @@ static int qspCompileExpression(QSP_CHAR *s, QSPVariant *compValues, int *compOp
 			}
 		}
 	}
-	while (--itemsCount >= 0)
+	return QSP_FALSE;
+}
+
+QSP_BOOL qspCompileMathExpression(QSP_CHAR *s, QSPMathExpression *expr)
+{
+	expr->CompValues = 0;
+	expr->CompOpCodes = expr->CompArgsCounts = 0;
+	expr->ItemsCount = expr->ItemsBufSize = 0;
+	expr->CompSlots = 0;
+	expr->SlotsCount = 0;
+	if (qspCompileExpression(s, expr)) return QSP_TRUE;
+	qspFreeMathExpression(expr);
+	return QSP_FALSE;
+}
+
+void qspFreeMathExpression(QSPMathExpression *expr)
+{
+	int i, opCode;
+	for (i = 0; i < expr->ItemsCount; ++i)
 	{
-		if (compOpCodes[itemsCount] == qspOpValue && compValues[itemsCount].IsStr)
-			free(QSP_STR(compValues[itemsCount]));
+		opCode = expr->CompOpCodes[i];
+		if ((opCode == qspOpValue || opCode == qspOpFormatValue) && expr->CompValues[i].IsStr)
+			free(QSP_STR(expr->CompValues[i]));
 	}
-	return 0;
+	for (i = 0; i < expr->SlotsCount; ++i)
+		free(expr->CompSlots[i].Name);
+	if (expr->CompValues) free(expr->CompValues);
+	if (expr->CompOpCodes) free(expr->CompOpCodes);
+	if (expr->CompArgsCounts) free(expr->CompArgsCounts);
+	if (expr->CompSlots) free(expr->CompSlots);
 }
 
 QSPVariant qspExprValue(QSP_CHAR *expr)
 {
-	QSPVariant compValues[QSP_MAXITEMS];
-	int compOpCodes[QSP_MAXITEMS], compArgsCounts[QSP_MAXITEMS], itemsCount;
-	if (!(itemsCount = qspCompileExpression(expr, compValues, compOpCodes, compArgsCounts)))
-		return qspGetEmptyVariant(QSP_FALSE);
-	return qspValue(itemsCount, compValues, compOpCodes, compArgsCounts);
+	QSPVariant res;
+	QSPMathExpression compExpr;
+	if (!qspCompileMathExpression(expr, &compExpr)) return qspGetEmptyVariant(QSP_FALSE);
+	res = qspCalculateValue(&compExpr);
+	qspFreeMathExpression(&compExpr);
+	return res;
 }
 
 static void qspApplyResult(QSPVar *varRes, QSPVariant *tos)
@@ -916,17 +1004,11 @@ static void qspFunctionStrComp(QSPVariant *args, int count, QSPVariant *tos)
 {
 	OnigUChar *tempBeg, *tempEnd;
 	regex_t *onigExp;
-	OnigErrorInfo onigInfo;
-	tempBeg = (OnigUChar *)QSP_STR(args[1]);
-	tempEnd = (OnigUChar *)qspStrEnd(QSP_STR(args[1]));
-	if (onig_new(&onigExp, tempBeg, tempEnd, ONIG_OPTION_DEFAULT, QSP_ONIG_ENC, ONIG_SYNTAX_PERL_NG, &onigInfo))
-		qspSetError(QSP_ERR_INCORRECTREGEXP);
-	else
+	if (onigExp = qspRegExpGetCompiled(QSP_STR(args[1])))
 	{
 		tempBeg = (OnigUChar *)QSP_STR(args[0]);
 		tempEnd = (OnigUChar *)qspStrEnd(QSP_STR(args[0]));
 		QSP_PNUM(tos) = -(onig_match(onigExp, tempBeg, tempEnd, tempBeg, 0, ONIG_OPTION_NONE) == tempEnd - tempBeg);
-		onig_free(onigExp);
 	}
 }
 
@@ -936,12 +1018,7 @@ static void qspFunctionStrFind(QSPVariant *args, int count, QSPVariant *tos)
 	OnigUChar *tempBeg, *tempEnd;
 	regex_t *onigExp;
 	OnigRegion *onigReg;
-	OnigErrorInfo onigInfo;
-	tempBeg = (OnigUChar *)QSP_STR(args[1]);
-	tempEnd = (OnigUChar *)qspStrEnd(QSP_STR(args[1]));
-	if (onig_new(&onigExp, tempBeg, tempEnd, ONIG_OPTION_DEFAULT, QSP_ONIG_ENC, ONIG_SYNTAX_PERL_NG, &onigInfo))
-		qspSetError(QSP_ERR_INCORRECTREGEXP);
-	else
+	if (onigExp = qspRegExpGetCompiled(QSP_STR(args[1])))
 	{
 		onigReg = onig_region_new();
 		tempBeg = (OnigUChar *)QSP_STR(args[0]);
@@ -956,7 +1033,6 @@ static void qspFunctionStrFind(QSPVariant *args, int count, QSPVariant *tos)
 		else
 			QSP_PSTR(tos) = qspGetNewText(QSP_FMT(""), 0);
 		onig_region_free(onigReg, 1);
-		onig_free(onigExp);
 	}
 }
 
@@ -966,12 +1042,7 @@ static void qspFunctionStrPos(QSPVariant *args, int count, QSPVariant *tos)
 	OnigUChar *tempBeg, *tempEnd;
 	regex_t *onigExp;
 	OnigRegion *onigReg;
-	OnigErrorInfo onigInfo;
-	tempBeg = (OnigUChar *)QSP_STR(args[1]);
-	tempEnd = (OnigUChar *)qspStrEnd(QSP_STR(args[1]));
-	if (onig_new(&onigExp, tempBeg, tempEnd, ONIG_OPTION_DEFAULT, QSP_ONIG_ENC, ONIG_SYNTAX_PERL_NG, &onigInfo))
-		qspSetError(QSP_ERR_INCORRECTREGEXP);
-	else
+	if (onigExp = qspRegExpGetCompiled(QSP_STR(args[1])))
 	{
 		onigReg = onig_region_new();
 		tempBeg = (OnigUChar *)QSP_STR(args[0]);
@@ -983,7 +1054,6 @@ static void qspFunctionStrPos(QSPVariant *args, int count, QSPVariant *tos)
 		else
 			QSP_PNUM(tos) = 0;
 		onig_region_free(onigReg, 1);
-		onig_free(onigExp);
 	}
 }
 
@@ -17,6 +17,7 @@
 
 #include "declarations.h"
 #include "variant.h"
+#include "variables.h"
 
 #ifndef QSP_MATHDEFINES
 	#define QSP_MATHDEFINES
@@ -46,12 +47,27 @@
 		QSP_FUNCTION Func;
 	} QSPMathOperation;
 
+	typedef struct
+	{
+		QSPVariant *CompValues;
+		int *CompOpCodes;
+		int *CompArgsCounts;
+		int ItemsCount;
+		int ItemsBufSize;
+		QSPVarSlot *CompSlots;
+		int SlotsCount;
+	} QSPMathExpression;
+
 	enum
 	{
 		qspOpUnknown,
 		qspOpStart,
 		qspOpEnd,
 		qspOpValue,
+		qspOpFormatValue,
+		qspOpVar,
+		qspOpVarItem,
+		qspOpVarLastItem,
 		qspOpOpenBracket,
 		qspOpMinus,
 		qspOpComma,
@@ -120,5 +136,8 @@
 	/* External functions */
 	void qspInitMath();
 	QSPVariant qspExprValue(QSP_CHAR *);
+	QSP_BOOL qspCompileMathExpression(QSP_CHAR *, QSPMathExpression *);
+	QSPVariant qspCalculateValue(QSPMathExpression *);
+	void qspFreeMathExpression(QSPMathExpression *);
 
 #endif
@@ -0,0 +1,105 @@
+/* Copyright (C) 2005-2010 Valeriy Argunov (nporep AT mail DOT ru) */
+/*
+* This library is free software; you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation; either version 2.1 of the License, or
+* (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+*/
+
+#include "profiler.h"
+#include "errors.h"
+#include "locations.h"
+
+QSP_BOOL qspIsProfiling = QSP_FALSE;
+QSPLocProfile *qspLocsProfile = 0;
+int qspLocsProfileCount = 0;
+int qspCounterCallsCount = 0;
+QSP_PROFTIME qspCounterTime = 0;
+
+static QSPLocProfile *qspGetLocProfile(int);
+
+static QSPLocProfile *qspGetLocProfile(int locInd)
+{
+	int i;
+	if (locInd < 0 || locInd >= qspLocsCount) return 0;
+	if (locInd >= qspLocsProfileCount)
+	{
+		qspLocsProfile = (QSPLocProfile *)realloc(qspLocsProfile, qspLocsCount * sizeof(QSPLocProfile));
+		for (i = qspLocsProfileCount; i < qspLocsCount; ++i)
+		{
+			qspLocsProfile[i].CallsCount = 0;
+			qspLocsProfile[i].Depth = 0;
+			qspLocsProfile[i].Time = 0;
+			qspLocsProfile[i].StatsCount = 0;
+		}
+		qspLocsProfileCount = qspLocsCount;
+	}
+	return qspLocsProfile + locInd;
+}
+
+/* Сбрасывает данные локаций, начиная с указанной, при полной очистке - и данные счетчика */
+void qspResetProfile(int start)
+{
+	int i;
+	if (!start)
+	{
+		if (qspLocsProfile) free(qspLocsProfile);
+		qspLocsProfile = 0;
+		qspLocsProfileCount = 0;
+		qspCounterCallsCount = 0;
+		qspCounterTime = 0;
+		return;
+	}
+	for (i = start; i < qspLocsProfileCount; ++i)
+	{
+		qspLocsProfile[i].CallsCount = 0;
+		qspLocsProfile[i].Depth = 0;
+		qspLocsProfile[i].Time = 0;
+		qspLocsProfile[i].StatsCount = 0;
+	}
+}
+
+/* Монотонное время в микросекундах */
+QSP_PROFTIME qspProfileTime()
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (QSP_PROFTIME)ts.tv_sec * 1000000 + ts.tv_nsec / 1000;
+}
+
+QSP_PROFTIME qspProfileLocEnter(int locInd)
+{
+	QSPLocProfile *prof = qspGetLocProfile(locInd);
+	if (prof)
+	{
+		++prof->CallsCount;
+		++prof->Depth;
+	}
+	return qspProfileTime();
+}
+
+/* При рекурсии время учитывается только для внешнего вызова */
+void qspProfileLocLeave(int locInd, QSP_PROFTIME startTime)
+{
+	QSPLocProfile *prof;
+	if (locInd >= qspLocsProfileCount) return;
+	prof = qspLocsProfile + locInd;
+	if (prof->Depth > 0 && !(--prof->Depth))
+		prof->Time += qspProfileTime() - startTime;
+}
+
+/* Операторы учитываются для локации, код которой выполняется в данный момент */
+void qspProfileStatement()
+{
+	QSPLocProfile *prof = qspGetLocProfile(qspRealCurLoc);
+	if (prof) ++prof->StatsCount;
+}
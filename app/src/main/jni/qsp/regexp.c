@@ -0,0 +1,103 @@
+/* Copyright (C) 2005-2010 Valeriy Argunov (nporep AT mail DOT ru) */
+/*
+* This library is free software; you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation; either version 2.1 of the License, or
+* (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+*/
+
+#include "regexp.h"
+#include "errors.h"
+#include "text.h"
+
+/* Кеш скомпилированных регулярных выражений, вытеснение - по давности использования */
+static QSPRegExp qspRegExps[QSP_MAXCACHEDREGEXPS];
+static unsigned int qspRegExpsUseCounter = 0;
+int qspRegExpsCacheHits = 0;
+int qspRegExpsCacheMisses = 0;
+
+static unsigned int qspRegExpHash(QSP_CHAR *);
+
+static unsigned int qspRegExpHash(QSP_CHAR *s)
+{
+	unsigned int hash = 0;
+	while (*s)
+		hash = hash * 31 + (unsigned int)*s++;
+	return hash;
+}
+
+void qspClearRegExps(QSP_BOOL isFirst)
+{
+	int i;
+	QSPRegExp *exp = qspRegExps;
+	for (i = 0; i < QSP_MAXCACHEDREGEXPS; ++i)
+	{
+		if (!isFirst && exp->Text)
+		{
+			free(exp->Text);
+			onig_free(exp->CompiledExp);
+		}
+		exp->Text = 0;
+		exp->CompiledExp = 0;
+		exp->LastUsed = 0;
+		++exp;
+	}
+	qspRegExpsUseCounter = 0;
+	qspRegExpsCacheHits = qspRegExpsCacheMisses = 0;
+}
+
+/* Возвращает скомпилированное выражение из кеша, освобождать его не нужно */
+regex_t *qspRegExpGetCompiled(QSP_CHAR *exp)
+{
+	int i;
+	unsigned int hash;
+	regex_t *onigExp;
+	OnigErrorInfo onigInfo;
+	OnigUChar *tempBeg, *tempEnd;
+	QSPRegExp *cached, *oldest = qspRegExps;
+	hash = qspRegExpHash(exp);
+	++qspRegExpsUseCounter;
+	for (i = 0; i < QSP_MAXCACHEDREGEXPS; ++i)
+	{
+		cached = qspRegExps + i;
+		if (!cached->Text)
+		{
+			oldest = cached;
+			break;
+		}
+		if (cached->Hash == hash && !qspStrsComp(cached->Text, exp))
+		{
+			cached->LastUsed = qspRegExpsUseCounter;
+			++qspRegExpsCacheHits;
+			return cached->CompiledExp;
+		}
+		if (cached->LastUsed < oldest->LastUsed) oldest = cached;
+	}
+	++qspRegExpsCacheMisses;
+	tempBeg = (OnigUChar *)exp;
+	tempEnd = (OnigUChar *)qspStrEnd(exp);
+	if (onig_new(&onigExp, tempBeg, tempEnd, ONIG_OPTION_DEFAULT, QSP_ONIG_ENC, ONIG_SYNTAX_PERL_NG, &onigInfo))
+	{
+		qspSetError(QSP_ERR_INCORRECTREGEXP);
+		return 0;
+	}
+	if (oldest->Text)
+	{
+		free(oldest->Text);
+		onig_free(oldest->CompiledExp);
+	}
+	oldest->Text = qspGetNewText(exp, -1);
+	oldest->Hash = hash;
+	oldest->LastUsed = qspRegExpsUseCounter;
+	oldest->CompiledExp = onigExp;
+	return onigExp;
+}
@@ -26,6 +26,7 @@
 #include "menu.h"
 #include "objects.h"
 #include "playlist.h"
+#include "profiler.h"
 #include "text.h"
 #include "variables.h"
 
@@ -42,6 +43,10 @@ static int qspGetStatCode(QSP_CHAR *, QSP_CHAR **);
 static int qspSearchElse(QSPLineOfCode *, int, int);
 static int qspSearchEnd(QSPLineOfCode *, int, int);
 static int qspSearchLabel(QSPLineOfCode *, int, int, QSP_CHAR *);
+static QSP_BOOL qspCompileStatArgs(QSP_CHAR *, int, QSPMathExpression *, int *);
+static int qspCalculateStatArgs(QSPMathExpression *, int, int, QSPVariant *);
+static QSP_BOOL qspCompileSetStatement(QSP_CHAR *, QSPCompiledStat *);
+static void qspExecSetStatement(QSP_CHAR *, QSPCompiledStat *);
 static QSP_BOOL qspExecString(QSPLineOfCode *, int, int, QSP_CHAR **);
 static QSP_BOOL qspStatementIf(QSPLineOfCode *, int, int, QSP_CHAR **);
 static QSP_BOOL qspStatementAddText(QSPVariant *, int, QSP_CHAR **, int);
@@ -259,78 +264,52 @@ static int qspGetStatCode(QSP_CHAR *s, QSP_CHAR **pos)
 	return qspStatUnknown;
 }
 
-static int qspSearchElse(QSPLineOfCode *s, int start, int end)
+/* Переходы вычисляются заранее в qspLinkPrepLines, здесь только проверяются границы блока */
+static int qspSearchElse(QSPLineOfCode *s, int lineInd, int end)
 {
-	int c = 1;
-	s += start;
-	while (start < end)
-	{
-		switch (s->Stats->Stat)
-		{
-		case qspStatAct:
-		case qspStatIf:
-			if (s->IsMultiline) ++c;
-			break;
-		case qspStatElse:
-		case qspStatElseIf:
-			if (c == 1) return start;
-			break;
-		case qspStatEnd:
-			if (!(--c)) return -1;
-			break;
-		}
-		++start;
-		++s;
-	}
-	return -1;
+	int pos, offset = s[lineInd].ElseOffset;
+	if (!offset) return -1;
+	pos = lineInd + offset;
+	return (pos < end ? pos : -1);
 }
 
-static int qspSearchEnd(QSPLineOfCode *s, int start, int end)
+static int qspSearchEnd(QSPLineOfCode *s, int lineInd, int end)
 {
-	int c = 1;
-	s += start;
-	while (start < end)
-	{
-		switch (s->Stats->Stat)
-		{
-		case qspStatAct:
-		case qspStatIf:
-			if (s->IsMultiline) ++c;
-			break;
-		case qspStatEnd:
-			if (!(--c)) return start;
-			break;
-		}
-		++start;
-		++s;
-	}
-	return -1;
+	int pos, offset = s[lineInd].EndOffset;
+	if (!offset) return -1;
+	pos = lineInd + offset;
+	return (pos < end ? pos : -1);
 }
 
 static int qspSearchLabel(QSPLineOfCode *s, int start, int end, QSP_CHAR *str)
 {
-	s += start;
+	if (start >= end) return -1;
+	if (!s[start].Label)
+	{
+		if (!s[start].LabelOffset) return -1;
+		start += s[start].LabelOffset;
+	}
 	while (start < end)
 	{
-		if (s->Label && !qspStrsComp(s->Label, str)) return start;
-		++start;
-		++s;
+		if (!qspStrsComp(s[start].Label, str)) return start;
+		if (!s[start].LabelOffset) break;
+		start += s[start].LabelOffset;
 	}
 	return -1;
 }
 
-int qspGetStatArgs(QSP_CHAR *s, int statCode, QSPVariant *args)
+static QSP_BOOL qspCompileStatArgs(QSP_CHAR *s, int statCode, QSPMathExpression *args, int *count)
 {
-	int type;
-	int oldRefreshCount, count = 0;
+	QSP_BOOL isCompiled;
 	QSP_CHAR *pos, *brack = 0;
+	int i = 0;
 	s = qspSkipSpaces(s);
 	if (*s == QSP_LRBRACK[0])
 	{
 		if (!(brack = qspStrPos(s, QSP_RRBRACK, QSP_FALSE)))
 		{
 			qspSetError(QSP_ERR_BRACKNOTFOUND);
-			return 0;
+			return QSP_FALSE;
 		}
 		if (qspIsAnyString(brack + 1))
 			brack = 0;
@@ -342,10 +321,9 @@ int qspGetStatArgs(QSP_CHAR *s, int statCode, QSPVariant *args)
 	}
 	if (*s)
 	{
-		oldRefreshCount = qspRefreshCount;
 		while (1)
 		{
-			if (count == qspStats[statCode].MaxArgsCount)
+			if (i == qspStats[statCode].MaxArgsCount)
 			{
 				qspSetError(QSP_ERR_ARGSCOUNT);
 				break;
@@ -354,20 +332,13 @@ int qspGetStatArgs(QSP_CHAR *s, int statCode, QSPVariant *args)
 			if (pos)
 			{
 				*pos = 0;
-				args[count] = qspExprValue(s);
+				isCompiled = qspCompileMathExpression(s, args + i);
 				*pos = QSP_COMMA[0];
 			}
 			else
-				args[count] = qspExprValue(s);
-			if (qspRefreshCount != oldRefreshCount || qspErrorNum) break;
-			type = qspStats[statCode].ArgsTypes[count];
-			if (type && qspConvertVariantTo(args + count, type == 1))
-			{
-				qspSetError(QSP_ERR_TYPEMISMATCH);
-				++count;
-				break;
-			}
-			++count;
+				isCompiled = qspCompileMathExpression(s, args + i);
+			if (!isCompiled) break;
+			++i;
 			if (!pos) break;
 			s = qspSkipSpaces(pos + QSP_LEN(QSP_COMMA));
 			if (!(*s))
@@ -376,21 +347,113 @@ int qspGetStatArgs(QSP_CHAR *s, int statCode, QSPVariant *args)
 				break;
 			}
 		}
+	}
+	if (brack) *brack = QSP_RRBRACK[0];
+	if (!qspErrorNum && i < qspStats[statCode].MinArgsCount) qspSetError(QSP_ERR_ARGSCOUNT);
+	if (qspErrorNum)
+	{
+		while (--i >= 0) qspFreeMathExpression(args + i);
+		return QSP_FALSE;
+	}
+	*count = i;
+	return QSP_TRUE;
+}
+
+static int qspCalculateStatArgs(QSPMathExpression *exprs, int count, int statCode, QSPVariant *args)
+{
+	int i, type, oldRefreshCount = qspRefreshCount;
+	for (i = 0; i < count; ++i)
+	{
+		args[i] = qspCalculateValue(exprs + i);
 		if (qspRefreshCount != oldRefreshCount || qspErrorNum)
 		{
-			qspFreeVariants(args, count);
-			if (brack) *brack = QSP_RRBRACK[0];
+			qspFreeVariants(args, i);
+			return 0;
+		}
+		type = qspStats[statCode].ArgsTypes[i];
+		if (type && qspConvertVariantTo(args + i, type == 1))
+		{
+			qspSetError(QSP_ERR_TYPEMISMATCH);
+			qspFreeVariants(args, i + 1);
 			return 0;
 		}
 	}
-	if (brack) *brack = QSP_RRBRACK[0];
-	if (count < qspStats[statCode].MinArgsCount)
+	return count;
+}
+
+int qspGetStatArgs(QSP_CHAR *s, QSPCachedStat *stat, QSPVariant *args)
+{
+	QSPMathExpression exprs[QSP_STATMAXARGS];
+	QSPCompiledStat *compiled = stat->Compiled;
+	int i, count, argsCount;
+	if (compiled && compiled->IsCompiled)
+		return qspCalculateStatArgs(compiled->Args, compiled->ArgsCount, stat->Stat, args);
+	if (!qspCompileStatArgs(s, stat->Stat, exprs, &count)) return 0;
+	if (compiled)
 	{
-		qspSetError(QSP_ERR_ARGSCOUNT);
-		qspFreeVariants(args, count);
-		return 0;
+		/* Аргументы разбираются один раз и используются при следующих выполнениях оператора */
+		if (count)
+		{
+			compiled->Args = (QSPMathExpression *)malloc(count * sizeof(QSPMathExpression));
+			memcpy(compiled->Args, exprs, count * sizeof(QSPMathExpression));
+		}
+		compiled->ArgsCount = count;
+		compiled->IsCompiled = QSP_TRUE;
+		return qspCalculateStatArgs(compiled->Args, count, stat->Stat, args);
 	}
-	return count;
+	argsCount = qspCalculateStatArgs(exprs, count, stat->Stat, args);
+	for (i = 0; i < count; ++i)
+		qspFreeMathExpression(exprs + i);
+	return argsCount;
+}
+
+static QSP_BOOL qspCompileSetStatement(QSP_CHAR *s, QSPCompiledStat *compiled)
+{
+	QSPMathExpression expr;
+	QSP_CHAR ch, *pos = qspStrPos(s, QSP_EQUAL, QSP_FALSE);
+	if (!pos)
+	{
+		qspSetError(QSP_ERR_EQNOTFOUND);
+		return QSP_FALSE;
+	}
+	if (!qspCompileMathExpression(pos + QSP_LEN(QSP_EQUAL), &expr)) return QSP_FALSE;
+	if (pos != s && qspIsInList(QSP_ADD QSP_SUB QSP_DIV QSP_MUL, *(pos - 1))) --pos;
+	ch = *pos;
+	*pos = 0;
+	compiled->VarName = qspDelSpc(s);
+	*pos = ch;
+	compiled->VarOp = ch;
+	compiled->Args = (QSPMathExpression *)malloc(sizeof(QSPMathExpression));
+	*compiled->Args = expr;
+	compiled->ArgsCount = 1;
+	compiled->IsCompiled = QSP_TRUE;
+	return QSP_TRUE;
+}
+
+static void qspExecSetStatement(QSP_CHAR *s, QSPCompiledStat *compiled)
+{
+	QSPVariant v;
+	QSP_CHAR *name;
+	int oldRefreshCount;
+	if (!compiled)
+	{
+		qspStatementSetVarValue(s);
+		return;
+	}
+	if (!compiled->IsCompiled && !qspCompileSetStatement(s, compiled)) return;
+	oldRefreshCount = qspRefreshCount;
+	v = qspCalculateValue(compiled->Args);
+	if (qspRefreshCount != oldRefreshCount || qspErrorNum) return;
+	if (qspStrChar(compiled->VarName, QSP_LSBRACK[0]))
+	{
+		/* Имя с индексом изменяется на время разбора, поэтому используется его копия */
+		name = qspGetNewText(compiled->VarName, -1);
+		qspSetVar(name, &v, compiled->VarOp);
+		free(name);
+	}
+	else
+		qspSetVar(compiled->VarName, &v, compiled->VarOp);
+	if (v.IsStr) free(QSP_STR(v));
 }
 
 static QSP_BOOL qspExecString(QSPLineOfCode *s, int startStat, int endStat, QSP_CHAR **jumpTo)
@@ -402,6 +465,7 @@ static QSP_BOOL qspExecString(QSPLineOfCode *s, int startStat, int endStat, QSP_
 	for (i = startStat; i < endStat; ++i)
 	{
 		statCode = s->Stats[i].Stat;
+		if (qspIsProfiling) qspProfileStatement();
 		switch (statCode)
 		{
 		case qspStatUnknown:
@@ -422,22 +486,22 @@ static QSP_BOOL qspExecString(QSPLineOfCode *s, int startStat, int endStat, QSP_
 			{
 				pos = s->Str + s->Stats[i].EndPos;
 				*pos = 0;
-				qspStatementSetVarValue(s->Str + s->Stats[i].ParamPos);
+				qspExecSetStatement(s->Str + s->Stats[i].ParamPos, s->Stats[i].Compiled);
 				*pos = QSP_STATDELIM[0];
 			}
 			else
-				qspStatementSetVarValue(s->Str + s->Stats[i].ParamPos);
+				qspExecSetStatement(s->Str + s->Stats[i].ParamPos, s->Stats[i].Compiled);
 			break;
 		default:
 			if (i < s->StatsCount - 1)
 			{
 				pos = s->Str + s->Stats[i].EndPos;
 				*pos = 0;
-				count = qspGetStatArgs(s->Str + s->Stats[i].ParamPos, statCode, args);
+				count = qspGetStatArgs(s->Str + s->Stats[i].ParamPos, s->Stats + i, args);
 				*pos = QSP_STATDELIM[0];
 			}
 			else
-				count = qspGetStatArgs(s->Str + s->Stats[i].ParamPos, statCode, args);
+				count = qspGetStatArgs(s->Str + s->Stats[i].ParamPos, s->Stats + i, args);
 			if (qspRefreshCount != oldRefreshCount || qspErrorNum) return QSP_FALSE;
 			isExit = qspStats[statCode].Func(args, count, jumpTo, qspStats[statCode].ExtArg);
 			qspFreeVariants(args, count);
@@ -478,9 +542,11 @@ QSP_BOOL qspExecCode(QSPLineOfCode *s, int startLine, int endLine, int codeOffse
 		}
 		statCode = line->Stats->Stat;
 		paramPos = line->Str + line->Stats->ParamPos;
+		if (qspIsProfiling && (line->IsMultiline || statCode == qspStatElseIf || statCode == qspStatElse))
+			qspProfileStatement();
 		if (line->IsMultiline)
 		{
-			endPos = qspSearchEnd(s, ++i, endLine);
+			endPos = qspSearchEnd(s, i++, endLine);
 			if (endPos < 0)
 			{
 				qspSetError(QSP_ERR_ENDNOTFOUND);
@@ -488,12 +554,12 @@ QSP_BOOL qspExecCode(QSPLineOfCode *s, int startLine, int endLine, int codeOffse
 			}
 			pos = line->Str + line->Stats->EndPos;
 			*pos = 0;
-			count = qspGetStatArgs(paramPos, statCode, args);
+			count = qspGetStatArgs(paramPos, line->Stats, args);
 			*pos = QSP_COLONDELIM[0];
 			if (qspRefreshCount != oldRefreshCount || qspErrorNum) break;
 			if (statCode == qspStatIf || statCode == qspStatElseIf)
 			{
-				elsePos = qspSearchElse(s, i, endLine);
+				elsePos = qspSearchElse(s, i - 1, endLine);
 				if (QSP_NUM(args[0]))
 				{
 					if (elsePos < 0) continue;
@@ -523,14 +589,14 @@ QSP_BOOL qspExecCode(QSPLineOfCode *s, int startLine, int endLine, int codeOffse
 				qspSetError(QSP_ERR_COLONNOTFOUND);
 				break;
 			}
-			endPos = qspSearchEnd(s, ++i, endLine);
+			endPos = qspSearchEnd(s, i++, endLine);
 			if (endPos < 0)
 			{
 				qspSetError(QSP_ERR_ENDNOTFOUND);
 				break;
 			}
 			*pos = 0;
-			qspGetStatArgs(paramPos, qspStatElseIf, args);
+			qspGetStatArgs(paramPos, line->Stats, args);
 			*pos = QSP_COLONDELIM[0];
 			if (qspRefreshCount != oldRefreshCount || qspErrorNum) break;
 			if (QSP_NUM(args[0]))
@@ -540,14 +606,14 @@ QSP_BOOL qspExecCode(QSPLineOfCode *s, int startLine, int endLine, int codeOffse
 			}
 			else
 			{
-				elsePos = qspSearchElse(s, i, endLine);
+				elsePos = qspSearchElse(s, i - 1, endLine);
 				i = (elsePos < 0 ? endPos : elsePos);
 				continue;
 			}
 		}
 		else if (statCode == qspStatElse)
 		{
-			endPos = qspSearchEnd(s, ++i, endLine);
+			endPos = qspSearchEnd(s, i++, endLine);
 			if (endPos < 0)
 			{
 				qspSetError(QSP_ERR_ENDNOTFOUND);
@@ -557,7 +623,7 @@ QSP_BOOL qspExecCode(QSPLineOfCode *s, int startLine, int endLine, int codeOffse
 				isExit = qspExecString(line, 1, line->StatsCount, jumpTo);
 			else
 			{
-				elsePos = qspSearchElse(s, i, endLine);
+				elsePos = qspSearchElse(s, i - 1, endLine);
 				if (elsePos < 0) continue;
 				isExit = qspExecCode(s, i, elsePos, codeOffset, jumpTo);
 			}
@@ -597,7 +663,7 @@ void qspExecStringAsCodeWithArgs(QSP_CHAR *s, QSPVariant *args, int count)
 	if (!(var = qspVarReference(QSP_VARARGS, QSP_TRUE))) return;
 	qspMoveVar(&local, var);
 	qspSetArgs(var, args, count);
-	count = qspPreprocessData(s, &strs);
+	count = qspGetPreparedCode(s, &strs);
 	oldRefreshCount = qspRefreshCount;
 	qspExecCode(strs, 0, count, 0, 0);
 	qspFreePrepLines(strs, count);
@@ -643,6 +709,7 @@ void qspInitLineOfCode(QSPLineOfCode *line, QSP_CHAR *str, int lineNum)
 	QSP_CHAR ch, *uStr, *nextPos, *temp, *buf, *elsePos, *delimPos = 0, *paramPos = 0;
 	line->Str = str;
 	line->LineNum = lineNum;
+	line->EndOffset = line->ElseOffset = line->LabelOffset = 0;
 	line->StatsCount = 0;
 	line->Stats = 0;
 	buf = qspSkipSpaces(str);
@@ -706,6 +773,7 @@ void qspInitLineOfCode(QSPLineOfCode *line, QSP_CHAR *str, int lineNum)
 				line->Stats[count].ParamPos = (int)(qspSkipSpaces(paramPos) - str);
 			else
 				line->Stats[count].ParamPos = (int)(buf - str);
+			line->Stats[count].Compiled = (qspStats[statCode].MaxArgsCount || statCode == qspStatSet ? qspNewCompiledStat() : 0);
 			++count;
 			buf = qspSkipSpaces(nextPos);
 			paramPos = 0;
@@ -778,6 +846,7 @@ void qspInitLineOfCode(QSPLineOfCode *line, QSP_CHAR *str, int lineNum)
 		line->Stats[count].ParamPos = (int)(qspSkipSpaces(paramPos) - str);
 	else
 		line->Stats[count].ParamPos = (int)(buf - str);
+	line->Stats[count].Compiled = (qspStats[statCode].MaxArgsCount || statCode == qspStatSet ? qspNewCompiledStat() : 0);
 	switch (line->Stats->Stat)
 	{
 	case qspStatAct:
@@ -841,7 +910,7 @@ static QSP_BOOL qspStatementIf(QSPLineOfCode *s, int startStat, int endStat, QSP
 	}
 	oldRefreshCount = qspRefreshCount;
 	*pos = 0;
-	qspGetStatArgs(s->Str + s->Stats[startStat].ParamPos, qspStatIf, &arg);
+	qspGetStatArgs(s->Str + s->Stats[startStat].ParamPos, s->Stats + startStat, &arg);
 	*pos = QSP_COLONDELIM[0];
 	if (qspRefreshCount != oldRefreshCount || qspErrorNum) return QSP_FALSE;
 	if (QSP_NUM(arg))
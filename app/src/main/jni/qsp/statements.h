@@ -106,7 +106,7 @@
 
 	/* External functions */
 	void qspInitStats();
-	int qspGetStatArgs(QSP_CHAR *, int, QSPVariant *);
+	int qspGetStatArgs(QSP_CHAR *, QSPCachedStat *, QSPVariant *);
 	QSP_BOOL qspExecCode(QSPLineOfCode *, int, int, int, QSP_CHAR **);
 	void qspExecStringAsCodeWithArgs(QSP_CHAR *, QSPVariant *, int);
 	QSP_CHAR *qspGetLineLabel(QSP_CHAR *);
@@ -20,9 +20,20 @@
 #include "errors.h"
 #include "locations.h"
 #include "mathops.h"
+#include "regexp.h"
 #include "text.h"
 
-QSPVar qspVars[QSP_VARSCOUNT];
+/* Таблица с открытой адресацией, размер - степень двойки */
+QSPVar **qspVars = 0;
+int qspVarsBufSize = 0;
+int qspVarsCount = 0;
+/* Освобождённые переменные не удаляются, т. к. на них могут остаться указатели */
+static QSPVar **qspFreeVars = 0;
+static int qspFreeVarsCount = 0;
+static int qspFreeVarsBufSize = 0;
+static QSPVar qspEmptyVarData;
+/* Меняется при освобождении переменных, сбрасывая закешированные ссылки на них */
+static int qspVarsGeneration = 1;
 
 unsigned char qspRand8[256] =
 {
@@ -44,38 +55,57 @@ unsigned char qspRand8[256] =
 	0xEA, 0x91, 0x34, 0xF6, 0x88, 0x43, 0x99, 0xD6, 0x89, 0x9B, 0x08, 0xF1, 0x5E, 0x1C, 0xB1, 0x13
 };
 
-static int qspIndStringCompare(const void *, const void *);
+static int qspIndsCompare(const void *, const void *);
+static int qspVarRefCompare(const void *, const void *);
+static unsigned int qspUpperStrHash(QSP_CHAR *);
+static QSP_BOOL qspIsUpperStrEqual(QSP_CHAR *, QSP_CHAR *);
+static void qspResizeVars(int);
+static void qspFreeVar(QSPVar *);
+static void qspRemoveVar(int);
+static QSPVar *qspNewVar(QSP_CHAR *, unsigned int);
 static void qspRemoveArray(QSP_CHAR *);
 static void qspRemoveArrayItem(QSP_CHAR *, int);
 static void qspInitVarData(QSPVar *);
+static void qspResetVarIndicesHash(QSPVar *);
+static void qspAddVarIndexToHash(QSPVar *, int);
+static void qspResizeVarIndicesHash(QSPVar *, int);
 static int qspGetVarTextIndex(QSPVar *, QSP_CHAR *, QSP_BOOL);
 static QSPVar *qspGetVarData(QSP_CHAR *, QSP_BOOL, int *);
 static void qspSetVarValueByReference(QSPVar *, int, QSPVariant *);
-static void qspSetVar(QSP_CHAR *, QSPVariant *, QSP_CHAR);
-static QSPVariant qspGetVarValueByReference(QSPVar *, int, QSP_BOOL);
 static void qspCopyVar(QSPVar *, QSPVar *, int, int);
 
-static int qspIndStringCompare(const void *name, const void *compareTo)
+static int qspIndsCompare(const void *ind1, const void *ind2)
 {
-	return qspStrsComp((QSP_CHAR *)name, ((QSPVarIndex *)compareTo)->Str);
+	return qspStrsComp(((QSPVarIndex *)ind1)->Str, ((QSPVarIndex *)ind2)->Str);
+}
+
+static int qspVarRefCompare(const void *ref1, const void *ref2)
+{
+	return ((QSPVarRef *)ref1)->Index - ((QSPVarRef *)ref2)->Index;
 }
 
 void qspClearVars(QSP_BOOL isFirst)
 {
 	int i;
-	QSPVar *var = qspVars;
-	for (i = 0; i < QSP_VARSCOUNT; ++i)
+	QSPVar *var;
+	if (isFirst)
 	{
-		if (isFirst)
-			qspInitVarData(var);
-		else
+		qspVars = 0;
+		qspVarsBufSize = 0;
+		qspFreeVars = 0;
+		qspFreeVarsCount = qspFreeVarsBufSize = 0;
+	}
+	else
+	{
+		for (i = 0; i < qspVarsBufSize; ++i)
 		{
-			if (var->Name) free(var->Name);
-			qspEmptyVar(var);
+			if (!(var = qspVars[i])) continue;
+			qspFreeVar(var);
+			qspVars[i] = 0;
 		}
-		var->Name = 0;
-		++var;
 	}
+	qspVarsCount = 0;
+	++qspVarsGeneration;
 }
 
 void qspEmptyVar(QSPVar *var)
@@ -95,14 +125,52 @@ void qspEmptyVar(QSPVar *var)
 			free(var->Indices[count].Str);
 		free(var->Indices);
 	}
+	if (var->IndsHash) free(var->IndsHash);
 	qspInitVarData(var);
 }
 
+static void qspFreeVar(QSPVar *var)
+{
+	free(var->Name);
+	qspEmptyVar(var);
+	var->Name = 0;
+	if (qspFreeVarsCount == qspFreeVarsBufSize)
+	{
+		qspFreeVarsBufSize += QSP_VARSMINBUFSIZE;
+		qspFreeVars = (QSPVar **)realloc(qspFreeVars, qspFreeVarsBufSize * sizeof(QSPVar *));
+	}
+	qspFreeVars[qspFreeVarsCount++] = var;
+}
+
+/* Удаляет переменную из позиции ind таблицы, сдвигая на её место переменные из той же цепочки */
+static void qspRemoveVar(int ind)
+{
+	int i, j, mask = qspVarsBufSize - 1;
+	QSPVar *var;
+	qspFreeVar(qspVars[ind]);
+	qspVars[ind] = 0;
+	for (i = (ind + 1) & mask; var = qspVars[i]; i = (i + 1) & mask)
+	{
+		j = var->NameHash & mask;
+		/* Переменная остаётся на месте, если её исходная позиция лежит между ind и i */
+		if (ind < i ? (ind < j && j <= i) : (ind < j || j <= i)) continue;
+		qspVars[ind] = var;
+		qspVars[i] = 0;
+		ind = i;
+	}
+	--qspVarsCount;
+	++qspVarsGeneration;
+}
+
 static void qspRemoveArray(QSP_CHAR *name)
 {
+	int i, mask;
 	QSPVar *var;
 	if (!(var = qspVarReferenceWithType(name, QSP_FALSE, 0))) return;
-	qspEmptyVar(var);
+	if (var == &qspEmptyVarData) return;
+	mask = qspVarsBufSize - 1;
+	for (i = var->NameHash & mask; qspVars[i] != var; i = (i + 1) & mask);
+	qspRemoveVar(i);
 }
 
 static void qspRemoveArrayItem(QSP_CHAR *name, int index)
@@ -110,7 +178,7 @@ static void qspRemoveArrayItem(QSP_CHAR *name, int index)
 	QSPVar *var;
 	QSP_BOOL isRemoving;
 	QSPVarIndex *ind;
-	int origIndex;
+	int origIndex, origIndsCount;
 	if (!(var = qspVarReferenceWithType(name, QSP_FALSE, 0))) return;
 	if (index < 0 || index >= var->ValsCount) return;
 	origIndex = index;
@@ -122,6 +190,7 @@ static void qspRemoveArrayItem(QSP_CHAR *name, int index)
 		++index;
 	}
 	isRemoving = QSP_FALSE;
+	origIndsCount = var->IndsCount;
 	for (index = 0; index < var->IndsCount; ++index)
 	{
 		ind = var->Indices + index;
@@ -135,6 +204,7 @@ static void qspRemoveArrayItem(QSP_CHAR *name, int index)
 		if (isRemoving) *ind = var->Indices[index + 1];
 		if (ind->Index > origIndex) ind->Index--;
 	}
+	if (var->IndsCount != origIndsCount) qspResetVarIndicesHash(var);
 }
 
 static void qspInitVarData(QSPVar *var)
@@ -144,45 +214,135 @@ static void qspInitVarData(QSPVar *var)
 	var->Indices = 0;
 	var->IndsCount = 0;
 	var->IndsBufSize = 0;
+	var->IndsHash = 0;
+	var->IndsHashBufSize = 0;
 }
 
-QSPVar *qspVarReference(QSP_CHAR *name, QSP_BOOL isCreate)
+/* Сбрасывает хеш текстовых индексов, он будет построен заново при следующем поиске */
+static void qspResetVarIndicesHash(QSPVar *var)
+{
+	if (var->IndsHash) free(var->IndsHash);
+	var->IndsHash = 0;
+	var->IndsHashBufSize = 0;
+}
+
+static void qspAddVarIndexToHash(QSPVar *var, int pos)
+{
+	int i, mask = var->IndsHashBufSize - 1;
+	for (i = var->Indices[pos].Hash & mask; var->IndsHash[i]; i = (i + 1) & mask);
+	/* Хранятся позиции в Indices, увеличенные на 1; 0 - свободная ячейка */
+	var->IndsHash[i] = pos + 1;
+}
+
+static void qspResizeVarIndicesHash(QSPVar *var, int bufSize)
 {
 	int i;
+	if (var->IndsHash) free(var->IndsHash);
+	var->IndsHash = (int *)calloc(bufSize, sizeof(int));
+	var->IndsHashBufSize = bufSize;
+	for (i = 0; i < var->IndsCount; ++i)
+		qspAddVarIndexToHash(var, i);
+}
+
+/* Упорядочивает текстовые индексы по строкам, как того требует формат сохранений */
+void qspSortVarIndices(QSPVar *var)
+{
+	int i;
+	for (i = 1; i < var->IndsCount; ++i)
+		if (qspStrsComp(var->Indices[i - 1].Str, var->Indices[i].Str) > 0) break;
+	if (i >= var->IndsCount) return;
+	qsort(var->Indices, var->IndsCount, sizeof(QSPVarIndex), qspIndsCompare);
+	qspResetVarIndicesHash(var);
+}
+
+static unsigned int qspUpperStrHash(QSP_CHAR *str)
+{
+	unsigned int hash = 2166136261U;
+	while (*str)
+	{
+		hash ^= (unsigned int)(QSP_CHAR)QSP_CHRUPR(*str);
+		hash *= 16777619U;
+		++str;
+	}
+	return hash;
+}
+
+/* Сравнивает строку в верхнем регистре uStr со строкой str без учёта регистра */
+static QSP_BOOL qspIsUpperStrEqual(QSP_CHAR *uStr, QSP_CHAR *str)
+{
+	while (*str)
+	{
+		if (*uStr != (QSP_CHAR)QSP_CHRUPR(*str)) return QSP_FALSE;
+		++uStr;
+		++str;
+	}
+	return !*uStr;
+}
+
+static void qspResizeVars(int bufSize)
+{
+	int i, j, mask = bufSize - 1;
+	QSPVar *var, **vars = (QSPVar **)calloc(bufSize, sizeof(QSPVar *));
+	for (i = 0; i < qspVarsBufSize; ++i)
+	{
+		if (!(var = qspVars[i])) continue;
+		for (j = var->NameHash & mask; vars[j]; j = (j + 1) & mask);
+		vars[j] = var;
+	}
+	if (qspVars) free(qspVars);
+	qspVars = vars;
+	qspVarsBufSize = bufSize;
+}
+
+static QSPVar *qspNewVar(QSP_CHAR *name, unsigned int hash)
+{
+	QSPVar *var;
+	if (qspFreeVarsCount)
+		var = qspFreeVars[--qspFreeVarsCount];
+	else
+	{
+		var = (QSPVar *)malloc(sizeof(QSPVar));
+		qspInitVarData(var);
+	}
+	qspUpperStr(var->Name = qspGetNewText(name, -1));
+	var->NameHash = hash;
+	return var;
+}
+
+QSPVar *qspVarReference(QSP_CHAR *name, QSP_BOOL isCreate)
+{
+	int i, mask;
+	unsigned int hash;
 	QSPVar *var;
-	QSP_CHAR *uName;
-	unsigned char bCode;
 	if (*name == QSP_STRCHAR[0]) ++name;
 	if (!(*name) || qspIsDigit(*name) || qspStrPBrk(name, QSP_DELIMS))
 	{
 		qspSetError(QSP_ERR_NOTCORRECTNAME);
 		return 0;
 	}
-	qspUpperStr(uName = qspGetNewText(name, -1));
-	bCode = 0;
-	for (i = 0; uName[i]; ++i)
-		bCode = qspRand8[bCode ^ QSP_MBTOSB(uName[i])];
-	var = qspVars + QSP_VARSSEEK * bCode;
-	for (i = 0; i < QSP_VARSSEEK; ++i)
+	hash = qspUpperStrHash(name);
+	mask = qspVarsBufSize - 1;
+	if (qspVarsBufSize)
 	{
-		if (!var->Name)
-		{
-			if (isCreate)
-				var->Name = uName;
-			else
-				free(uName);
-			return var;
-		}
-		if (!qspStrsComp(var->Name, uName))
-		{
-			free(uName);
-			return var;
-		}
-		++var;
+		for (i = hash & mask; var = qspVars[i]; i = (i + 1) & mask)
+			if (var->NameHash == hash && qspIsUpperStrEqual(var->Name, name)) return var;
 	}
-	free(uName);
-	qspSetError(QSP_ERR_TOOMANYVARS);
-	return 0;
+	if (!isCreate)
+	{
+		/* Переменная не существует, возвращаем пустую */
+		qspEmptyVarData.Name = 0;
+		qspInitVarData(&qspEmptyVarData);
+		return &qspEmptyVarData;
+	}
+	if ((qspVarsCount + 1) * 4 > qspVarsBufSize * 3)
+	{
+		qspResizeVars(qspVarsBufSize ? qspVarsBufSize * 2 : QSP_VARSMINBUFSIZE);
+		mask = qspVarsBufSize - 1;
+		for (i = hash & mask; qspVars[i]; i = (i + 1) & mask);
+	}
+	var = qspVars[i] = qspNewVar(name, hash);
+	++qspVarsCount;
+	return var;
 }
 
 QSPVar *qspVarReferenceWithType(QSP_CHAR *name, QSP_BOOL isCreate, QSP_BOOL *isString)
@@ -195,51 +355,76 @@ QSPVar *qspVarReferenceWithType(QSP_CHAR *name, QSP_BOOL isCreate, QSP_BOOL *isS
 	return var;
 }
 
+/* Ссылка на переменную, запомненная в slot до освобождения переменных */
+QSPVar *qspVarReferenceBySlot(QSPVarSlot *slot)
+{
+	QSPVar *var;
+	if (slot->Var && slot->VarsGeneration == qspVarsGeneration) return slot->Var;
+	if (!(var = qspVarReference(slot->Name, QSP_FALSE))) return 0;
+	if (var != &qspEmptyVarData)
+	{
+		slot->Var = var;
+		slot->VarsGeneration = qspVarsGeneration;
+	}
+	return var;
+}
+
 static int qspGetVarTextIndex(QSPVar *var, QSP_CHAR *str, QSP_BOOL isCreate)
 {
-	QSP_CHAR *uStr;
 	QSPVarIndex *ind;
-	int i, n = var->IndsCount;
-	qspUpperStr(uStr = qspGetNewText(str, -1));
+	int i, mask, bufSize, n = var->IndsCount;
+	unsigned int hash = qspUpperStrHash(str);
 	if (n > 0)
 	{
-		ind = (QSPVarIndex *)bsearch(uStr, var->Indices, n, sizeof(QSPVarIndex), qspIndStringCompare);
-		if (ind)
+		if (!var->IndsHash)
+		{
+			for (i = 0; i < n; ++i)
+				var->Indices[i].Hash = qspUpperStrHash(var->Indices[i].Str);
+			for (bufSize = QSP_INDSMINBUFSIZE * 2; bufSize < n * 2; bufSize *= 2);
+			qspResizeVarIndicesHash(var, bufSize);
+		}
+		mask = var->IndsHashBufSize - 1;
+		for (i = hash & mask; var->IndsHash[i]; i = (i + 1) & mask)
 		{
-			free(uStr);
-			return ind->Index;
+			ind = var->Indices + var->IndsHash[i] - 1;
+			if (ind->Hash == hash && qspIsUpperStrEqual(ind->Str, str)) return ind->Index;
 		}
 	}
 	if (isCreate)
 	{
-		var->IndsCount++;
 		if (var->IndsBufSize == n)
 		{
-			var->IndsBufSize += 8;
+			var->IndsBufSize = (n ? n * 2 : QSP_INDSMINBUFSIZE);
 			var->Indices = (QSPVarIndex *)realloc(var->Indices, var->IndsBufSize * sizeof(QSPVarIndex));
 		}
-		i = n - 1;
-		while (i >= 0 && qspStrsComp(var->Indices[i].Str, uStr) > 0)
-		{
-			var->Indices[i + 1] = var->Indices[i];
-			--i;
-		}
-		++i;
-		n = var->ValsCount;
-		var->Indices[i].Str = uStr;
-		var->Indices[i].Index = n;
-		return n;
+		ind = var->Indices + n;
+		qspUpperStr(ind->Str = qspGetNewText(str, -1));
+		ind->Hash = hash;
+		ind->Index = var->ValsCount;
+		var->IndsCount = n + 1;
+		if (var->IndsCount * 2 > var->IndsHashBufSize)
+			qspResizeVarIndicesHash(var, var->IndsHashBufSize ? var->IndsHashBufSize * 2 : QSP_INDSMINBUFSIZE * 2);
+		else
+			qspAddVarIndexToHash(var, n);
+		return ind->Index;
 	}
-	free(uStr);
 	return var->ValsCount;
 }
 
+/* Индекс элемента массива для чтения; index == 0 - последний элемент */
+int qspGetVarItemIndex(QSPVar *var, QSPVariant *index)
+{
+	if (!index) return (var->ValsCount ? var->ValsCount - 1 : 0);
+	if (index->IsStr) return qspGetVarTextIndex(var, QSP_PSTR(index), QSP_FALSE);
+	return QSP_PNUM(index);
+}
+
 static QSPVar *qspGetVarData(QSP_CHAR *s, QSP_BOOL isSet, int *index)
 {
 	QSPVar *var;
 	QSPVariant ind;
-	int oldRefreshCount;
-	QSP_CHAR *rPos, *lPos = qspStrChar(s, QSP_LSBRACK[0]);
+	int oldRefreshCount, oldVarsGeneration;
+	QSP_CHAR *name = s, *rPos, *lPos = qspStrChar(s, QSP_LSBRACK[0]);
 	if (lPos)
 	{
 		*lPos = 0;
@@ -263,10 +448,18 @@ static QSPVar *qspGetVarData(QSP_CHAR *s, QSP_BOOL isSet, int *index)
 		else
 		{
 			oldRefreshCount = qspRefreshCount;
+			oldVarsGeneration = qspVarsGeneration;
 			*rPos = 0;
 			ind = qspExprValue(s);
 			*rPos = QSP_RSBRACK[0];
 			if (qspRefreshCount != oldRefreshCount || qspErrorNum) return 0;
+			if (qspVarsGeneration != oldVarsGeneration)
+			{
+				/* Код в индексе мог удалить переменную */
+				*lPos = 0;
+				var = qspVarReference(name, isSet);
+				*lPos = QSP_LSBRACK[0];
+			}
 			if (ind.IsStr)
 			{
 				*index = qspGetVarTextIndex(var, QSP_STR(ind), isSet);
@@ -311,7 +504,7 @@ void qspSetVarValueByName(QSP_CHAR *name, QSPVariant *val)
 	qspSetVarValueByReference(var, 0, val);
 }
 
-static void qspSetVar(QSP_CHAR *name, QSPVariant *val, QSP_CHAR op)
+void qspSetVar(QSP_CHAR *name, QSPVariant *val, QSP_CHAR op)
 {
 	QSPVariant oldVal;
 	QSPVar *var;
@@ -384,7 +577,7 @@ static void qspSetVar(QSP_CHAR *name, QSPVariant *val, QSP_CHAR op)
 	}
 }
 
-static QSPVariant qspGetVarValueByReference(QSPVar *var, int ind, QSP_BOOL isStringType)
+QSPVariant qspGetVarValueByReference(QSPVar *var, int ind, QSP_BOOL isStringType)
 {
 	QSPVariant ret;
 	QSP_CHAR *text;
@@ -458,6 +651,8 @@ static void qspCopyVar(QSPVar *dest, QSPVar *src, int start, int count)
 		}
 		dest->IndsBufSize = 0;
 		dest->Indices = 0;
+		dest->IndsHash = 0;
+		dest->IndsHashBufSize = 0;
 		count = 0;
 		for (i = 0; i < src->IndsCount; ++i)
 		{
@@ -478,9 +673,10 @@ static void qspCopyVar(QSPVar *dest, QSPVar *src, int start, int count)
 	}
 	else
 	{
-		dest->ValsCount = dest->IndsBufSize = dest->IndsCount = 0;
+		dest->ValsCount = dest->IndsBufSize = dest->IndsCount = dest->IndsHashBufSize = 0;
 		dest->Values = 0;
 		dest->Indices = 0;
+		dest->IndsHash = 0;
 	}
 }
 
@@ -499,7 +695,6 @@ int qspArrayPos(QSPVariant *args, int argsCount, QSP_BOOL isRegExp)
 	QSP_CHAR *str;
 	OnigUChar *tempBeg, *tempEnd;
 	regex_t *onigExp;
-	OnigErrorInfo onigInfo;
 	QSP_BOOL isString;
 	if (qspConvertVariantTo(args, argsCount == 2))
 	{
@@ -526,16 +721,7 @@ int qspArrayPos(QSPVariant *args, int argsCount, QSP_BOOL isRegExp)
 		qspSetError(QSP_ERR_TYPEMISMATCH);
 		return -1;
 	}
-	if (isRegExp)
-	{
-		tempBeg = (OnigUChar *)QSP_PSTR(val);
-		tempEnd = (OnigUChar *)qspStrEnd(QSP_PSTR(val));
-		if (onig_new(&onigExp, tempBeg, tempEnd, ONIG_OPTION_DEFAULT, QSP_ONIG_ENC, ONIG_SYNTAX_PERL_NG, &onigInfo))
-		{
-			qspSetError(QSP_ERR_INCORRECTREGEXP);
-			return -1;
-		}
-	}
+	if (isRegExp && !(onigExp = qspRegExpGetCompiled(QSP_PSTR(val)))) return -1;
 	count = var->ValsCount;
 	if (ind > count) ind = count;
 	while (ind <= count)
@@ -548,10 +734,7 @@ int qspArrayPos(QSPVariant *args, int argsCount, QSP_BOOL isRegExp)
 				tempBeg = (OnigUChar *)str;
 				tempEnd = (OnigUChar *)qspStrEnd(str);
 				if (onig_match(onigExp, tempBeg, tempEnd, tempBeg, 0, ONIG_OPTION_NONE) == tempEnd - tempBeg)
-				{
-					onig_free(onigExp);
 					return ind;
-				}
 			}
 			else if (!qspStrsComp(str, QSP_PSTR(val)))
 				return ind;
@@ -563,7 +746,6 @@ int qspArrayPos(QSPVariant *args, int argsCount, QSP_BOOL isRegExp)
 		}
 		++ind;
 	}
-	if (isRegExp) onig_free(onigExp);
 	return -1;
 }
 
@@ -622,9 +804,43 @@ QSPVariant qspArrayMinMaxItem(QSP_CHAR *name, QSP_BOOL isMin)
 
 int qspGetVarsCount()
 {
-	int i, count = 0;
-	for (i = 0; i < QSP_VARSCOUNT; ++i)
-		if (qspVars[i].Name) ++count;
+	return qspVarsCount;
+}
+
+/* Возвращает переменные, упорядоченные по индексам в прежней таблице из 256 блоков по QSP_VARSSEEK.
+   Такие индексы понимают и другие версии библиотеки. Переменные, не поместившиеся в свой блок
+   (прежняя версия не смогла бы их создать), получают индексы после QSP_VARSCOUNT.
+   Это расширение формата сохранений: другие версии библиотеки отклоняют такие индексы
+   и не открывают сохранение целиком, поэтому они появляются только в сохранениях игр,
+   которые не работали бы в прежней версии. */
+int qspGetVarsSaveOrder(QSPVarRef **refs)
+{
+	int i, count = 0, extraInd = QSP_VARSCOUNT;
+	unsigned char bCode, bucketsCounts[256];
+	QSP_CHAR *name;
+	QSPVar *var;
+	QSPVarRef *ret;
+	if (!qspVarsCount)
+	{
+		*refs = 0;
+		return 0;
+	}
+	memset(bucketsCounts, 0, sizeof(bucketsCounts));
+	ret = (QSPVarRef *)malloc(qspVarsCount * sizeof(QSPVarRef));
+	for (i = 0; i < qspVarsBufSize; ++i)
+	{
+		if (!(var = qspVars[i])) continue;
+		bCode = 0;
+		for (name = var->Name; *name; ++name)
+			bCode = qspRand8[bCode ^ QSP_MBTOSB(*name)];
+		if (bucketsCounts[bCode] < QSP_VARSSEEK)
+			ret[count].Index = QSP_VARSSEEK * bCode + bucketsCounts[bCode]++;
+		else
+			ret[count].Index = extraInd++;
+		ret[count++].Var = var;
+	}
+	qsort(ret, count, sizeof(QSPVarRef), qspVarRefCompare);
+	*refs = ret;
 	return count;
 }
 
@@ -641,6 +857,8 @@ void qspMoveVar(QSPVar *dest, QSPVar *src)
 	dest->Indices = src->Indices;
 	dest->IndsCount = src->IndsCount;
 	dest->IndsBufSize = src->IndsBufSize;
+	dest->IndsHash = src->IndsHash;
+	dest->IndsHashBufSize = src->IndsHashBufSize;
 	qspInitVarData(src);
 }
 
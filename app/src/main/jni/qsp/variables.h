@@ -21,8 +21,11 @@
 #ifndef QSP_VARSDEFINES
 	#define QSP_VARSDEFINES
 
+	/* Размеры прежней таблицы переменных, нужны для совместимости формата сохранений */
 	#define QSP_VARSSEEK 50
 	#define QSP_VARSCOUNT 256 * QSP_VARSSEEK
+	#define QSP_VARSMINBUFSIZE 256
+	#define QSP_INDSMINBUFSIZE 8
 	#define QSP_VARARGS QSP_FMT("ARGS")
 	#define QSP_VARRES QSP_FMT("RESULT")
 
@@ -36,25 +39,48 @@
 	{
 		int Index;
 		QSP_CHAR *Str;
+		unsigned int Hash;
 	} QSPVarIndex;
 
 	typedef struct
 	{
 		QSP_CHAR *Name;
+		unsigned int NameHash;
 		QSPVarValue *Values;
 		int ValsCount;
 		QSPVarIndex *Indices;
 		int IndsCount;
 		int IndsBufSize;
+		int *IndsHash;
+		int IndsHashBufSize;
 	} QSPVar;
 
-	extern QSPVar qspVars[QSP_VARSCOUNT];
+	typedef struct
+	{
+		int Index;
+		QSPVar *Var;
+	} QSPVarRef;
+
+	typedef struct
+	{
+		QSP_CHAR *Name;
+		QSPVar *Var;
+		int VarsGeneration;
+	} QSPVarSlot;
+
+	extern QSPVar **qspVars;
+	extern int qspVarsBufSize;
+	extern int qspVarsCount;
 
 	/* External functions */
 	void qspClearVars(QSP_BOOL);
 	void qspEmptyVar(QSPVar *);
 	QSPVar *qspVarReference(QSP_CHAR *, QSP_BOOL);
 	QSPVar *qspVarReferenceWithType(QSP_CHAR *, QSP_BOOL, QSP_BOOL *);
+	QSPVar *qspVarReferenceBySlot(QSPVarSlot *);
+	int qspGetVarItemIndex(QSPVar *, QSPVariant *);
+	QSPVariant qspGetVarValueByReference(QSPVar *, int, QSP_BOOL);
+	void qspSetVar(QSP_CHAR *, QSPVariant *, QSP_CHAR);
 	void qspSetVarValueByName(QSP_CHAR *, QSPVariant *);
 	QSP_CHAR *qspGetVarStrValue(QSP_CHAR *);
 	int qspGetVarNumValue(QSP_CHAR *);
@@ -63,6 +89,8 @@
 	int qspArrayPos(QSPVariant *, int, QSP_BOOL);
 	QSPVariant qspArrayMinMaxItem(QSP_CHAR *, QSP_BOOL);
 	int qspGetVarsCount();
+	int qspGetVarsSaveOrder(QSPVarRef **);
+	void qspSortVarIndices(QSPVar *);
 	void qspSetArgs(QSPVar *, QSPVariant *, int);
 	void qspMoveVar(QSPVar *, QSPVar *);
 	/* Statements */
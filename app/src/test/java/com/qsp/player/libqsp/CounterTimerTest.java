@@ -0,0 +1,62 @@
+package com.qsp.player.libqsp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CounterTimerTest {
+
+    @Test
+    public void next_keepsDeadlinesOnGrid() {
+        CounterTimer timer = new CounterTimer();
+        timer.setInterval(100);
+        assertEquals(1100, timer.start(1000));
+
+        timer.onTick(1130);
+        assertEquals(1200, timer.next(1140));
+        timer.onTick(1205);
+        assertEquals(1300, timer.next(1210));
+
+        assertEquals(2, timer.getTicksCount());
+        assertEquals(1, timer.getLateTicksCount());
+        assertEquals(30, timer.getMaxLateness());
+        assertEquals(0, timer.getSkippedTicksCount());
+    }
+
+    @Test
+    public void next_afterOverrun_skipsMissedTicks() {
+        CounterTimer timer = new CounterTimer();
+        timer.setInterval(100);
+        timer.start(0);
+
+        timer.onTick(100);
+        assertEquals(400, timer.next(350));
+        assertEquals(2, timer.getSkippedTicksCount());
+
+        timer.onTick(400);
+        assertEquals(500, timer.next(500));
+        assertEquals(2, timer.getSkippedTicksCount());
+
+        timer.onTick(500);
+        assertEquals(800, timer.next(800));
+        assertEquals(4, timer.getSkippedTicksCount());
+    }
+
+    @Test
+    public void setInterval_appliesToNextDeadline() {
+        CounterTimer timer = new CounterTimer();
+        assertEquals(CounterTimer.DEFAULT_INTERVAL, timer.getInterval());
+        timer.start(0);
+        timer.setInterval(0);
+        assertEquals(1, timer.getInterval());
+
+        timer.setInterval(50);
+        timer.onTick(500);
+        assertEquals(550, timer.next(510));
+        assertTrue(timer.isRunning());
+        timer.stop();
+        assertFalse(timer.isRunning());
+    }
+}
@@ -0,0 +1,77 @@
+package com.qsp.player.service;
+
+import com.qsp.player.util.SaveContainer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AutosaveWriterTest {
+
+    @TempDir
+    File savesDir;
+
+    @Test
+    public void submit_rotatesSlots() throws Exception {
+        AutosaveWriter writer = new AutosaveWriter(3);
+        ArrayList<String> written = new ArrayList<>();
+        for (byte i = 1; i <= 4; ++i) {
+            writer.submit(savesDir, new byte[]{i}, true, slotFile -> written.add(slotFile.getName()));
+            assertTrue(writer.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList("autosave1.sav", "autosave2.sav", "autosave3.sav", "autosave1.sav"), written);
+        assertArrayEquals(new byte[]{4}, readSlot(1));
+        assertArrayEquals(new byte[]{2}, readSlot(2));
+        assertArrayEquals(new byte[]{3}, readSlot(3));
+        assertFalse(new File(savesDir, "autosave.tmp").exists());
+    }
+
+    @Test
+    public void submit_burst_writesLastSnapshot() throws Exception {
+        AutosaveWriter writer = new AutosaveWriter(2);
+        for (byte i = 1; i <= 100; ++i) {
+            writer.submit(savesDir, new byte[]{i}, true, null);
+        }
+        assertTrue(writer.await(5, TimeUnit.SECONDS));
+
+        File[] files = savesDir.listFiles();
+        assertTrue(files.length >= 1 && files.length <= 2);
+        boolean lastWritten = false;
+        for (File file : files) {
+            lastWritten |= readSave(file)[0] == 100;
+        }
+        assertTrue(lastWritten);
+    }
+
+    @Test
+    public void submit_uncompressed_writesRawData() throws Exception {
+        AutosaveWriter writer = new AutosaveWriter(1);
+        byte[] data = {'L', 0, 'N', 0};
+        writer.submit(savesDir, data, false, null);
+        assertTrue(writer.await(5, TimeUnit.SECONDS));
+
+        assertArrayEquals(data, Files.readAllBytes(new File(savesDir, "autosave1.sav").toPath()));
+    }
+
+    private byte[] readSlot(int slot) throws IOException {
+        return readSave(new File(savesDir, "autosave" + slot + ".sav"));
+    }
+
+    private static byte[] readSave(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return SaveContainer.read(in);
+        }
+    }
+}
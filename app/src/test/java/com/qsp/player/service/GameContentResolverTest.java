@@ -0,0 +1,53 @@
+package com.qsp.player.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameContentResolverTest {
+    private final GameContentResolver sut = new GameContentResolver();
+
+    @TempDir
+    File gameDir;
+
+    private File image;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        File dir = new File(gameDir, "Images/Items");
+        assertTrue(dir.mkdirs());
+        image = new File(dir, "Sword.PNG");
+        assertTrue(image.createNewFile());
+        sut.setGameDir(gameDir);
+    }
+
+    @Test
+    public void getFile_ignoresCase() {
+        assertEquals(image, sut.getFile("images/items/sword.png"));
+    }
+
+    @Test
+    public void getFile_normalizesPath() {
+        assertEquals(image, sut.getFile("./IMAGES\\Items\\Sword.png"));
+    }
+
+    @Test
+    public void getFile_fileCreatedAfterIndexing() throws IOException {
+        File file = new File(gameDir, "Images/new.png");
+        assertTrue(file.createNewFile());
+
+        assertEquals(file, sut.getFile("Images/new.png"));
+    }
+
+    @Test
+    public void getFile_notFound() {
+        assertNull(sut.getFile("images/shield.png"));
+    }
+}
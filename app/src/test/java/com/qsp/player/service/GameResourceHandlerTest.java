@@ -0,0 +1,131 @@
+package com.qsp.player.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameResourceHandlerTest {
+    private final GameContentResolver gameContentResolver = new GameContentResolver();
+    private final GameResourceHandler sut = new GameResourceHandler(gameContentResolver, 1024, 4096);
+
+    @TempDir
+    File gameDir;
+
+    private byte[] video;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        File dir = new File(gameDir, "Media");
+        assertTrue(dir.mkdirs());
+        writeFile(new File(dir, "Style.CSS"), "body { color: red; }".getBytes());
+        video = new byte[10000];
+        for (int i = 0; i < video.length; ++i) {
+            video[i] = (byte) i;
+        }
+        writeFile(new File(dir, "clip.mp4"), video);
+        gameContentResolver.setGameDir(gameDir);
+    }
+
+    @Test
+    public void handle_smallFile_servedFromMemory() throws IOException {
+        GameResourceHandler.Response response = sut.handle("media\\style.css", null);
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("text/css", response.getMimeType());
+        assertEquals("body { color: red; }", new String(readAll(response.getData())));
+
+        assertTrue(new File(gameDir, "Media/Style.CSS").delete());
+        response = sut.handle("./Media/Style.css", null);
+
+        assertEquals("body { color: red; }", new String(readAll(response.getData())));
+    }
+
+    @Test
+    public void handle_range_returnsPartialContent() throws IOException {
+        GameResourceHandler.Response response = sut.handle("media/clip.mp4", "bytes=100-199");
+
+        assertEquals(206, response.getStatusCode());
+        assertEquals("video/mp4", response.getMimeType());
+        assertEquals("bytes 100-199/10000", response.getHeaders().get("Content-Range"));
+        assertEquals("100", response.getHeaders().get("Content-Length"));
+        assertArrayEquals(Arrays.copyOfRange(video, 100, 200), readAll(response.getData()));
+
+        response = sut.handle("media/clip.mp4", "bytes=-10");
+        assertArrayEquals(Arrays.copyOfRange(video, 9990, 10000), readAll(response.getData()));
+
+        response = sut.handle("media/clip.mp4", "bytes=9000-");
+        assertEquals("bytes 9000-9999/10000", response.getHeaders().get("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(video, 9000, 10000), readAll(response.getData()));
+    }
+
+    @Test
+    public void handle_invalidRange() throws IOException {
+        GameResourceHandler.Response response = sut.handle("media/clip.mp4", "bytes=20000-");
+        assertEquals(416, response.getStatusCode());
+        assertEquals("bytes */10000", response.getHeaders().get("Content-Range"));
+
+        response = sut.handle("media/clip.mp4", "items=1-2");
+        assertEquals(200, response.getStatusCode());
+        assertArrayEquals(video, readAll(response.getData()));
+    }
+
+    @Test
+    public void handle_gameReloaded_servesUpdatedFile() throws IOException {
+        assertEquals("body { color: red; }", new String(readAll(sut.handle("media/style.css", null).getData())));
+
+        writeFile(new File(gameDir, "Media/Style.CSS"), "body { color: blue; }".getBytes());
+        gameContentResolver.setGameDir(gameDir);
+
+        GameResourceHandler.Response response = sut.handle("media/style.css", null);
+        assertEquals("21", response.getHeaders().get("Content-Length"));
+        assertEquals("body { color: blue; }", new String(readAll(response.getData())));
+    }
+
+    @Test
+    public void handle_largeFileModified_servesUpdatedFile() throws IOException {
+        assertEquals("10000", sut.handle("media/clip.mp4", null).getHeaders().get("Content-Length"));
+
+        File file = new File(gameDir, "Media/clip.mp4");
+        byte[] shorter = Arrays.copyOf(video, 5000);
+        writeFile(file, shorter);
+
+        GameResourceHandler.Response response = sut.handle("media/clip.mp4", "bytes=4000-");
+        assertEquals("bytes 4000-4999/5000", response.getHeaders().get("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(shorter, 4000, 5000), readAll(response.getData()));
+    }
+
+    @Test
+    public void handle_missingFile_returnsNull() {
+        assertNull(sut.handle("media/missing.png", null));
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int bytesRead;
+            while ((bytesRead = stream.read(buffer)) > 0) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.qsp.player.service;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Сравнивает результаты {@link HtmlProcessor} и {@link LegacyHtmlProcessor}. Результаты
+ * сравниваются после разбора в DOM, так как прежняя реализация экранировала текст и атрибуты;
+ * для корректного HTML, который прежняя реализация не меняла, результаты сравниваются как есть.
+ */
+class HtmlProcessorGoldenTest {
+    private static final List<String> CASES = Arrays.asList(
+            "Plain text",
+            "Русский текст",
+            "Test1 \\\"Test2\\\" Test3",
+            "Line1\nLine2\r\nLine3\r\n",
+            "<b>Bold</b> and <i>italic</i>\n<font color=\"red\">red</font>",
+            "<a href=\"exec:gt 'loc'\">Go</a>",
+            "<A HREF=\"EXEC:gt 'loc'\">Upper</A>",
+            "<a href=\"exec:gt \\\"loc\\\"\">Escaped</a>",
+            "<a href=\"exec:view 'images\\pic.png'\">Backslashes</a>",
+            "<a href=\"exec:act\n*pl 1\">Multiline</a>",
+            "<a href=\"exec:unfinished",
+            "Not a link: href=\"exec:x\" in text",
+            "<a href=\\\"exec:gt 'loc'\\\">Escaped href</a>",
+            "<img src=\"wide.png\">",
+            "<img src=\"narrow.png\">",
+            "<IMG SRC='wide.png' ALT=\"Wide\">",
+            "<img src=wide.png>",
+            "<img style=\"border:1px\" src=\"wide.png\" alt=\"a > b\">",
+            "<img src=\"narrow.png\" style=\"border:1px\">",
+            "<img src=\\\"wide.png\\\" />",
+            "<img\talt=\"x\"src=\"wide.png\">",
+            "<video src=\"clip.mp4\" autoplay loop></video>",
+            "<video muted=\"false\" style=\"width:10px\" src=\"clip.mp4\"></video>",
+            "<imgx src=\"wide.png\"> <videos>",
+            "<table><tr><td><img src=\"wide.png\"></td></tr></table>",
+            "a < b && c > d",
+            "Text &amp; entities&nbsp;here",
+            "<center><a href=\"exec:gt 1\"><img src=\"wide.png\"></a></center>\n<hr>",
+            "<a href=\"exec:'Test' & gt 'Test'\" />",
+            "<a href=\"exec:x\"/>Tail",
+            "<span title=\"a/>b\" />Tail",
+            "Line<br/>Line<br />",
+            "<video src=\"clip.mp4\" />Tail"
+    );
+
+    private static final List<String> WELL_FORMED_CASES = Arrays.asList(
+            "Plain text",
+            "Русский текст",
+            "<b>Bold</b>\nLine",
+            "<a href=\"exec:gt 'loc'\">Go</a>",
+            "<a href=\"exec:x\"></a>",
+            "<img src=\"wide.png\">",
+            "<img src=\"narrow.png\">",
+            "<video src=\"clip.mp4\" autoplay loop></video>",
+            "<center><a href=\"exec:gt 1\"><img src=\"wide.png\"></a></center>\n<hr>"
+    );
+
+    private final GameContentResolver gameContentResolver = new GameContentResolver() {
+        @Override
+        public String getAbsolutePath(String relPath) {
+            return relPath;
+        }
+    };
+    private final ImageProvider imageProvider = new ImageProvider() {
+        @Override
+        public int getImageWidth(String path) {
+            return "wide.png".equals(path) ? 800 : 100;
+        }
+    };
+    private final HtmlProcessor sut = new HtmlProcessor(gameContentResolver, imageProvider);
+    private final LegacyHtmlProcessor legacy = new LegacyHtmlProcessor(gameContentResolver, imageProvider);
+
+    @Test
+    public void convertQspHtmlToWebViewHtml_matchesLegacy() {
+        for (String html : CASES) {
+            assertEquals(
+                    normalizePage(legacy.convertQspHtmlToWebViewHtml(html)),
+                    normalizePage(sut.convertQspHtmlToWebViewHtml(html)),
+                    html);
+        }
+    }
+
+    @Test
+    public void convertQspHtmlFragmentToWebViewHtml_matchesLegacy() {
+        for (String html : CASES) {
+            assertEquals(
+                    normalizeFragment(legacy.convertQspHtmlFragmentToWebViewHtml(html)),
+                    normalizeFragment(sut.convertQspHtmlFragmentToWebViewHtml(html)),
+                    html);
+        }
+    }
+
+    @Test
+    public void convertQspHtmlToWebViewHtml_wellFormed_matchesLegacyExactly() {
+        for (String html : WELL_FORMED_CASES) {
+            assertEquals(legacy.convertQspHtmlToWebViewHtml(html), sut.convertQspHtmlToWebViewHtml(html), html);
+        }
+    }
+
+    @Test
+    public void convertQspHtmlToWebViewHtml_selfClosedLink_isClosed() {
+        String html = "<a href=\"exec:'Test' & gt 'Test'\" />";
+
+        String result = sut.convertQspHtmlToWebViewHtml(html);
+
+        assertEquals("<html><head></head><body><a href=\"exec:J1Rlc3QnICYgZ3QgJ1Rlc3Qn\"></a></body></html>", result);
+    }
+
+    private static String normalizePage(String html) {
+        Document document = Jsoup.parse(html);
+        document.outputSettings().prettyPrint(false);
+        return document.outerHtml();
+    }
+
+    private static String normalizeFragment(String html) {
+        Document document = Jsoup.parseBodyFragment(html);
+        document.outputSettings().prettyPrint(false);
+        return document.body().html();
+    }
+}
@@ -3,6 +3,8 @@ package com.qsp.player.service;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class HtmlProcessorTest {
     private final GameContentResolver gameContentResolver = new GameContentResolver();
@@ -35,4 +37,35 @@ class HtmlProcessorTest {
 
         assertEquals("Test1<br>Test2<br>Test3", result);
     }
+
+    @Test
+    public void convertQspHtmlFragmentToWebViewHtml_lineBreaks() {
+        String html = "Test1\n<b>Test2</b>";
+
+        String result = sut.convertQspHtmlFragmentToWebViewHtml(html);
+
+        assertEquals("Test1<br><b>Test2</b>", result);
+    }
+
+    @Test
+    public void canAppendToQspHtml_closedTags() {
+        assertTrue(sut.canAppendToQspHtml("Test1 <b>Test2</b>"));
+    }
+
+    @Test
+    public void canAppendToQspHtml_unfinishedTag() {
+        assertFalse(sut.canAppendToQspHtml("Test1 <a href="));
+    }
+
+    @Test
+    public void canAppendToQspHtml_unclosedElement() {
+        assertFalse(sut.canAppendToQspHtml("<b>Hello"));
+        assertFalse(sut.canAppendToQspHtml("<font color=\"a>b\"><i>1</i>"));
+        assertTrue(sut.canAppendToQspHtml("<b>Hello</b><br><img src=\"a.png\"><a href=\"exec:x\" /> a < b"));
+    }
+
+    @Test
+    public void canAppendToQspHtml_trailingBackslash() {
+        assertFalse(sut.canAppendToQspHtml("Test1 \\"));
+    }
 }
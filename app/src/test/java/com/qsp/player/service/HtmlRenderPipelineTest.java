@@ -0,0 +1,161 @@
+package com.qsp.player.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HtmlRenderPipelineTest {
+    private final HtmlProcessor htmlProcessor = new HtmlProcessor(new GameContentResolver(), new ImageProvider());
+    private final RecordingListener listener = new RecordingListener();
+    private final HtmlRenderPipeline sut = new HtmlRenderPipeline(htmlProcessor, listener);
+
+    @Test
+    public void submitMainDesc_appendedText_convertsOnlyAddedPart() throws InterruptedException {
+        submitAndAwait("Line1", false, false, 1);
+        submitAndAwait("Line1\nLine2", false, false, 2);
+        submitAndAwait("Line1\nLine2", false, false, 2);
+        submitAndAwait("Other", false, false, 3);
+
+        assertEquals(Arrays.asList(
+                "page Line1: Line1",
+                "append Line1 -> Line1\nLine2: <br>Line2",
+                "page Other: Other"), listener.events);
+    }
+
+    @Test
+    public void submitMainDesc_reload_convertsWholePage() throws InterruptedException {
+        submitAndAwait("<b>1</b>", true, false, 1);
+        submitAndAwait("<b>1</b>2", true, true, 2);
+
+        assertEquals("page <b>1</b>2: <b>1</b>2", listener.events.get(1));
+    }
+
+    @Test
+    public void submitMainDesc_appendedToUnclosedElement_convertsWholePage() throws InterruptedException {
+        submitAndAwait("<b>Hello", true, false, 1);
+        submitAndAwait("<b>Hello world</b>", true, false, 2);
+
+        assertEquals("page <b>Hello world</b>: <b>Hello world</b>", listener.events.get(1));
+    }
+
+    @Test
+    public void setPageTemplate_buildsPageByTemplate() throws InterruptedException {
+        PageTemplate template = new PageTemplate(0x000000, 0xe0e0e0, 0x0000ff, "serif", 16);
+        sut.setPageTemplate(template);
+
+        submitAndAwait("Line1\nLine2", false, false, 1);
+
+        String page = listener.events.get(0);
+        assertTrue(page.contains("background-color: #E0E0E0;"), page);
+        assertTrue(page.contains("content=\"script-src 'none'\""), page);
+        assertTrue(page.endsWith("<body>Line1<br>Line2</body>"), page);
+        assertTrue(template.matches(0x000000, 0xe0e0e0, 0x0000ff, "serif", 16));
+        assertFalse(template.matches(0x000000, 0xe0e0e0, 0x0000ff, "serif", 18));
+    }
+
+    @Test
+    public void submit_whileConverting_coalescesToNewest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        listener.blockFirstEventUntil(release);
+
+        sut.submitVarsDesc("v0", false);
+        listener.awaitStarted();
+        for (int i = 1; i <= 50; ++i) {
+            sut.submitVarsDesc("v" + i, false);
+            sut.submitMainDesc("m" + i, false, i == 1);
+        }
+        release.countDown();
+        listener.await(3);
+        Thread.sleep(100);
+
+        assertEquals(3, listener.events.size());
+        assertTrue(listener.events.contains("vars v50"));
+        assertTrue(listener.events.contains("page m50: m50"));
+    }
+
+    @Test
+    public void submit_afterShutdown_isDropped() throws InterruptedException {
+        sut.shutdown();
+
+        sut.submitMainDesc("m", false, true);
+        sut.submitVarsDesc("v", false);
+        Thread.sleep(100);
+
+        assertTrue(listener.events.isEmpty(), listener.events.toString());
+    }
+
+    private void submitAndAwait(String text, boolean useHtml, boolean reload, int eventsCount) throws InterruptedException {
+        sut.submitMainDesc(text, useHtml, reload);
+        // Пустой запрос дополнительного описания отмечает, что предыдущие запросы обработаны
+        CountDownLatch done = new CountDownLatch(1);
+        listener.onIdle = done;
+        sut.submitVarsDesc("", false);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(eventsCount, listener.events.size(), listener.events.toString());
+    }
+
+    private static class RecordingListener implements HtmlRenderPipeline.Listener {
+        private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch started = new CountDownLatch(1);
+        private CountDownLatch release;
+        private volatile CountDownLatch onIdle;
+
+        private void blockFirstEventUntil(CountDownLatch release) {
+            this.release = release;
+        }
+
+        private void awaitStarted() throws InterruptedException {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+
+        private void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(count, events.size(), events.toString());
+        }
+
+        private void record(String event) {
+            started.countDown();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                release = null;
+            }
+            events.add(event);
+        }
+
+        @Override
+        public void onMainDescConverted(String text, String html) {
+            record("page " + text + ": " + html);
+        }
+
+        @Override
+        public void onMainDescAppended(String baseText, String text, String html) {
+            record("append " + baseText + " -> " + text + ": " + html);
+        }
+
+        @Override
+        public void onVarsDescConverted(String html) {
+            CountDownLatch idle = onIdle;
+            if (idle != null) {
+                idle.countDown();
+                return;
+            }
+            record("vars " + html);
+        }
+    }
+}
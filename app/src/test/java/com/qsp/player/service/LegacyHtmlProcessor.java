@@ -0,0 +1,78 @@
+package com.qsp.player.service;
+
+import android.util.Base64;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.qsp.player.util.Base64Util.encodeBase64;
+import static com.qsp.player.util.StringUtil.isNullOrEmpty;
+
+/**
+ * Прежняя реализация {@link HtmlProcessor} на регулярных выражениях и Jsoup,
+ * с результатами которой сравнивается текущая.
+ */
+class LegacyHtmlProcessor {
+    private static final int IMAGE_WIDTH_THRESHOLD = 400;
+
+    private static final Pattern execPattern = Pattern.compile("href=\"exec:([\\s\\S]*?)\"", Pattern.CASE_INSENSITIVE);
+
+    private final GameContentResolver gameContentResolver;
+    private final ImageProvider imageProvider;
+
+    LegacyHtmlProcessor(GameContentResolver gameContentResolver, ImageProvider imageProvider) {
+        this.gameContentResolver = gameContentResolver;
+        this.imageProvider = imageProvider;
+    }
+
+    String convertQspHtmlToWebViewHtml(String html) {
+        if (isNullOrEmpty(html)) return "";
+
+        return processQspHtml(html).toString();
+    }
+
+    String convertQspHtmlFragmentToWebViewHtml(String html) {
+        if (isNullOrEmpty(html)) return "";
+
+        return processQspHtml(html).body().html();
+    }
+
+    private Document processQspHtml(String html) {
+        String result = html.replace("\\\"", "'");
+        result = encodeExec(result);
+        result = result.replace("\n", "<br>").replace("\r", "");
+
+        Document document = Jsoup.parse(result);
+        document.outputSettings().prettyPrint(false);
+
+        Element body = document.body();
+        for (Element img : body.select("img")) {
+            String absPath = gameContentResolver.getAbsolutePath(img.attr("src"));
+            if (imageProvider.getImageWidth(absPath) > IMAGE_WIDTH_THRESHOLD) {
+                img.attr("style", "max-width:100%;");
+            }
+        }
+        body.select("video")
+                .attr("style", "max-width:100%;")
+                .attr("muted", "true");
+
+        return document;
+    }
+
+    private String encodeExec(String html) {
+        Matcher matcher = execPattern.matcher(html);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String exec = matcher.group(1).replace("\\", "/");
+            String encodedExec = encodeBase64(exec, Base64.NO_WRAP);
+            matcher.appendReplacement(sb, "href=\"exec:" + encodedExec + "\"");
+        }
+        matcher.appendTail(sb);
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package com.qsp.player.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SaveSlotIndexTest {
+
+    @TempDir
+    File savesDir;
+
+    @Test
+    public void load_withoutIndex_scansDirectory() throws IOException {
+        File save = new File(savesDir, "1.SAV");
+        assertTrue(save.createNewFile());
+        assertTrue(new File(savesDir, "notes.txt").createNewFile());
+
+        SaveSlotIndex index = SaveSlotIndex.load(savesDir);
+
+        SaveSlotIndex.Slot slot = index.get("1.sav");
+        assertEquals("1.SAV", slot.getFilename());
+        assertEquals(save.lastModified(), slot.getTime());
+        assertEquals("", slot.getLocName());
+        assertNull(index.get("notes.txt"));
+        assertTrue(new File(savesDir, "slots.idx").exists());
+    }
+
+    @Test
+    public void put_isPersisted() throws IOException {
+        File save = new File(savesDir, "2.sav");
+        assertTrue(save.createNewFile());
+        SaveSlotIndex.load(savesDir).put(SaveSlotIndex.Slot.fromFile(save, "Кухня", "Вы на кухне."));
+
+        SaveSlotIndex.Slot slot = SaveSlotIndex.load(savesDir).get("2.sav");
+        assertEquals("Кухня", slot.getLocName());
+        assertEquals("Вы на кухне.", slot.getThumbnail());
+    }
+
+    @Test
+    public void getLatest_filtersByPrefix() {
+        SaveSlotIndex index = SaveSlotIndex.load(savesDir);
+        index.put(new SaveSlotIndex.Slot("autosave1.sav", 2000, 10, null, null));
+        index.put(new SaveSlotIndex.Slot("AUTOSAVE2.sav", 3000, 10, null, null));
+        index.put(new SaveSlotIndex.Slot("1.sav", 4000, 10, null, null));
+
+        assertEquals("AUTOSAVE2.sav", index.getLatest("autosave").getFilename());
+        assertNull(index.getLatest("quick"));
+    }
+}
@@ -0,0 +1,53 @@
+package com.qsp.player.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ImageUtilTest {
+
+    @Test
+    public void readImageSize_png() throws IOException {
+        assertArrayEquals(new int[]{640, 20}, ImageUtil.readImageSize(encodeImage("png", 640, 20)));
+    }
+
+    @Test
+    public void readImageSize_jpeg() throws IOException {
+        assertArrayEquals(new int[]{640, 20}, ImageUtil.readImageSize(encodeImage("jpg", 640, 20)));
+    }
+
+    @Test
+    public void readImageSize_gif() throws IOException {
+        assertArrayEquals(new int[]{640, 20}, ImageUtil.readImageSize(encodeImage("gif", 640, 20)));
+    }
+
+    @Test
+    public void readImageSize_bmp() throws IOException {
+        assertArrayEquals(new int[]{640, 20}, ImageUtil.readImageSize(encodeImage("bmp", 640, 20)));
+    }
+
+    @Test
+    public void readImageSize_unknownFormat() throws IOException {
+        assertNull(ImageUtil.readImageSize(new ByteArrayInputStream("Test1".getBytes())));
+    }
+
+    @Test
+    public void readImageSize_truncated() throws IOException {
+        assertNull(ImageUtil.readImageSize(new ByteArrayInputStream(new byte[]{(byte) 0xff, (byte) 0xd8})));
+    }
+
+    private static ByteArrayInputStream encodeImage(String format, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+}
@@ -0,0 +1,42 @@
+package com.qsp.player.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class LazyOutputStreamTest {
+
+    @Test
+    public void close_withoutWrites_doesNotOpen() throws IOException {
+        AtomicInteger openCount = new AtomicInteger();
+        LazyOutputStream out = new LazyOutputStream(() -> {
+            openCount.incrementAndGet();
+            return new ByteArrayOutputStream();
+        });
+        out.flush();
+        out.close();
+        assertFalse(out.isOpened());
+        assertEquals(0, openCount.get());
+    }
+
+    @Test
+    public void write_opensOnceAndForwards() throws IOException {
+        AtomicInteger openCount = new AtomicInteger();
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (LazyOutputStream out = new LazyOutputStream(() -> {
+            openCount.incrementAndGet();
+            return target;
+        })) {
+            out.write(1);
+            out.write(new byte[]{2, 3, 4}, 1, 2);
+        }
+        assertEquals(1, openCount.get());
+        assertArrayEquals(new byte[]{1, 3, 4}, target.toByteArray());
+    }
+}
@@ -0,0 +1,78 @@
+package com.qsp.player.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SaveContainerTest {
+
+    @Test
+    public void write_thenRead_returnsSameData() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            sb.append("var").append(i).append("\r\n");
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_16LE);
+
+        byte[] container = write(data);
+        assertTrue(container.length < data.length / 4);
+        assertArrayEquals(data, read(container));
+    }
+
+    @Test
+    public void newOutputStream_writesOnlyAfterFirstWrite() throws IOException {
+        byte[] data = "<SaveData>\r\n".getBytes(StandardCharsets.UTF_16LE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        OutputStream containerOut = SaveContainer.newOutputStream(out);
+        assertEquals(0, out.size());
+        containerOut.write(data, 0, 4);
+        containerOut.write(data, 4, data.length - 4);
+        containerOut.close();
+
+        assertArrayEquals(data, read(out.toByteArray()));
+    }
+
+    @Test
+    public void read_legacySave_returnsAsIs() throws IOException {
+        byte[] legacy = "LNKN<FQ@?<H@\r\n".getBytes(StandardCharsets.UTF_16LE);
+        assertArrayEquals(legacy, read(legacy));
+        assertArrayEquals(new byte[]{'Q', 'S'}, read(new byte[]{'Q', 'S'}));
+    }
+
+    @Test
+    public void read_corruptedSave_throws() throws IOException {
+        byte[] container = write(new byte[1000]);
+
+        byte[] badCrc = container.clone();
+        badCrc[container.length - 8] ^= 1;
+        assertThrows(IOException.class, () -> read(badCrc));
+
+        byte[] truncated = Arrays.copyOf(container, container.length / 2);
+        assertThrows(IOException.class, () -> read(truncated));
+
+        byte[] newerVersion = container.clone();
+        newerVersion[4] = 2;
+        assertThrows(IOException.class, () -> read(newerVersion));
+    }
+
+    private static byte[] write(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SaveContainer.write(out, data);
+        return out.toByteArray();
+    }
+
+    private static byte[] read(byte[] container) throws IOException {
+        return SaveContainer.read(new ByteArrayInputStream(container));
+    }
+}
@@ -0,0 +1,67 @@
+package com.qsp.player.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Образцы основного описания из папки ресурсов <code>corpus</code>:
+ * <code>prose</code> - в основном текст, <code>menu</code> - таблица с частыми ссылками и изображениями.
+ */
+final class Corpus {
+    private static final Pattern imagePattern = Pattern.compile("<(?:img|video) src=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+    private static final Pattern execPattern = Pattern.compile("href=\"exec:(.*?)\">", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @return образец <code>name</code>, повторённый <code>repeat</code> раз, как если бы игра
+     * дописывала его в основное описание
+     */
+    static String load(String name, int repeat) {
+        String sample = readResource("corpus/" + name + ".html");
+        StringBuilder sb = new StringBuilder(sample.length() * repeat);
+        for (int i = 0; i < repeat; ++i) {
+            sb.append(sample);
+        }
+        return sb.toString();
+    }
+
+    static List<String> findImagePaths(String html) {
+        return findAll(imagePattern, html);
+    }
+
+    static List<String> findExecs(String html) {
+        return findAll(execPattern, html);
+    }
+
+    private static List<String> findAll(Pattern pattern, String html) {
+        ArrayList<String> result = new ArrayList<>();
+        Matcher matcher = pattern.matcher(html);
+        while (matcher.find()) {
+            result.add(matcher.group(1));
+        }
+        return result;
+    }
+
+    private static String readResource(String path) {
+        try (InputStream in = Corpus.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Resource not found: " + path);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
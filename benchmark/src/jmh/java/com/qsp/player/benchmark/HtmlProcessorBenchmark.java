@@ -0,0 +1,77 @@
+package com.qsp.player.benchmark;
+
+import com.qsp.player.service.GameContentResolver;
+import com.qsp.player.service.HtmlProcessor;
+import com.qsp.player.service.ImageProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Преобразование основного описания из образцов {@link Corpus} разного размера.
+ */
+@State(Scope.Benchmark)
+public class HtmlProcessorBenchmark {
+
+    @Param({"prose", "menu"})
+    public String corpus;
+
+    @Param({"1", "10", "100"})
+    public int repeat;
+
+    private File gameDir;
+    private String html;
+    private HtmlProcessor htmlProcessor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        html = Corpus.load(corpus, repeat);
+
+        // Изображения должны существовать, иначе GameContentResolver не вернёт путь
+        gameDir = Files.createTempDirectory("qspbench").toFile();
+        for (String path : Corpus.findImagePaths(html)) {
+            File file = new File(gameDir, GameContentResolver.normalizeContentPath(path));
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+        }
+        GameContentResolver gameContentResolver = new GameContentResolver();
+        gameContentResolver.setGameDir(gameDir);
+        ImageProvider imageProvider = new ImageProvider();
+        imageProvider.setImageWidth(640);
+        htmlProcessor = new HtmlProcessor(gameContentResolver, imageProvider);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(gameDir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public String convertQspHtmlToWebViewHtml() {
+        return htmlProcessor.convertQspHtmlToWebViewHtml(html);
+    }
+
+    @Benchmark
+    public String convertQspHtmlFragmentToWebViewHtml() {
+        return htmlProcessor.convertQspHtmlFragmentToWebViewHtml(html);
+    }
+
+    @Benchmark
+    public String removeHtmlTags() {
+        return htmlProcessor.removeHtmlTags(html);
+    }
+}
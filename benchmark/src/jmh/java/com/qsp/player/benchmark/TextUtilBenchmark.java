@@ -0,0 +1,48 @@
+package com.qsp.player.benchmark;
+
+import android.util.Base64;
+
+import com.qsp.player.service.GameContentResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+import static com.qsp.player.util.Base64Util.encodeBase64;
+
+/**
+ * Вспомогательные преобразования строк, выполняемые для каждой ссылки и каждого ресурса.
+ */
+@State(Scope.Benchmark)
+public class TextUtilBenchmark {
+    private String[] execs;
+    private String[] contentPaths;
+
+    @Setup
+    public void setUp() {
+        List<String> execList = Corpus.findExecs(Corpus.load("menu", 1));
+        execs = execList.toArray(new String[0]);
+
+        List<String> pathList = Corpus.findImagePaths(Corpus.load("prose", 1) + Corpus.load("menu", 1));
+        pathList.add("./music/forest_theme.mp3");
+        contentPaths = pathList.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void encodeBase64Exec(Blackhole blackhole) {
+        for (String exec : execs) {
+            blackhole.consume(encodeBase64(exec, Base64.NO_WRAP));
+        }
+    }
+
+    @Benchmark
+    public void normalizeContentPath(Blackhole blackhole) {
+        for (String path : contentPaths) {
+            blackhole.consume(GameContentResolver.normalizeContentPath(path));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package android.util;
+
+/**
+ * Заглушка {@code android.util.Base64} на основе {@link java.util.Base64}
+ * с тем же набором флагов.
+ */
+public class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+
+    private static final int LINE_LENGTH = 76;
+
+    public static String encodeToString(byte[] input, int flags) {
+        java.util.Base64.Encoder encoder;
+        if ((flags & URL_SAFE) != 0) {
+            encoder = java.util.Base64.getUrlEncoder();
+        } else if ((flags & NO_WRAP) != 0) {
+            encoder = java.util.Base64.getEncoder();
+        } else {
+            encoder = java.util.Base64.getMimeEncoder(LINE_LENGTH, lineSeparator(flags));
+        }
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+        String result = encoder.encodeToString(input);
+        if ((flags & NO_WRAP) == 0 && !result.isEmpty()) {
+            result += new String(lineSeparator(flags));
+        }
+        return result;
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return (flags & URL_SAFE) != 0 ?
+                java.util.Base64.getUrlDecoder().decode(str.trim()) :
+                java.util.Base64.getMimeDecoder().decode(str);
+    }
+
+    private static byte[] lineSeparator(int flags) {
+        return (flags & CRLF) != 0 ? new byte[]{'\r', '\n'} : new byte[]{'\n'};
+    }
+}
@@ -0,0 +1,19 @@
+package com.qsp.player.service;
+
+/**
+ * Заглушка {@code ImageProvider} приложения: настоящий класс читает изображения через Android.
+ */
+public class ImageProvider {
+    private int imageWidth;
+
+    /**
+     * Устанавливает ширину, которую будут иметь все изображения.
+     */
+    public void setImageWidth(int imageWidth) {
+        this.imageWidth = imageWidth;
+    }
+
+    public int getImageWidth(String path) {
+        return path != null ? imageWidth : 0;
+    }
+}